@@ -5,12 +5,21 @@
 
 package fi.uef.envi.emrooz;
 
+import static fi.uef.envi.emrooz.EmroozOptions.UNKNOWN_ID_CACHE_SIZE;
+import static fi.uef.envi.emrooz.EmroozOptions.UNKNOWN_ID_CACHE_TTL;
+
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,21 +95,25 @@ public class Emrooz {
 	private KnowledgeStore ks;
 	private DataStore ds;
 
-	private Map<URI, Property> properties;
-	private Map<URI, FeatureOfInterest> features;
-	private Map<URI, Map<URI, Sensor>> sensors;
-	private Map<URI, Sensor> sensorsById;
-	private Map<URI, Dataset> datasets;
-
-	private DateTime instant = null;
-	private Entity entity = null;
-	private final EntityVisitor entityVisitor;
-	private final ComponentPropertyValueVisitor componentPropertyValueVisitor;
-	private final RDFEntityRepresenter representer;
+	// Registries are immutable and replaced as registrations change, hence
+	// reads need no lock and see either the registry before or after a reload
+	private volatile Registry registry;
+	// Expiry times of sensor and dataset identifiers not found after a reload
+	private final ConcurrentMap<List<URI>, Long> unknownIds;
+	private volatile long unknownIdCacheTtl = UNKNOWN_ID_CACHE_TTL;
+
 	private SensorObservationQueryRewriter sensorObservationQueryRewriter;
-	private Map<Sensor, Frequency> sensorFrequencyCache;
 	private Map<URI, QuantityValue> datasetFrequencyCache;
 
+	// Representers hold the state of the entity being represented, hence
+	// each thread adding observations has its own
+	private static final ThreadLocal<RDFEntityRepresenter> representer = new ThreadLocal<RDFEntityRepresenter>() {
+		@Override
+		protected RDFEntityRepresenter initialValue() {
+			return new RDFEntityRepresenter();
+		}
+	};
+
 	private static final Logger log = Logger.getLogger(Emrooz.class.getName());
 
 	public Emrooz(KnowledgeStore ks, DataStore ds) {
@@ -114,18 +127,11 @@ public class Emrooz {
 		this.ks = ks;
 		this.ds = ds;
 
-		this.properties = new HashMap<URI, Property>();
-		this.features = new HashMap<URI, FeatureOfInterest>();
-		this.sensors = new HashMap<URI, Map<URI, Sensor>>();
-		this.sensorsById = new HashMap<URI, Sensor>();
-		this.datasets = new HashMap<URI, Dataset>();
-		this.entityVisitor = new EmroozEntityVisitor();
-		this.componentPropertyValueVisitor = new EmroozComponentPropertyValueVisitor();
-		this.representer = new RDFEntityRepresenter();
+		this.registry = new Registry();
+		this.unknownIds = new ConcurrentHashMap<List<URI>, Long>();
 		this.sensorObservationQueryRewriter = new SensorObservationQueryRewriter(
 				ks);
-		this.sensorFrequencyCache = new HashMap<Sensor, Frequency>();
-		this.datasetFrequencyCache = new HashMap<URI, QuantityValue>();
+		this.datasetFrequencyCache = new ConcurrentHashMap<URI, QuantityValue>();
 
 		init();
 	}
@@ -140,24 +146,41 @@ public class Emrooz {
 		init();
 	}
 
+	public void addSensors(Collection<Sensor> sensors) {
+		if (sensors == null || sensors.isEmpty())
+			return;
+
+		// Registered together and the registry rebuilt once
+		ks.addSensors(sensors);
+		init();
+	}
+
 	public void add(Dataset dataset) {
 		ks.addDataset(dataset);
 		init();
 	}
 
+	public void addDatasets(Collection<Dataset> datasets) {
+		if (datasets == null || datasets.isEmpty())
+			return;
+
+		ks.addDatasets(datasets);
+		init();
+	}
+
 	public Set<Property> getProperties() {
-		return Collections.unmodifiableSet(new HashSet<Property>(properties
-				.values()));
+		return Collections.unmodifiableSet(new HashSet<Property>(
+				registry.properties.values()));
 	}
 
 	public Set<FeatureOfInterest> getFeaturesOfInterest() {
 		return Collections.unmodifiableSet(new HashSet<FeatureOfInterest>(
-				features.values()));
+				registry.features.values()));
 	}
 
 	public Set<Sensor> getSensors() {
-		return Collections.unmodifiableSet(new HashSet<Sensor>(sensorsById
-				.values()));
+		return Collections.unmodifiableSet(new HashSet<Sensor>(
+				registry.sensorsById.values()));
 	}
 
 	public Sensor getSensorById(URI sensorId) {
@@ -167,6 +190,7 @@ public class Emrooz {
 			return null;
 		}
 
+		Map<URI, Sensor> sensorsById = registry.sensorsById;
 		Sensor ret = sensorsById.get(sensorId);
 
 		if (ret == null) {
@@ -179,8 +203,8 @@ public class Emrooz {
 	}
 
 	public Set<Dataset> getDatasets() {
-		return Collections.unmodifiableSet(new HashSet<Dataset>(datasets
-				.values()));
+		return Collections.unmodifiableSet(new HashSet<Dataset>(
+				registry.datasets.values()));
 	}
 
 	public Dataset getDatasetById(URI datasetId) {
@@ -190,6 +214,7 @@ public class Emrooz {
 			return null;
 		}
 
+		Map<URI, Dataset> datasets = registry.datasets;
 		Dataset ret = datasets.get(datasetId);
 
 		if (ret == null) {
@@ -201,24 +226,108 @@ public class Emrooz {
 		return ret;
 	}
 
+	public void setUnknownIdCacheTtl(long unknownIdCacheTtl) {
+		if (unknownIdCacheTtl < 0)
+			throw new IllegalArgumentException(
+					"Unknown identifier cache TTL cannot be negative [unknownIdCacheTtl = "
+							+ unknownIdCacheTtl + "]");
+
+		this.unknownIdCacheTtl = unknownIdCacheTtl;
+	}
+
+	public long getUnknownIdCacheTtl() {
+		return unknownIdCacheTtl;
+	}
+
 	public void addSensorObservation(Set<Statement> statements) {
-		add(representer.createSensorObservation(statements));
+		add(representer.get().createSensorObservation(statements));
 	}
 
 	public void addSensorObservations(Set<Statement> statements) {
-		add(representer.createSensorObservations(statements));
+		add(representer.get().createSensorObservations(statements));
 	}
 
 	public void add(Set<SensorObservation> observations) {
-		for (SensorObservation observation : observations)
-			add(observation);
+		if (observations == null)
+			return;
+
+		// Group the observations by sensor, property and feature so that the
+		// specification and frequency are resolved once per series and the
+		// data store receives each series as a whole
+		Map<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>> series = new HashMap<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>>();
+		Map<URI, Sensor> sensorEntities = new HashMap<URI, Sensor>();
+		Map<URI, Property> propertyEntities = new HashMap<URI, Property>();
+		Map<URI, FeatureOfInterest> featureEntities = new HashMap<URI, FeatureOfInterest>();
+
+		for (SensorObservation observation : observations) {
+			DateTime resultTime = getResultTime(observation);
+
+			if (resultTime == null)
+				continue;
+
+			Sensor sensor = observation.getSensor();
+			Property property = observation.getProperty();
+			FeatureOfInterest feature = observation.getFeatureOfInterest();
+
+			sensorEntities.put(sensor.getId(), sensor);
+			propertyEntities.put(property.getId(), property);
+			featureEntities.put(feature.getId(), feature);
+
+			Map<URI, Map<URI, Map<DateTime, Set<Statement>>>> m1 = series
+					.get(sensor.getId());
+
+			if (m1 == null) {
+				m1 = new HashMap<URI, Map<URI, Map<DateTime, Set<Statement>>>>();
+				series.put(sensor.getId(), m1);
+			}
+
+			Map<URI, Map<DateTime, Set<Statement>>> m2 = m1.get(property
+					.getId());
+
+			if (m2 == null) {
+				m2 = new HashMap<URI, Map<DateTime, Set<Statement>>>();
+				m1.put(property.getId(), m2);
+			}
+
+			Map<DateTime, Set<Statement>> m3 = m2.get(feature.getId());
+
+			if (m3 == null) {
+				m3 = new LinkedHashMap<DateTime, Set<Statement>>();
+				m2.put(feature.getId(), m3);
+			}
+
+			m3.put(resultTime,
+					representer.get().createRepresentation(observation));
+		}
+
+		for (Map.Entry<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>> e1 : series
+				.entrySet()) {
+			for (Map.Entry<URI, Map<URI, Map<DateTime, Set<Statement>>>> e2 : e1
+					.getValue().entrySet()) {
+				for (Map.Entry<URI, Map<DateTime, Set<Statement>>> e3 : e2
+						.getValue().entrySet()) {
+					addSensorObservations(sensorEntities.get(e1.getKey()),
+							propertyEntities.get(e2.getKey()),
+							featureEntities.get(e3.getKey()), e3.getValue());
+				}
+			}
+		}
 	}
 
 	public void add(SensorObservation observation) {
-		if (observation == null)
+		DateTime resultTime = getResultTime(observation);
+
+		if (resultTime == null)
 			return;
 
-		instant = null;
+		addSensorObservation(observation.getSensor(),
+				observation.getProperty(), observation.getFeatureOfInterest(),
+				resultTime, representer.get().createRepresentation(observation));
+	}
+
+	private DateTime getResultTime(SensorObservation observation) {
+		if (observation == null)
+			return null;
 
 		Sensor sensor = observation.getSensor();
 		Property property = observation.getProperty();
@@ -229,32 +338,34 @@ public class Emrooz {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Temporal entity of observation is null [observation = "
 						+ observation + "]");
-			return;
+			return null;
 		}
 
-		temporalEntity.accept(entityVisitor);
+		EmroozEntityVisitor visitor = new EmroozEntityVisitor();
 
-		DateTime resultTime = instant;
+		temporalEntity.accept(visitor);
+
+		DateTime resultTime = visitor.instant;
 
 		if (sensor == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Sensor of observation is null [observation = "
 						+ observation + "]");
-			return;
+			return null;
 		}
 
 		if (property == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Property of observation is null [observation = "
 						+ observation + "]");
-			return;
+			return null;
 		}
 
 		if (feature == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Feature of observation is null [observation = "
 						+ observation + "]");
-			return;
+			return null;
 		}
 
 		if (resultTime == null) {
@@ -262,66 +373,103 @@ public class Emrooz {
 				log.severe("Result time of observation is null [observation = "
 						+ observation + "]");
 
-			return;
+			return null;
 		}
 
-		addSensorObservation(observation.getSensor(),
-				observation.getProperty(), observation.getFeatureOfInterest(),
-				instant, representer.createRepresentation(observation));
+		return resultTime;
 	}
 
 	public void addSensorObservation(Sensor sensor, Property property,
 			FeatureOfInterest feature, DateTime resultTime,
 			Set<Statement> statements) {
-		if (sensors.isEmpty())
-			sensors();
-
 		URI sensorId = sensor.getId();
 		URI propertyId = property.getId();
 		URI featureId = feature.getId();
 
-		Sensor specification = getSensorSpecification(sensorId, propertyId);
+		Frequency frequency = getSensorFrequency(sensorId, propertyId);
 
-		if (specification == null) {
-			if (log.isLoggable(Level.WARNING))
-				log.warning("No specification found [sensorId = " + sensorId
-						+ "; propertyId = " + propertyId + "; featureId = "
-						+ featureId + "]");
+		if (frequency == null)
 			return;
-		}
 
-		Frequency frequency = getSensorFrequency(specification);
+		ds.addSensorObservation(sensorId, propertyId, featureId, frequency,
+				resultTime, statements);
+	}
 
-		if (frequency == null) {
-			if (log.isLoggable(Level.WARNING))
-				log.warning("No frequency specified [specification = "
-						+ specification + "]");
+	public void addSensorObservations(Sensor sensor, Property property,
+			FeatureOfInterest feature, Map<DateTime, Set<Statement>> observations) {
+		if (observations == null || observations.isEmpty())
 			return;
-		}
 
-		ds.addSensorObservation(sensorId, propertyId, featureId, frequency,
-				resultTime, statements);
+		URI sensorId = sensor.getId();
+		URI propertyId = property.getId();
+		URI featureId = feature.getId();
+
+		Frequency frequency = getSensorFrequency(sensorId, propertyId);
+
+		if (frequency == null)
+			return;
+
+		ds.addSensorObservations(sensorId, propertyId, featureId, frequency,
+				observations);
 	}
 
 	public void addDatasetObservation(Set<Statement> statements) {
-		add(representer.createDatasetObservation(statements));
+		add(representer.get().createDatasetObservation(statements));
 	}
 
 	public void addDatasetObservations(Set<Statement> statements) {
-		throw new UnsupportedOperationException(); // TODO
-		// add(representer.createDatasetObservations(statements));
+		addDatasetObservations(representer.get().createDatasetObservations(
+				statements));
 	}
 
-	// public void add(Set<DatasetObservation> observations) {
-	// for (DatasetObservation observation : observations)
-	// add(observation);
-	// }
+	// Not add(Set<DatasetObservation>) because it has the same erasure as
+	// add(Set<SensorObservation>)
+	public void addDatasetObservations(
+			Collection<DatasetObservation> observations) {
+		if (observations == null)
+			return;
+
+		Map<URI, Map<DateTime, Set<Statement>>> series = new HashMap<URI, Map<DateTime, Set<Statement>>>();
+
+		for (DatasetObservation observation : observations) {
+			DateTime timePeriod = getTimePeriod(observation);
+
+			if (timePeriod == null)
+				continue;
+
+			URI datasetId = observation.getDatasetId();
+
+			Map<DateTime, Set<Statement>> m1 = series.get(datasetId);
+
+			if (m1 == null) {
+				m1 = new LinkedHashMap<DateTime, Set<Statement>>();
+				series.put(datasetId, m1);
+			}
+
+			m1.put(timePeriod,
+					representer.get().createRepresentation(observation));
+		}
+
+		for (Map.Entry<URI, Map<DateTime, Set<Statement>>> entry : series
+				.entrySet()) {
+			addDatasetObservations(entry.getKey(), entry.getValue());
+		}
+	}
 
 	public void add(DatasetObservation observation) {
-		if (observation == null)
+		DateTime timePeriod = getTimePeriod(observation);
+
+		if (timePeriod == null)
 			return;
 
-		URI datasetId = observation.getDatasetId();
+		addDatasetObservation(observation.getDatasetId(), timePeriod,
+				representer.get().createRepresentation(observation));
+	}
+
+	private DateTime getTimePeriod(DatasetObservation observation) {
+		if (observation == null)
+			return null;
+
 		ComponentPropertyValue componentPropertyValue = observation
 				.getComponentPropertyValue(new DimensionProperty(
 						SDMXDimension.timePeriod));
@@ -330,45 +478,43 @@ public class Emrooz {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Failed to obtain timePeriod component property value of observation [observation = "
 						+ observation + "]");
-			return;
+			return null;
 		}
 
-		entity = null;
+		EmroozComponentPropertyValueVisitor componentPropertyValueVisitor = new EmroozComponentPropertyValueVisitor();
 
 		componentPropertyValue.accept(componentPropertyValueVisitor);
 
+		Entity entity = componentPropertyValueVisitor.entity;
+
 		if (entity == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Failed to obtain value entity for component property [componentPropertyValue = "
 						+ componentPropertyValue
 						+ "; observation = "
 						+ observation + "]");
-			return;
+			return null;
 		}
 
-		instant = null;
+		EmroozEntityVisitor entityVisitor = new EmroozEntityVisitor();
 
 		entity.accept(entityVisitor);
 
-		DateTime timePeriod = instant;
+		DateTime timePeriod = entityVisitor.instant;
 
 		if (timePeriod == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Time period of observation is null [observation = "
 						+ observation + "]");
 
-			return;
+			return null;
 		}
 
-		addDatasetObservation(datasetId, timePeriod,
-				representer.createRepresentation(observation));
+		return timePeriod;
 	}
 
 	public void addDatasetObservation(URI datasetId, DateTime timePeriod,
 			Set<Statement> statements) {
-		if (datasets.isEmpty())
-			datasets();
-
 		Dataset specification = getDatasetSpecification(datasetId);
 
 		if (specification == null) {
@@ -390,6 +536,32 @@ public class Emrooz {
 		ds.addDatasetObservation(datasetId, frequency, timePeriod, statements);
 	}
 
+	public void addDatasetObservations(URI datasetId,
+			Map<DateTime, Set<Statement>> observations) {
+		if (observations == null || observations.isEmpty())
+			return;
+
+		Dataset specification = getDatasetSpecification(datasetId);
+
+		if (specification == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("No specification found [datasetId = " + datasetId
+						+ "]");
+			return;
+		}
+
+		QuantityValue frequency = getDatasetFrequency(specification);
+
+		if (frequency == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("No frequency specified [specification = "
+						+ specification + "]");
+			return;
+		}
+
+		ds.addDatasetObservations(datasetId, frequency, observations);
+	}
+
 	public ResultSet<BindingSet> evaluate(QueryType type, String query) {
 		return evaluate(type, QueryFactory.createParsedQuery(query));
 	}
@@ -399,11 +571,14 @@ public class Emrooz {
 		evaluate(type, QueryFactory.createParsedQuery(query), handler);
 	}
 
-	private void init() {
-		properties();
-		features();
-		sensors();
-		datasets();
+	private synchronized void init() {
+		Set<Sensor> sensors = ks.getSensors();
+
+		registry = new Registry().withProperties(ks.getProperties())
+				.withFeatures(ks.getFeaturesOfInterest()).withSensors(sensors)
+				.withDatasets(ks.getDatasets());
+		unknownIds.clear();
+		sensorObservationQueryRewriter.update(sensors);
 	}
 
 	private ResultSet<BindingSet> evaluate(QueryType type, ParsedQuery query) {
@@ -534,23 +709,10 @@ public class Emrooz {
 				return null;
 			}
 
-			Sensor specification = getSensorSpecification(sensorId, propertyId);
+			Frequency frequency = getSensorFrequency(sensorId, propertyId);
 
-			if (specification == null) {
-				if (log.isLoggable(Level.WARNING))
-					log.warning("No specification found [sensorId = "
-							+ sensorId + "; propertyId = " + propertyId + "]");
+			if (frequency == null)
 				return null;
-			}
-
-			Frequency frequency = getSensorFrequency(specification);
-
-			if (frequency == null) {
-				if (log.isLoggable(Level.WARNING))
-					log.warning("No frequency specified [specification = "
-							+ specification + "]");
-				return null;
-			}
 
 			queriesMap.put(rewrittenQuery, frequency);
 		}
@@ -593,129 +755,143 @@ public class Emrooz {
 				ds.createDatasetObservationQueryHandler(queriesMap), original);
 	}
 
-	private void properties() {
-		properties.clear();
-		
-		Set<Property> properties = ks.getProperties();
-		
-		for (Property property : properties) {
-			this.properties.put(property.getId(), property);
-		}
-	}
-	
-	private void features() {
-		features.clear();
-		
-		Set<FeatureOfInterest> features = ks.getFeaturesOfInterest();
-		
-		for (FeatureOfInterest feature : features) {
-			this.features.put(feature.getId(), feature);
-		}
-	}
-	
-	private void sensors() {
-		sensors.clear();
-		sensorsById.clear();
+	private Sensor getSensorSpecification(URI sensorId, URI propertyId) {
+		Sensor ret = registry.getSensorSpecification(sensorId, propertyId);
 
-		Set<Sensor> sensors = ks.getSensors();
+		if (ret != null)
+			return ret;
 
-		for (Sensor sensor : sensors) {
-			URI sensorId = sensor.getId();
+		List<URI> id = Arrays.asList(sensorId, propertyId);
 
-			sensorsById.put(sensorId, sensor);
+		if (isUnknown(id))
+			return null;
 
-			Map<URI, Sensor> m1 = this.sensors.get(sensorId);
+		synchronized (this) {
+			// Another thread may have reloaded sensors or found the sensor
+			// unknown while this one waited
+			if (isUnknown(id))
+				return null;
 
-			if (m1 == null) {
-				m1 = new HashMap<URI, Sensor>();
-				this.sensors.put(sensorId, m1);
-			}
+			ret = registry.getSensorSpecification(sensorId, propertyId);
 
-			Set<Property> properties = sensor.getObservedProperties();
+			if (ret != null)
+				return ret;
 
-			if (properties.isEmpty()) {
-				if (log.isLoggable(Level.WARNING))
-					log.warning("Sensor must specify at least one observed property [sensor = "
-							+ sensor + "]");
-				continue;
-			}
+			// Load sensors and check again, perhaps there are new sensors
+			Set<Sensor> sensors = ks.getSensors();
 
-			for (Property property : properties) {
-				m1.put(property.getId(), sensor);
-			}
+			registry = registry.withSensors(sensors);
+			sensorObservationQueryRewriter.update(sensors);
+
+			ret = registry.getSensorSpecification(sensorId, propertyId);
+
+			if (ret != null)
+				return ret;
+
+			setUnknown(id);
 		}
+
+		if (log.isLoggable(Level.WARNING))
+			log.warning("Failed to resolve sensor specification [sensorId = "
+					+ sensorId + "; propertyId = " + propertyId
+					+ "; unknownIdCacheTtl = " + unknownIdCacheTtl + "]");
+
+		return null;
 	}
 
-	private void datasets() {
-		datasets.clear();
+	private Dataset getDatasetSpecification(URI datasetId) {
+		Dataset ret = registry.datasets.get(datasetId);
+
+		if (ret != null)
+			return ret;
+
+		List<URI> id = Collections.singletonList(datasetId);
+
+		if (isUnknown(id))
+			return null;
+
+		synchronized (this) {
+			if (isUnknown(id))
+				return null;
+
+			ret = registry.datasets.get(datasetId);
+
+			if (ret != null)
+				return ret;
+
+			registry = registry.withDatasets(ks.getDatasets());
 
-		Set<Dataset> datasets = ks.getDatasets();
+			ret = registry.datasets.get(datasetId);
 
-		for (Dataset dataset : datasets) {
-			URI datasetId = dataset.getId();
+			if (ret != null)
+				return ret;
 
-			this.datasets.put(datasetId, dataset);
+			setUnknown(id);
 		}
+
+		if (log.isLoggable(Level.WARNING))
+			log.warning("Failed to resolve dataset specification [datasetId = "
+					+ datasetId + "; unknownIdCacheTtl = " + unknownIdCacheTtl
+					+ "]");
+
+		return null;
 	}
 
-	private Sensor getSensorSpecification(URI sensorId, URI propertyId) {
-		Map<URI, Sensor> m1 = sensors.get(sensorId);
+	private boolean isUnknown(List<URI> id) {
+		Long expiry = unknownIds.get(id);
 
-		if (m1 == null) {
-			sensors();
-			m1 = sensors.get(sensorId);
-			if (m1 == null) {
-				if (log.isLoggable(Level.WARNING))
-					log.warning("Failed to resolve sensor specification for sensor [sensorId = "
-							+ sensorId + "; sensors = " + sensors + "]");
-				return null;
-			}
-		}
+		if (expiry == null)
+			return false;
 
-		Sensor specification = m1.get(propertyId);
+		if (expiry.longValue() > System.currentTimeMillis())
+			return true;
 
-		if (specification == null) {
-			// Load sensors and check again, perhaps there are new sensors
-			sensors();
-			m1 = sensors.get(sensorId);
-			specification = m1.get(propertyId);
-			if (specification == null) {
-				if (log.isLoggable(Level.WARNING))
-					log.warning("Failed to resolve sensor specification for feature [sensorId = "
-							+ sensorId
-							+ "; propertyId = "
-							+ propertyId
-							+ "; sensors = " + sensors + "]");
-				return null;
-			}
-		}
+		unknownIds.remove(id, expiry);
 
-		return specification;
+		return false;
 	}
 
-	private Dataset getDatasetSpecification(URI datasetId) {
-		Dataset specification = datasets.get(datasetId);
+	private void setUnknown(List<URI> id) {
+		if (unknownIdCacheTtl == 0)
+			return;
 
-		if (specification == null) {
-			datasets();
-			specification = datasets.get(datasetId);
-			if (specification == null) {
-				if (log.isLoggable(Level.WARNING))
-					log.warning("Failed to resolve dataset specification [datasetId = "
-							+ datasetId + "]");
-				return null;
-			}
-		}
+		// Bounded for streams of arbitrary identifiers, entries expire anyway
+		if (unknownIds.size() >= UNKNOWN_ID_CACHE_SIZE)
+			unknownIds.clear();
 
-		return specification;
+		unknownIds.put(id, System.currentTimeMillis() + unknownIdCacheTtl);
 	}
 
-	private Frequency getSensorFrequency(Sensor specification) {
-		Frequency ret = sensorFrequencyCache.get(specification);
+	private Frequency getSensorFrequency(URI sensorId, URI propertyId) {
+		// Frequencies are resolved as sensors are loaded, hence an observation
+		// of a registered series costs a single lookup
+		Frequency ret = registry.frequencies.get(Arrays.asList(sensorId,
+				propertyId));
 
 		if (ret != null)
 			return ret;
 
+		Sensor specification = getSensorSpecification(sensorId, propertyId);
+
+		if (specification == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("No specification found [sensorId = " + sensorId
+						+ "; propertyId = " + propertyId + "]");
+			return null;
+		}
+
+		ret = getSensorFrequency(specification);
+
+		if (ret == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("No frequency specified [specification = "
+						+ specification + "]");
+		}
+
+		return ret;
+	}
+
+	private static Frequency getSensorFrequency(Sensor specification) {
 		Set<MeasurementCapability> measCapabilities = specification
 				.getMeasurementCapabilities();
 
@@ -727,11 +903,7 @@ public class Emrooz {
 				if (!(measProperty instanceof Frequency))
 					continue;
 
-				ret = (Frequency) measProperty;
-
-				sensorFrequencyCache.put(specification, ret);
-
-				return ret;
+				return (Frequency) measProperty;
 			}
 		}
 
@@ -763,9 +935,136 @@ public class Emrooz {
 		return null;
 	}
 
-	private class EmroozComponentPropertyValueVisitor implements
+	private static class Registry {
+
+		private Map<URI, Property> properties;
+		private Map<URI, FeatureOfInterest> features;
+		private Map<URI, Map<URI, Sensor>> sensors;
+		private Map<URI, Sensor> sensorsById;
+		private Map<List<URI>, Frequency> frequencies;
+		private Map<URI, Dataset> datasets;
+
+		private Registry() {
+			this.properties = Collections.emptyMap();
+			this.features = Collections.emptyMap();
+			this.sensors = Collections.emptyMap();
+			this.sensorsById = Collections.emptyMap();
+			this.frequencies = Collections.emptyMap();
+			this.datasets = Collections.emptyMap();
+		}
+
+		private Registry(Registry registry) {
+			this.properties = registry.properties;
+			this.features = registry.features;
+			this.sensors = registry.sensors;
+			this.sensorsById = registry.sensorsById;
+			this.frequencies = registry.frequencies;
+			this.datasets = registry.datasets;
+		}
+
+		private Sensor getSensorSpecification(URI sensorId, URI propertyId) {
+			Map<URI, Sensor> m1 = sensors.get(sensorId);
+
+			if (m1 == null)
+				return null;
+
+			return m1.get(propertyId);
+		}
+
+		private Registry withProperties(Set<Property> properties) {
+			Map<URI, Property> m = new HashMap<URI, Property>();
+
+			for (Property property : properties) {
+				m.put(property.getId(), property);
+			}
+
+			Registry ret = new Registry(this);
+			ret.properties = Collections.unmodifiableMap(m);
+
+			return ret;
+		}
+
+		private Registry withFeatures(Set<FeatureOfInterest> features) {
+			Map<URI, FeatureOfInterest> m = new HashMap<URI, FeatureOfInterest>();
+
+			for (FeatureOfInterest feature : features) {
+				m.put(feature.getId(), feature);
+			}
+
+			Registry ret = new Registry(this);
+			ret.features = Collections.unmodifiableMap(m);
+
+			return ret;
+		}
+
+		private Registry withSensors(Set<Sensor> sensors) {
+			Map<URI, Map<URI, Sensor>> m = new HashMap<URI, Map<URI, Sensor>>();
+			Map<URI, Sensor> sensorsById = new HashMap<URI, Sensor>();
+			Map<List<URI>, Frequency> frequencies = new HashMap<List<URI>, Frequency>();
+
+			for (Sensor sensor : sensors) {
+				URI sensorId = sensor.getId();
+
+				sensorsById.put(sensorId, sensor);
+
+				Map<URI, Sensor> m1 = m.get(sensorId);
+
+				if (m1 == null) {
+					m1 = new HashMap<URI, Sensor>();
+					m.put(sensorId, m1);
+				}
+
+				Set<Property> properties = sensor.getObservedProperties();
+
+				if (properties.isEmpty()) {
+					if (log.isLoggable(Level.WARNING))
+						log.warning("Sensor must specify at least one observed property [sensor = "
+								+ sensor + "]");
+					continue;
+				}
+
+				Frequency frequency = getSensorFrequency(sensor);
+
+				for (Property property : properties) {
+					m1.put(property.getId(), sensor);
+
+					if (frequency != null)
+						frequencies.put(
+								Arrays.asList(sensorId, property.getId()),
+								frequency);
+				}
+			}
+
+			Registry ret = new Registry(this);
+			ret.sensors = Collections.unmodifiableMap(m);
+			ret.sensorsById = Collections.unmodifiableMap(sensorsById);
+			ret.frequencies = Collections.unmodifiableMap(frequencies);
+
+			return ret;
+		}
+
+		private Registry withDatasets(Set<Dataset> datasets) {
+			Map<URI, Dataset> m = new HashMap<URI, Dataset>();
+
+			for (Dataset dataset : datasets) {
+				m.put(dataset.getId(), dataset);
+			}
+
+			Registry ret = new Registry(this);
+			ret.datasets = Collections.unmodifiableMap(m);
+
+			return ret;
+		}
+
+	}
+
+	// Visitors are created for each observation and return the visited value
+	// in a field, hence observations are added concurrently
+	private static class EmroozComponentPropertyValueVisitor implements
 			ComponentPropertyValueVisitor {
 
+		private Entity entity = null;
+
 		@Override
 		public void visit(ComponentPropertyValueEntity value) {
 			entity = value.getValue();
@@ -797,7 +1096,9 @@ public class Emrooz {
 
 	}
 
-	private class EmroozEntityVisitor implements EntityVisitor {
+	private static class EmroozEntityVisitor implements EntityVisitor {
+
+		private DateTime instant = null;
 
 		@Override
 		public void visit(SensorObservation entity) {
@@ -32,6 +32,18 @@ public class EmroozOptions {
 	
 	public final static String REGISTRATIONS_TABLE = "registrations";
 	
+	public final static String DICTIONARY_TABLE = "dictionary";
+	
+	public final static String DICTIONARY_IDS_TABLE = "dictionary_ids";
+	
+	public final static String DICTIONARY_SEQUENCE_TABLE = "dictionary_sequence";
+	
+	public final static String PARTITIONS_TABLE = "partitions";
+	
+	public final static String SERIES_TABLE = "series";
+	
+	public final static String CUTOVERS_TABLE = "cutovers";
+	
 	public final static String ROWKEY_DATETIME_PATTERN = "yyyyMMddHHmmss";
 	
 	public final static String DATA_TABLE_ATTRIBUTE_1 = "key";
@@ -40,4 +52,36 @@ public class EmroozOptions {
 	
 	public final static String DATA_TABLE_ATTRIBUTE_3 = "value";
 	
+	public final static int MAX_IN_FLIGHT_WRITES = 256;
+	
+	public final static int WRITE_BATCH_SIZE = 50;
+	
+	public final static long WRITE_BATCH_MAX_AGE = 1000;
+	
+	public final static int INGEST_CHUNK_SIZE = 10000;
+	
+	public final static int MAX_CONCURRENT_READS = 32;
+	
+	public final static int PARTITION_PREFETCH = 4;
+	
+	public final static int MIN_FETCH_SIZE = 100;
+	
+	public final static int MAX_FETCH_SIZE = 5000;
+	
+	public final static int DICTIONARY_ID_BLOCK_SIZE = 100;
+	
+	public final static int DICTIONARY_CACHE_SIZE = 100000;
+	
+	public final static int SSTABLE_BUFFER_SIZE_IN_MB = 64;
+	
+	public final static int PARTITION_INDEX_CACHE_SIZE = 100000;
+	
+	public final static int ORDERED_EVALUATION_CHUNK_SIZE = 10000;
+	
+	public final static long UNKNOWN_ID_CACHE_TTL = 60000;
+	
+	public final static int UNKNOWN_ID_CACHE_SIZE = 100000;
+	
+	public final static long QUERY_REWRITER_RELOAD_INTERVAL = 60000;
+	
 }
@@ -40,9 +40,16 @@ public interface DataStore extends Store {
 			URI featureId, Frequency frequency, DateTime resultTime,
 			Set<Statement> statements);
 
+	public void addSensorObservations(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency,
+			Map<DateTime, Set<Statement>> observations);
+
 	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
 			DateTime timePeriod, Set<Statement> statements);
 
+	public void addDatasetObservations(URI datasetId, QuantityValue frequency,
+			Map<DateTime, Set<Statement>> observations);
+
 	public QueryHandler<Statement> createSensorObservationQueryHandler(
 			Map<SensorObservationQuery, Frequency> queries);
 
@@ -6,6 +6,7 @@
 package fi.uef.envi.emrooz.api;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Set;
 
 import org.openrdf.model.Statement;
@@ -40,7 +41,11 @@ public interface KnowledgeStore extends Store {
 
 	public void addSensor(Sensor sensor);
 	
+	public void addSensors(Collection<Sensor> sensors);
+	
 	public void addDataset(Dataset dataset);
+	
+	public void addDatasets(Collection<Dataset> datasets);
 
 	public Set<Property> getProperties();
 	
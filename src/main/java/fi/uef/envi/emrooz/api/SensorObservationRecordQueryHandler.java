@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.api;
+
+import org.openrdf.model.Statement;
+
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: SensorObservationRecordQueryHandler
+ * </p>
+ * <p>
+ * Description: Query handler of a data store that also returns the sensor
+ * observations of a query as records, in time order, so that queries for
+ * their values are answered without statements
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public interface SensorObservationRecordQueryHandler extends
+		QueryHandler<Statement> {
+
+	public TimeOrderedResultSet<SensorObservationRecord> evaluateRecords();
+
+}
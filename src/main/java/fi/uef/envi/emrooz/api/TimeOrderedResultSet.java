@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.api;
+
+import org.joda.time.DateTime;
+
+/**
+ * <p>
+ * Title: TimeOrderedResultSet
+ * </p>
+ * <p>
+ * Description: Result set of observation statements ordered by result time,
+ * with the statements of an observation returned one after the other
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public interface TimeOrderedResultSet<T> extends ResultSet<T> {
+
+	/**
+	 * @return the result time of the observation of the next element, or
+	 *         null if there is no next element
+	 */
+	public DateTime getTime();
+
+}
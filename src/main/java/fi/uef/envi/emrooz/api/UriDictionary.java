@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.api;
+
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: UriDictionary
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public interface UriDictionary {
+
+	public long getId(URI uri);
+
+	public URI getUri(long id);
+
+}
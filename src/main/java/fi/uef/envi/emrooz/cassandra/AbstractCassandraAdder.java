@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.Compression;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.CompressionUtils;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationBlockCodec;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationRoute;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+
+/**
+ * <p>
+ * Title: AbstractCassandraAdder
+ * </p>
+ * <p>
+ * Description: Maps observations to row keys, column names and column values
+ * of the data table and leaves writing the cells to subclasses
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public abstract class AbstractCassandraAdder extends CassandraRequestHandler {
+
+	// Sensor observations are written with the compact codec unless it is
+	// disabled, in which case all column values are BinaryRDF
+	private SensorObservationCodec codec = new SensorObservationCodec();
+
+	// Bulk added sensor observations of the same row key and block window are
+	// packed into one column value; a block window of 0 disables blocks
+	private long blockWindow;
+	private SensorObservationBlockCodec blockCodec = new SensorObservationBlockCodec();
+
+	private Compression compression = Compression.NONE;
+
+	// Statements that are not compact encoded are written with URIs
+	// replaced by dictionary identifiers if a dictionary is set
+	private UriDictionary dictionary;
+
+	private static final Logger log = Logger
+			.getLogger(AbstractCassandraAdder.class.getName());
+
+	public void setCompactEncoding(boolean compactEncoding) {
+		if (compactEncoding && codec == null)
+			codec = new SensorObservationCodec();
+		else if (!compactEncoding)
+			codec = null;
+	}
+
+	public boolean isCompactEncoding() {
+		return codec != null;
+	}
+
+	public void setBlockWindow(long blockWindow) {
+		if (blockWindow < 0)
+			throw new IllegalArgumentException(
+					"Block window cannot be negative [blockWindow = "
+							+ blockWindow + "]");
+
+		this.blockWindow = blockWindow;
+	}
+
+	public long getBlockWindow() {
+		return blockWindow;
+	}
+
+	public void setCompression(Compression compression) {
+		if (compression == null)
+			throw new NullPointerException("[compression = null]");
+
+		this.compression = compression;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public void setUriDictionary(UriDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	public UriDictionary getUriDictionary() {
+		return dictionary;
+	}
+
+	public void addSensorObservation(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements) {
+		UUID columnName = TimeUUID.toUUID(resultTime);
+		SensorObservationRoute route = getRoute(sensorId, propertyId,
+				featureId, frequency);
+		String rowKey = getRowKey(route, resultTime);
+
+		indexPartition(route, resultTime, rowKey);
+		addSensorObservation(rowKey, columnName,
+				toByteArray(sensorId, propertyId, featureId, columnName,
+						statements));
+	}
+
+	public void addSensorObservations(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency,
+			Map<DateTime, Set<Statement>> observations) {
+		Map<String, Map<UUID, byte[]>> partitions = new LinkedHashMap<String, Map<UUID, byte[]>>();
+		Map<String, Map<Long, SortedMap<DateTime, Set<Statement>>>> blocks = null;
+		// Resolved once, observations only add the date of their partition
+		SensorObservationRoute route = getRoute(sensorId, propertyId,
+				featureId, frequency);
+
+		if (blockWindow > 0 && codec != null)
+			blocks = new LinkedHashMap<String, Map<Long, SortedMap<DateTime, Set<Statement>>>>();
+
+		for (Map.Entry<DateTime, Set<Statement>> observation : observations
+				.entrySet()) {
+			DateTime resultTime = observation.getKey();
+			Set<Statement> statements = observation.getValue();
+
+			if (resultTime == null || statements == null
+					|| statements.isEmpty()) {
+				if (log.isLoggable(Level.WARNING))
+					log.warning("Skipped observation without result time or statements [sensorId = "
+							+ sensorId
+							+ "; propertyId = "
+							+ propertyId
+							+ "; featureId = "
+							+ featureId
+							+ "; resultTime = "
+							+ resultTime + "]");
+				continue;
+			}
+
+			String rowKey = getRowKey(route, resultTime);
+
+			indexPartition(route, resultTime, rowKey);
+
+			if (blocks != null && rowKey != null) {
+				add(blocks, rowKey, resultTime, statements);
+				continue;
+			}
+
+			UUID columnName = TimeUUID.toUUID(resultTime);
+
+			add(partitions, rowKey, columnName,
+					toByteArray(sensorId, propertyId, featureId, columnName,
+							statements));
+		}
+
+		if (blocks != null)
+			addBlocks(partitions, sensorId, propertyId, featureId, blocks);
+
+		write(partitions);
+	}
+
+	private void add(
+			Map<String, Map<Long, SortedMap<DateTime, Set<Statement>>>> blocks,
+			String rowKey, DateTime resultTime, Set<Statement> statements) {
+		Map<Long, SortedMap<DateTime, Set<Statement>>> windows = blocks
+				.get(rowKey);
+
+		if (windows == null) {
+			windows = new LinkedHashMap<Long, SortedMap<DateTime, Set<Statement>>>();
+			blocks.put(rowKey, windows);
+		}
+
+		// Windows are aligned to the epoch and grouped within the row key,
+		// hence a block never spans partitions
+		long millis = resultTime.getMillis();
+		long window = millis / blockWindow;
+
+		if (millis < 0 && millis % blockWindow != 0)
+			window--;
+
+		SortedMap<DateTime, Set<Statement>> block = windows.get(window);
+
+		if (block == null) {
+			block = new TreeMap<DateTime, Set<Statement>>();
+			windows.put(window, block);
+		}
+
+		block.put(resultTime, statements);
+	}
+
+	private void addBlocks(Map<String, Map<UUID, byte[]>> partitions,
+			URI sensorId, URI propertyId, URI featureId,
+			Map<String, Map<Long, SortedMap<DateTime, Set<Statement>>>> blocks) {
+		for (Map.Entry<String, Map<Long, SortedMap<DateTime, Set<Statement>>>> entry : blocks
+				.entrySet()) {
+			String rowKey = entry.getKey();
+
+			for (SortedMap<DateTime, Set<Statement>> block : entry.getValue()
+					.values()) {
+				UUID columnName = TimeUUID.toUUID(block.firstKey());
+
+				if (block.size() > 1) {
+					byte[] columnValue = blockCodec.encode(sensorId,
+							propertyId, featureId, columnName, block);
+
+					if (columnValue != null) {
+						add(partitions, rowKey, columnName, columnValue);
+						continue;
+					}
+				}
+
+				for (Map.Entry<DateTime, Set<Statement>> observation : block
+						.entrySet()) {
+					columnName = TimeUUID.toUUID(observation.getKey());
+
+					add(partitions, rowKey, columnName,
+							toByteArray(sensorId, propertyId, featureId,
+									columnName, observation.getValue()));
+				}
+			}
+		}
+	}
+
+	private byte[] toByteArray(URI sensorId, URI propertyId, URI featureId,
+			UUID columnName, Set<Statement> statements) {
+		if (statements == null)
+			return null;
+
+		SensorObservationCodec codec = this.codec;
+
+		if (codec != null) {
+			byte[] ret = codec.encode(sensorId, propertyId, featureId,
+					columnName, statements);
+
+			if (ret != null)
+				return ret;
+
+			if (log.isLoggable(Level.FINE))
+				log.fine("Statements not compact encodable; written as BinaryRDF [sensorId = "
+						+ sensorId
+						+ "; propertyId = "
+						+ propertyId
+						+ "; featureId = "
+						+ featureId
+						+ "; columnName = "
+						+ columnName + "]");
+		}
+
+		return toByteArray(statements);
+	}
+
+	private byte[] toByteArray(Set<Statement> statements) {
+		byte[] ret = StatementUtils.toByteArray(statements, dictionary);
+
+		if (ret != null)
+			return ret;
+
+		if (log.isLoggable(Level.WARNING))
+			log.warning("Statements not dictionary encodable; written as BinaryRDF [statements = "
+					+ statements + "]");
+
+		return StatementUtils.toByteArray(statements);
+	}
+
+	byte[] encode(URI sensorId, URI propertyId, URI featureId,
+			UUID columnName, Set<Statement> statements) {
+		// Column value as it would be written now, used to re-encode column
+		// values written with earlier settings or formats
+		byte[] ret;
+
+		if (sensorId == null || propertyId == null || featureId == null)
+			ret = toByteArray(statements);
+		else
+			ret = toByteArray(sensorId, propertyId, featureId, columnName,
+					statements);
+
+		if (ret == null)
+			return null;
+
+		return CompressionUtils.compress(ret, compression);
+	}
+
+	private void addSensorObservation(String rowKey, UUID columnName,
+			byte[] columnValue) {
+		if (rowKey == null || columnName == null || columnValue == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
+						+ rowKey + "; columnName = " + columnName + "]");
+			return;
+		}
+
+		write(rowKey, columnName,
+				CompressionUtils.compress(columnValue, compression));
+	}
+
+	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
+			DateTime timePeriod, Set<Statement> statements) {
+		addDatasetObservation(getRowKey(datasetId, frequency, timePeriod),
+				timePeriod, statements);
+	}
+
+	public void addDatasetObservations(URI datasetId, QuantityValue frequency,
+			Map<DateTime, Set<Statement>> observations) {
+		Map<String, Map<UUID, byte[]>> partitions = new LinkedHashMap<String, Map<UUID, byte[]>>();
+
+		for (Map.Entry<DateTime, Set<Statement>> observation : observations
+				.entrySet()) {
+			DateTime timePeriod = observation.getKey();
+			Set<Statement> statements = observation.getValue();
+
+			if (timePeriod == null || statements == null
+					|| statements.isEmpty()) {
+				if (log.isLoggable(Level.WARNING))
+					log.warning("Skipped observation without time period or statements [datasetId = "
+							+ datasetId + "; timePeriod = " + timePeriod + "]");
+				continue;
+			}
+
+			add(partitions, getRowKey(datasetId, frequency, timePeriod),
+					TimeUUID.toUUID(timePeriod),
+					toByteArray(statements));
+		}
+
+		write(partitions);
+	}
+
+	private void addDatasetObservation(String rowKey, DateTime timePeriod,
+			Set<Statement> columnValue) {
+		addDatasetObservation(rowKey, TimeUUID.toUUID(timePeriod), columnValue);
+	}
+
+	private void addDatasetObservation(String rowKey, UUID timePeriod,
+			Set<Statement> columnValue) {
+		addDatasetObservation(rowKey, timePeriod,
+				toByteArray(columnValue));
+	}
+
+	private void addDatasetObservation(String rowKey, UUID columnName,
+			byte[] columnValue) {
+		if (rowKey == null || columnName == null || columnValue == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
+						+ rowKey + "; columnName = " + columnName + "]");
+			return;
+		}
+
+		write(rowKey, columnName,
+				CompressionUtils.compress(columnValue, compression));
+	}
+
+	private void add(Map<String, Map<UUID, byte[]>> partitions,
+			String rowKey, UUID columnName, byte[] columnValue) {
+		if (rowKey == null || columnValue == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
+						+ rowKey + "; columnName = " + columnName + "]");
+			return;
+		}
+
+		Map<UUID, byte[]> columns = partitions.get(rowKey);
+
+		if (columns == null) {
+			columns = new LinkedHashMap<UUID, byte[]>();
+			partitions.put(rowKey, columns);
+		}
+
+		columns.put(columnName,
+				CompressionUtils.compress(columnValue, compression));
+	}
+
+	protected void write(Map<String, Map<UUID, byte[]>> partitions) {
+		for (Map.Entry<String, Map<UUID, byte[]>> partition : partitions
+				.entrySet()) {
+			String rowKey = partition.getKey();
+
+			for (Map.Entry<UUID, byte[]> column : partition.getValue()
+					.entrySet()) {
+				write(rowKey, column.getKey(), column.getValue());
+			}
+		}
+	}
+
+	protected void indexPartition(SensorObservationRoute route,
+			DateTime time, String rowKey) {
+		// Adders that maintain a partition index record the row key here
+	}
+
+	public void flush() {
+		// Adders that buffer writes send them here
+	}
+
+	protected abstract void write(String rowKey, UUID columnName,
+			byte[] columnValue);
+
+	public abstract void close();
+
+}
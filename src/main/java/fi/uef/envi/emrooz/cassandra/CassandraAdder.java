@@ -5,30 +5,39 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
-import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE;
-import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_1;
-import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
-import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
-import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
+import static fi.uef.envi.emrooz.EmroozOptions.PARTITION_INDEX_CACHE_SIZE;
 
 import java.nio.ByteBuffer;
-import java.util.Set;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
-import org.openrdf.model.Statement;
-import org.openrdf.model.URI;
+import org.joda.time.DateTimeZone;
 
-import com.carmatech.cassandra.TimeUUID;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
-import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
-import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
-import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationRoute;
 
 /**
  * <p>
@@ -47,85 +56,466 @@ import fi.uef.envi.emrooz.entity.ssn.Frequency;
  * @author Markus Stocker
  */
 
-public class CassandraAdder extends CassandraRequestHandler {
+public class CassandraAdder extends AbstractCassandraAdder {
 
 	private Session session;
 	private PreparedStatement insertStatement;
 
+	// Writes are synchronous unless a positive number of in-flight writes is
+	// set, in which case writes are pipelined with executeAsync and the
+	// semaphore bounds the number of requests pending on the cluster
+	private volatile int maxInFlightWrites;
+	private volatile Semaphore inFlightWrites;
+	private final AtomicLong failedWrites;
+
+	// Inserts are collected per row key and sent as single-partition UNLOGGED
+	// batches once a batch reaches the batch size or is older than the
+	// maximum batch age; a batch size of 1 disables batching and a maximum
+	// batch age of 0 sets no age limit, hence batches are sent once full or
+	// flushed. Only the pending batches are guarded by their lock, batches
+	// are taken out under the lock and sent once it is released, hence
+	// producers do not wait on each other for permits and synchronous writes.
+	// Aged batches are sent on write and by a daemon thread, so that batches
+	// of row keys no longer written to are sent too
+	private volatile int batchSize;
+	private volatile long maxBatchAge;
+	private final Map<String, PendingBatch> pendingBatches;
+	private ScheduledExecutorService agedBatchSender;
+
+	// Row keys of sensor observation partitions are recorded in the partition
+	// index if enabled; recently indexed row keys are remembered so that the
+	// index is written once per partition rather than once per observation.
+	// A row key is pending (false) until its index write succeeded (true)
+	// and forgotten if the write failed, so that the next write retries
+	private volatile CassandraPartitionIndex partitionIndex;
+	private final Map<String, Boolean> indexedPartitions;
+
 	private static final Logger log = Logger.getLogger(CassandraAdder.class
 			.getName());
 
 	public CassandraAdder(Session session) {
+		this(session, 0);
+	}
+
+	public CassandraAdder(Session session, int maxInFlightWrites) {
 		if (session == null)
 			throw new NullPointerException("[session = null]");
 
 		this.session = session;
-		this.insertStatement = this.session.prepare("INSERT INTO " + KEYSPACE
-				+ "." + DATA_TABLE + " (" + DATA_TABLE_ATTRIBUTE_1 + ","
-				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
-				+ ") VALUES (?, ?, ?)");
+		this.insertStatement = this.session
+				.prepare(CassandraDataStore.DATA_TABLE_INSERT);
+		this.failedWrites = new AtomicLong();
+		this.batchSize = 1;
+		this.maxBatchAge = 0;
+		this.pendingBatches = new LinkedHashMap<String, PendingBatch>();
+		this.indexedPartitions = new LinkedHashMap<String, Boolean>(16,
+				0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, Boolean> eldest) {
+				return size() > PARTITION_INDEX_CACHE_SIZE;
+			}
+
+		};
+
+		setMaxInFlightWrites(maxInFlightWrites);
+	}
+
+	public void setMaxInFlightWrites(int maxInFlightWrites) {
+		if (maxInFlightWrites < 0)
+			throw new IllegalArgumentException(
+					"Maximum number of in-flight writes cannot be negative [maxInFlightWrites = "
+							+ maxInFlightWrites + "]");
+
+		// Wait for the writes issued under the previous limit
+		flush();
+
+		this.maxInFlightWrites = maxInFlightWrites;
+
+		if (maxInFlightWrites > 0)
+			this.inFlightWrites = new Semaphore(maxInFlightWrites);
+		else
+			this.inFlightWrites = null;
+	}
+
+	public int getMaxInFlightWrites() {
+		return maxInFlightWrites;
+	}
+
+	public boolean isAsynchronous() {
+		return inFlightWrites != null;
+	}
+
+	public long getFailedWrites() {
+		return failedWrites.get();
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException(
+					"Batch size must be positive [batchSize = " + batchSize
+							+ "]");
+
+		List<Map.Entry<String, PendingBatch>> batches;
+
+		synchronized (pendingBatches) {
+			this.batchSize = batchSize;
+
+			batches = takeBatches(false);
+		}
+
+		send(batches);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setMaxBatchAge(long maxBatchAge) {
+		if (maxBatchAge < 0)
+			throw new IllegalArgumentException(
+					"Maximum batch age cannot be negative [maxBatchAge = "
+							+ maxBatchAge + "]");
+
+		this.maxBatchAge = maxBatchAge;
+
+		scheduleAgedBatches(maxBatchAge);
+	}
+
+	public long getMaxBatchAge() {
+		return maxBatchAge;
+	}
+
+	public void setPartitionIndex(CassandraPartitionIndex partitionIndex) {
+		this.partitionIndex = partitionIndex;
+	}
+
+	public CassandraPartitionIndex getPartitionIndex() {
+		return partitionIndex;
 	}
 
-	public void addSensorObservation(URI sensorId, URI propertyId,
-			URI featureId, Frequency frequency, DateTime resultTime,
-			Set<Statement> statements) {
-		addSensorObservation(
-				getRowKey(sensorId, propertyId, featureId, frequency,
-						resultTime), resultTime, statements);
+	public boolean isPartitionIndex() {
+		return partitionIndex != null;
 	}
 
-	private void addSensorObservation(String rowKey, DateTime resultTime,
-			Set<Statement> columnValue) {
-		addSensorObservation(rowKey, TimeUUID.toUUID(resultTime), columnValue);
+	@Override
+	public void flush() {
+		List<Map.Entry<String, PendingBatch>> batches;
+
+		synchronized (pendingBatches) {
+			batches = takeBatches(true);
+		}
+
+		send(batches);
+
+		Semaphore permits = inFlightWrites;
+
+		if (permits == null)
+			return;
+
+		int max = maxInFlightWrites;
+
+		// Barrier: all permits are available only once every pending write
+		// has completed, successfully or not
+		permits.acquireUninterruptibly(max);
+		permits.release(max);
+	}
+
+	@Override
+	public void close() {
+		scheduleAgedBatches(0);
+		flush();
+
+		if (failedWrites.get() > 0) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Asynchronous writes failed [failedWrites = "
+						+ failedWrites.get() + "]");
+		}
 	}
 
-	private void addSensorObservation(String rowKey, UUID resultTime,
-			Set<Statement> columnValue) {
-		addSensorObservation(rowKey, resultTime,
-				StatementUtils.toByteArray(columnValue));
+	@Override
+	protected void indexPartition(SensorObservationRoute route,
+			DateTime time, final String rowKey) {
+		CassandraPartitionIndex index = partitionIndex;
+
+		if (index == null || route == null || rowKey == null)
+			return;
+
+		DateTime partitionTime = getPartitionTime(route, time);
+
+		if (partitionTime == null)
+			return;
+
+		synchronized (indexedPartitions) {
+			if (indexedPartitions.get(rowKey) != null)
+				return;
+
+			indexedPartitions.put(rowKey, Boolean.FALSE);
+		}
+
+		String seriesKey = route.getSeriesKey();
+
+		// Partitions written before the index was enabled are not indexed,
+		// hence the index is complete only from the next partition on
+		index.setIndexedSince(
+				seriesKey,
+				getNextPartitionTime(route.getRollover(), new DateTime(
+						DateTimeZone.UTC)));
+
+		execute(index.bindPartition(seriesKey, partitionTime, rowKey),
+				seriesKey, 1, new FutureCallback<ResultSet>() {
+
+					@Override
+					public void onSuccess(ResultSet result) {
+						synchronized (indexedPartitions) {
+							indexedPartitions.put(rowKey, Boolean.TRUE);
+						}
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						synchronized (indexedPartitions) {
+							indexedPartitions.remove(rowKey);
+						}
+					}
+
+				});
 	}
 
-	private void addSensorObservation(String rowKey, UUID columnName,
+	@Override
+	protected void write(String rowKey, UUID columnName,
 			byte[] columnValue) {
-		if (rowKey == null || columnName == null || columnValue == null) {
-			if (log.isLoggable(Level.WARNING))
-				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
-						+ rowKey + "; columnName = " + columnName + "]");
+		BoundStatement statement = new BoundStatement(insertStatement).bind(
+				rowKey, columnName, ByteBuffer.wrap(columnValue));
+
+		if (batchSize == 1) {
+			execute(statement, rowKey, 1);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		List<Map.Entry<String, PendingBatch>> batches = new ArrayList<Map.Entry<String, PendingBatch>>();
+
+		synchronized (pendingBatches) {
+			PendingBatch batch = pendingBatches.get(rowKey);
+
+			if (batch == null) {
+				batch = new PendingBatch(now);
+				pendingBatches.put(rowKey, batch);
+			}
+
+			batch.statements.add(statement);
+
+			if (batch.statements.size() >= batchSize) {
+				pendingBatches.remove(rowKey);
+				batches.add(new AbstractMap.SimpleImmutableEntry<String, PendingBatch>(
+						rowKey, batch));
+			}
+
+			takeAgedBatches(now, batches);
+		}
+
+		send(batches);
+	}
+
+	private synchronized void scheduleAgedBatches(long maxBatchAge) {
+		if (agedBatchSender != null) {
+			agedBatchSender.shutdown();
+			agedBatchSender = null;
+		}
+
+		if (maxBatchAge == 0)
+			return;
+
+		agedBatchSender = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread ret = new Thread(r, "emrooz-aged-batch-sender");
+						ret.setDaemon(true);
+
+						return ret;
+					}
+
+				});
+
+		// Batches are checked every half the maximum age, hence sent at
+		// most one and a half times the maximum age after their creation
+		long period = Math.max(1, maxBatchAge / 2);
+
+		agedBatchSender.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				sendAgedBatches();
+			}
+
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private void sendAgedBatches() {
+		List<Map.Entry<String, PendingBatch>> batches = new ArrayList<Map.Entry<String, PendingBatch>>();
+
+		synchronized (pendingBatches) {
+			takeAgedBatches(System.currentTimeMillis(), batches);
+		}
+
+		try {
+			send(batches);
+		} catch (RuntimeException e) {
+			// A failure would cancel subsequent runs
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Failed to send aged batches [batches = "
+						+ batches.size() + "; error = " + e.getMessage()
+						+ "]");
+		}
+	}
+
+	private void takeAgedBatches(long now,
+			List<Map.Entry<String, PendingBatch>> batches) {
+		if (maxBatchAge == 0)
 			return;
+
+		// Batches are kept in creation order, hence the scan stops at the
+		// first batch that is young enough
+		Iterator<Map.Entry<String, PendingBatch>> it = pendingBatches
+				.entrySet().iterator();
+
+		while (it.hasNext()) {
+			Map.Entry<String, PendingBatch> entry = it.next();
+			PendingBatch batch = entry.getValue();
+
+			if (now - batch.created < maxBatchAge)
+				break;
+
+			it.remove();
+			batches.add(new AbstractMap.SimpleImmutableEntry<String, PendingBatch>(
+					entry.getKey(), batch));
 		}
+	}
+
+	private List<Map.Entry<String, PendingBatch>> takeBatches(boolean all) {
+		List<Map.Entry<String, PendingBatch>> ret = new ArrayList<Map.Entry<String, PendingBatch>>();
+
+		Iterator<Map.Entry<String, PendingBatch>> it = pendingBatches
+				.entrySet().iterator();
+
+		while (it.hasNext()) {
+			Map.Entry<String, PendingBatch> entry = it.next();
+			PendingBatch batch = entry.getValue();
+
+			if (!all && batch.statements.size() < batchSize)
+				continue;
 
-		session.execute(new BoundStatement(insertStatement).bind(rowKey,
-				columnName, ByteBuffer.wrap(columnValue)));
+			it.remove();
+			ret.add(new AbstractMap.SimpleImmutableEntry<String, PendingBatch>(
+					entry.getKey(), batch));
+		}
+
+		return ret;
 	}
 
-	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
-			DateTime timePeriod, Set<Statement> statements) {
-		addDatasetObservation(getRowKey(datasetId, frequency, timePeriod),
-				timePeriod, statements);
+	private void send(List<Map.Entry<String, PendingBatch>> batches) {
+		for (Map.Entry<String, PendingBatch> batch : batches)
+			send(batch.getKey(), batch.getValue());
 	}
 
-	private void addDatasetObservation(String rowKey, DateTime timePeriod,
-			Set<Statement> columnValue) {
-		addDatasetObservation(rowKey, TimeUUID.toUUID(timePeriod), columnValue);
+	private void send(String rowKey, PendingBatch batch) {
+		List<BoundStatement> statements = batch.statements;
+
+		if (statements.size() == 1) {
+			execute(statements.get(0), rowKey, 1);
+			return;
+		}
+
+		// All statements share the row key, hence the batch is confined to a
+		// single partition and does not need the batch log
+		BatchStatement statement = new BatchStatement(
+				BatchStatement.Type.UNLOGGED);
+		statement.addAll(statements);
+
+		execute(statement, rowKey, statements.size());
 	}
 
-	private void addDatasetObservation(String rowKey, UUID timePeriod,
-			Set<Statement> columnValue) {
-		addDatasetObservation(rowKey, timePeriod,
-				StatementUtils.toByteArray(columnValue));
+	private void execute(Statement statement, String rowKey, int writes) {
+		execute(statement, rowKey, writes, null);
 	}
 
-	private void addDatasetObservation(String rowKey, UUID columnName,
-			byte[] columnValue) {
-		if (rowKey == null || columnName == null || columnValue == null) {
-			if (log.isLoggable(Level.WARNING))
-				log.warning("At least one parameter is null (possibly the byte[] columnValue [rowKey = "
-						+ rowKey + "; columnName = " + columnName + "]");
+	private void execute(Statement statement, final String rowKey,
+			final int writes, final FutureCallback<ResultSet> callback) {
+		final Semaphore permits = inFlightWrites;
+
+		if (permits == null) {
+			ResultSet result;
+
+			try {
+				result = session.execute(statement);
+			} catch (RuntimeException e) {
+				if (callback != null)
+					callback.onFailure(e);
+				throw e;
+			}
+
+			if (callback != null)
+				callback.onSuccess(result);
+
 			return;
 		}
 
-		session.execute(new BoundStatement(insertStatement).bind(rowKey,
-				columnName, ByteBuffer.wrap(columnValue)));
+		permits.acquireUninterruptibly();
+
+		ResultSetFuture future;
+
+		try {
+			future = session.executeAsync(statement);
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+
+		Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+			@Override
+			public void onSuccess(ResultSet result) {
+				permits.release();
+
+				if (callback != null)
+					callback.onSuccess(result);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				failedWrites.addAndGet(writes);
+
+				if (log.isLoggable(Level.SEVERE))
+					log.severe("Failed to write [rowKey = " + rowKey
+							+ "; writes = " + writes + "; error = "
+							+ t.getMessage() + "]");
+
+				permits.release();
+
+				if (callback != null)
+					callback.onFailure(t);
+			}
+
+		});
+	}
+
+	private static class PendingBatch {
+
+		private final long created;
+		private final List<BoundStatement> statements;
+
+		private PendingBatch(long created) {
+			this.created = created;
+			this.statements = new ArrayList<BoundStatement>();
+		}
+
 	}
 
 }
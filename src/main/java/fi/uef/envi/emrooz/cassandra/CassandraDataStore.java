@@ -5,19 +5,31 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import static fi.uef.envi.emrooz.EmroozOptions.CUTOVERS_TABLE;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_1;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_IDS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_SEQUENCE_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.MAX_CONCURRENT_READS;
+import static fi.uef.envi.emrooz.EmroozOptions.PARTITION_PREFETCH;
+import static fi.uef.envi.emrooz.EmroozOptions.PARTITIONS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.SERIES_TABLE;
 import static fi.uef.envi.emrooz.EmroozOptions.HOST;
 import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 
@@ -25,9 +37,12 @@ import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.Metadata;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.TableMetadata;
 
+import fi.uef.envi.emrooz.Compression;
 import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
@@ -58,7 +73,45 @@ public class CassandraDataStore implements DataStore {
 	private String host;
 
 	private CassandraAdder cassandraAdder;
+	private CassandraUriDictionary uriDictionary;
 	private PreparedStatement selectStatement;
+	private CassandraPartitionIndex partitionIndex;
+	private int maxConcurrentReads = MAX_CONCURRENT_READS;
+	private int prefetch = PARTITION_PREFETCH;
+	private long readBlockWindow;
+	private Set<DateTimeZone> legacyZones = Collections.emptySet();
+	private DateTime canonicalRowKeysSince;
+	private boolean legacyData;
+
+	// Shared with the SSTable adder so that generated files match the table
+	static final String DATA_TABLE_DEFINITION = "CREATE TABLE "
+			+ KEYSPACE
+			+ "."
+			+ DATA_TABLE
+			+ " ("
+			+ DATA_TABLE_ATTRIBUTE_1
+			+ " ascii,"
+			+ DATA_TABLE_ATTRIBUTE_2
+			+ " timeuuid,"
+			+ DATA_TABLE_ATTRIBUTE_3
+			+ " blob,PRIMARY KEY ("
+			+ DATA_TABLE_ATTRIBUTE_1
+			+ ", "
+			+ DATA_TABLE_ATTRIBUTE_2
+			+ ")) WITH COMPACT STORAGE AND read_repair_chance = 0.0 AND dclocal_read_repair_chance = 0.1 AND gc_grace_seconds = 864000 AND bloom_filter_fp_chance = 0.01 AND caching = { 'keys' : 'ALL', 'rows_per_partition' : 'NONE' } AND comment = '' AND compaction = { 'class' : 'org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy' } AND compression = { 'sstable_compression' : 'org.apache.cassandra.io.compress.LZ4Compressor' } AND default_time_to_live = 0 AND speculative_retry = 'NONE' AND min_index_interval = 128 AND max_index_interval = 2048;";
+
+	static final String DATA_TABLE_INSERT = "INSERT INTO " + KEYSPACE + "."
+			+ DATA_TABLE + " (" + DATA_TABLE_ATTRIBUTE_1 + ","
+			+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+			+ ") VALUES (?, ?, ?)";
+
+	// Keyspace-wide changes, by name, the time since which they apply and
+	// the zones of data written before
+	static final String CUTOVERS_TABLE_DEFINITION = "CREATE TABLE " + KEYSPACE
+			+ "." + CUTOVERS_TABLE
+			+ " (name text PRIMARY KEY, since timestamp, zones set<text>)";
+
+	private static final String CANONICAL_ROW_KEYS = "canonical_row_keys";
 
 	private static final Logger log = Logger.getLogger(CassandraDataStore.class
 			.getName());
@@ -79,12 +132,14 @@ public class CassandraDataStore implements DataStore {
 		connect();
 
 		this.selectStatement = session.prepare("SELECT "
-				+ DATA_TABLE_ATTRIBUTE_3 + " FROM " + KEYSPACE + "."
+				+ DATA_TABLE_ATTRIBUTE_2 + "," + DATA_TABLE_ATTRIBUTE_3
+				+ " FROM " + KEYSPACE + "."
 				+ DATA_TABLE + " WHERE " + DATA_TABLE_ATTRIBUTE_1 + "=? AND "
 				+ DATA_TABLE_ATTRIBUTE_2 + ">=minTimeuuid(?) AND "
 				+ DATA_TABLE_ATTRIBUTE_2 + "<minTimeuuid(?)");
 
 		this.cassandraAdder = new CassandraAdder(session);
+		this.uriDictionary = new CassandraUriDictionary(session);
 	}
 
 	@Override
@@ -115,6 +170,25 @@ public class CassandraDataStore implements DataStore {
 				frequency, resultTime, statements);
 	}
 
+	@Override
+	public void addSensorObservations(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency,
+			Map<DateTime, Set<Statement>> observations) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| frequency == null || observations == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; frequency = "
+						+ frequency + "; observations = " + observations
+						+ "]");
+			return;
+		}
+
+		cassandraAdder.addSensorObservations(sensorId, propertyId, featureId,
+				frequency, observations);
+	}
+
 	@Override
 	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
 			DateTime timePeriod, Set<Statement> statements) {
@@ -139,22 +213,195 @@ public class CassandraDataStore implements DataStore {
 				statements);
 	}
 
+	@Override
+	public void addDatasetObservations(URI datasetId, QuantityValue frequency,
+			Map<DateTime, Set<Statement>> observations) {
+		if (datasetId == null || frequency == null || observations == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [datasetId = "
+						+ datasetId + "; frequency = " + frequency
+						+ "; observations = " + observations + "]");
+			return;
+		}
+
+		cassandraAdder.addDatasetObservations(datasetId, frequency,
+				observations);
+	}
+
 	@Override
 	public CassandraSensorObservationQueryHandler createSensorObservationQueryHandler(
 			Map<SensorObservationQuery, Frequency> queries) {
-		return new CassandraSensorObservationQueryHandler(session,
-				selectStatement, queries);
+		CassandraSensorObservationQueryHandler ret = new CassandraSensorObservationQueryHandler(
+				session, selectStatement, queries, readBlockWindow,
+				uriDictionary, partitionIndex);
+		ret.setMaxConcurrentReads(maxConcurrentReads);
+		ret.setPrefetch(prefetch);
+		ret.setLegacyZones(legacyZones);
+		ret.setCanonicalRowKeysSince(canonicalRowKeysSince);
+
+		return ret;
 	}
 
 	@Override
 	public CassandraDatasetObservationQueryHandler createDatasetObservationQueryHandler(
 			Map<DatasetObservationQuery, QuantityValue> queries) {
-		return new CassandraDatasetObservationQueryHandler(session,
-				selectStatement, queries);
+		CassandraDatasetObservationQueryHandler ret = new CassandraDatasetObservationQueryHandler(
+				session, selectStatement, queries, uriDictionary);
+		ret.setMaxConcurrentReads(maxConcurrentReads);
+		ret.setPrefetch(prefetch);
+		ret.setLegacyZones(legacyZones);
+		ret.setCanonicalRowKeysSince(canonicalRowKeysSince);
+
+		return ret;
+	}
+
+	public CassandraPayloadReEncoder createPayloadReEncoder(
+			double cellsPerSecond) {
+		return new CassandraPayloadReEncoder(session, cassandraAdder,
+				uriDictionary, cellsPerSecond);
+	}
+
+	public void setPartitionIndex(boolean partitionIndex) {
+		// Each series is indexed from the partition after the one in which
+		// an adder first indexed it; earlier partitions are walked. Once a
+		// series is indexed, all adders of the series, including those of
+		// other processes, need to index partitions
+		if (partitionIndex && this.partitionIndex == null)
+			this.partitionIndex = new CassandraPartitionIndex(session);
+		else if (!partitionIndex)
+			this.partitionIndex = null;
+
+		cassandraAdder.setPartitionIndex(this.partitionIndex);
+	}
+
+	public boolean isPartitionIndex() {
+		return partitionIndex != null;
+	}
+
+	public void setMaxConcurrentReads(int maxConcurrentReads) {
+		this.maxConcurrentReads = CassandraRequestHandler
+				.checkMaxConcurrentReads(maxConcurrentReads);
+	}
+
+	public int getMaxConcurrentReads() {
+		return maxConcurrentReads;
+	}
+
+	public void setPrefetch(int prefetch) {
+		// Partitions of a series read ahead of the one being returned; they
+		// are read concurrently, hence larger values buffer more first pages
+		this.prefetch = CassandraRequestHandler.checkPrefetch(prefetch);
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	public void setLegacyZones(Set<DateTimeZone> legacyZones) {
+		// Row keys written before partitions were computed in UTC were
+		// rounded in the zone of the time written, i.e. of the writer;
+		// partitions of legacy row keys in these zones are read for times
+		// before row keys are canonical. The default are the zones recorded
+		// with the cutover, i.e. the default zone of the data store that set
+		// it, or none if the data table did not exist by then
+		if (legacyZones == null)
+			throw new NullPointerException("[legacyZones = null]");
+
+		this.legacyZones = Collections
+				.unmodifiableSet(new LinkedHashSet<DateTimeZone>(legacyZones));
+	}
+
+	public Set<DateTimeZone> getLegacyZones() {
+		return legacyZones;
+	}
+
+	public DateTime getCanonicalRowKeysSince() {
+		return canonicalRowKeysSince;
+	}
+
+	public void setMaxInFlightWrites(int maxInFlightWrites) {
+		cassandraAdder.setMaxInFlightWrites(maxInFlightWrites);
+	}
+
+	public int getMaxInFlightWrites() {
+		return cassandraAdder.getMaxInFlightWrites();
+	}
+
+	public void setBatchSize(int batchSize) {
+		cassandraAdder.setBatchSize(batchSize);
+	}
+
+	public int getBatchSize() {
+		return cassandraAdder.getBatchSize();
+	}
+
+	public void setMaxBatchAge(long maxBatchAge) {
+		cassandraAdder.setMaxBatchAge(maxBatchAge);
+	}
+
+	public long getMaxBatchAge() {
+		return cassandraAdder.getMaxBatchAge();
+	}
+
+	public void setCompactEncoding(boolean compactEncoding) {
+		cassandraAdder.setCompactEncoding(compactEncoding);
+	}
+
+	public boolean isCompactEncoding() {
+		return cassandraAdder.isCompactEncoding();
+	}
+
+	public void setBlockWindow(long blockWindow) {
+		cassandraAdder.setBlockWindow(blockWindow);
+
+		// Blocks written by this data store are found by its queries
+		if (blockWindow > readBlockWindow)
+			readBlockWindow = blockWindow;
+	}
+
+	public long getBlockWindow() {
+		return cassandraAdder.getBlockWindow();
+	}
+
+	public void setReadBlockWindow(long readBlockWindow) {
+		// Queries also read the blocks that start up to this window before
+		// the time from, hence it must be at least the largest block window
+		// any writer, e.g. a backfill or another process, used for the
+		// keyspace
+		if (readBlockWindow < 0)
+			throw new IllegalArgumentException(
+					"Read block window cannot be negative [readBlockWindow = "
+							+ readBlockWindow + "]");
+
+		this.readBlockWindow = readBlockWindow;
+	}
+
+	public long getReadBlockWindow() {
+		return readBlockWindow;
+	}
+
+	public void setDictionaryEncoding(boolean dictionaryEncoding) {
+		if (dictionaryEncoding)
+			cassandraAdder.setUriDictionary(uriDictionary);
+		else
+			cassandraAdder.setUriDictionary(null);
+	}
+
+	public boolean isDictionaryEncoding() {
+		return cassandraAdder.getUriDictionary() != null;
+	}
+
+	public void setCompression(Compression compression) {
+		cassandraAdder.setCompression(compression);
+	}
+
+	public Compression getCompression() {
+		return cassandraAdder.getCompression();
 	}
 
 	@Override
 	public void close() {
+		cassandraAdder.close();
 		session.close();
 		cluster.close();
 	}
@@ -176,26 +423,75 @@ public class CassandraDataStore implements DataStore {
 		TableMetadata dataTableMetadata = keyspaceMetadata.getTable(DATA_TABLE);
 
 		if (dataTableMetadata == null) {
-			session.execute("CREATE TABLE "
-					+ KEYSPACE
-					+ "."
-					+ DATA_TABLE
-					+ " ("
-					+ DATA_TABLE_ATTRIBUTE_1
-					+ " ascii,"
-					+ DATA_TABLE_ATTRIBUTE_2
-					+ " timeuuid,"
-					+ DATA_TABLE_ATTRIBUTE_3
-					+ " blob,PRIMARY KEY ("
-					+ DATA_TABLE_ATTRIBUTE_1
-					+ ", "
-					+ DATA_TABLE_ATTRIBUTE_2
-					+ ")) WITH COMPACT STORAGE AND read_repair_chance = 0.0 AND dclocal_read_repair_chance = 0.1 AND gc_grace_seconds = 864000 AND bloom_filter_fp_chance = 0.01 AND caching = { 'keys' : 'ALL', 'rows_per_partition' : 'NONE' } AND comment = '' AND compaction = { 'class' : 'org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy' } AND compression = { 'sstable_compression' : 'org.apache.cassandra.io.compress.LZ4Compressor' } AND default_time_to_live = 0 AND speculative_retry = 'NONE' AND min_index_interval = 128 AND max_index_interval = 2048;");
+			session.execute(DATA_TABLE_DEFINITION);
 		}
+
+		legacyData = dataTableMetadata != null;
+
+		if (keyspaceMetadata.getTable(DICTIONARY_TABLE) == null)
+			session.execute(CassandraUriDictionary.DICTIONARY_TABLE_DEFINITION);
+
+		if (keyspaceMetadata.getTable(DICTIONARY_IDS_TABLE) == null)
+			session.execute(CassandraUriDictionary.DICTIONARY_IDS_TABLE_DEFINITION);
+
+		if (keyspaceMetadata.getTable(DICTIONARY_SEQUENCE_TABLE) == null)
+			session.execute(CassandraUriDictionary.DICTIONARY_SEQUENCE_TABLE_DEFINITION);
+
+		if (keyspaceMetadata.getTable(PARTITIONS_TABLE) == null)
+			session.execute(CassandraPartitionIndex.PARTITIONS_TABLE_DEFINITION);
+
+		if (keyspaceMetadata.getTable(SERIES_TABLE) == null)
+			session.execute(CassandraPartitionIndex.SERIES_TABLE_DEFINITION);
+
+		if (keyspaceMetadata.getTable(CUTOVERS_TABLE) == null)
+			session.execute(CUTOVERS_TABLE_DEFINITION);
+	}
+
+	private Row getCutover(String name, DateTime since, Set<String> zones) {
+		ResultSet rs = session.execute("INSERT INTO " + KEYSPACE + "."
+				+ CUTOVERS_TABLE
+				+ " (name, since, zones) VALUES (?, ?, ?) IF NOT EXISTS", name,
+				since.toDate(), zones);
+
+		if (rs.wasApplied()) {
+			if (log.isLoggable(Level.INFO))
+				log.info("Cutover set [name = " + name + "; since = " + since
+						+ "; zones = " + zones + "]");
+		}
+
+		return session.execute(
+				"SELECT since, zones FROM " + KEYSPACE + "." + CUTOVERS_TABLE
+						+ " WHERE name = ?", name).one();
 	}
 
 	private void connect() {
 		session = cluster.connect(KEYSPACE);
+		// The first data store that computes partitions in UTC sets the time
+		// since which row keys are canonical; writers of legacy row keys are
+		// expected to be stopped by then. Legacy row keys were rounded in the
+		// zone of the time written which, short of an offset in the data, is
+		// the default zone of the writer, assumed to be that of this store
+		Set<String> zones = new HashSet<String>();
+
+		if (legacyData)
+			zones.add(DateTimeZone.getDefault().getID());
+
+		Row cutover = getCutover(CANONICAL_ROW_KEYS, new DateTime(
+				DateTimeZone.UTC), zones);
+
+		canonicalRowKeysSince = new DateTime(cutover.getDate("since"),
+				DateTimeZone.UTC);
+
+		Set<DateTimeZone> recorded = new LinkedHashSet<DateTimeZone>();
+
+		for (String id : cutover.getSet("zones", String.class))
+			recorded.add(DateTimeZone.forID(id));
+
+		legacyZones = Collections.unmodifiableSet(recorded);
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Legacy row keys [since = " + canonicalRowKeysSince
+					+ "; zones = " + legacyZones + "]");
 	}
 
 }
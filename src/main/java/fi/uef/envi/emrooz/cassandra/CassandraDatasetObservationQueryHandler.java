@@ -5,28 +5,33 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.query.TupleQueryResultHandler;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 
 import fi.uef.envi.emrooz.Rollover;
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.CassandraPartitionReader.PartitionRead;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
 
@@ -53,6 +58,9 @@ public class CassandraDatasetObservationQueryHandler extends
 	private Session session;
 	private PreparedStatement selectStatement;
 	private Map<DatasetObservationQuery, QuantityValue> queries;
+	private UriDictionary dictionary;
+	private Set<DateTimeZone> legacyZones;
+	private DateTime canonicalRowKeysSince;
 
 	private static final Logger log = Logger
 			.getLogger(CassandraDatasetObservationQueryHandler.class.getName());
@@ -60,6 +68,13 @@ public class CassandraDatasetObservationQueryHandler extends
 	public CassandraDatasetObservationQueryHandler(Session session,
 			PreparedStatement selectStatement,
 			Map<DatasetObservationQuery, QuantityValue> queries) {
+		this(session, selectStatement, queries, null);
+	}
+
+	public CassandraDatasetObservationQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			Map<DatasetObservationQuery, QuantityValue> queries,
+			UriDictionary dictionary) {
 		if (session == null)
 			throw new NullPointerException("[session = null]");
 		if (selectStatement == null)
@@ -70,6 +85,27 @@ public class CassandraDatasetObservationQueryHandler extends
 		this.session = session;
 		this.selectStatement = selectStatement;
 		this.queries = queries;
+		this.dictionary = dictionary;
+		this.legacyZones = Collections.emptySet();
+	}
+
+	public void setLegacyZones(Set<DateTimeZone> legacyZones) {
+		if (legacyZones == null)
+			throw new NullPointerException("[legacyZones = null]");
+
+		this.legacyZones = legacyZones;
+	}
+
+	public Set<DateTimeZone> getLegacyZones() {
+		return legacyZones;
+	}
+
+	public void setCanonicalRowKeysSince(DateTime canonicalRowKeysSince) {
+		this.canonicalRowKeysSince = canonicalRowKeysSince;
+	}
+
+	public DateTime getCanonicalRowKeysSince() {
+		return canonicalRowKeysSince;
 	}
 
 	@Override
@@ -85,22 +121,58 @@ public class CassandraDatasetObservationQueryHandler extends
 
 	@Override
 	public ResultSet<Statement> evaluate() {
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
+		List<CassandraPartitionReader> series = new ArrayList<CassandraPartitionReader>();
+		// As for sensor observations, the concurrency limit is shared by the
+		// datasets of the query
+		Semaphore permits = new Semaphore(getMaxConcurrentReads());
 
 		for (Map.Entry<DatasetObservationQuery, QuantityValue> entry : queries
 				.entrySet()) {
-			results.addAll(getDatasetObservations(entry.getKey(),
-					entry.getValue()));
+			DatasetObservationQuery query = entry.getKey();
+			QuantityValue frequency = entry.getValue();
+			// As for sensor observations, reads ahead are limited to those
+			// prefetched
+			int maxReads = Math.min(getPrefetch(),
+					getMaxSeriesReads(query, frequency));
+
+			// Partitions are listed in time order and read concurrently, but
+			// returned in the order they are listed; as for sensor
+			// observations, each list of partitions is a series of its own
+			for (Iterator<PartitionRead> partitions : getDatasetObservations(
+					query, frequency))
+				series.add(new CassandraPartitionReader(session, partitions,
+						maxReads, true, permits));
 		}
 
-		return new CassandraResultSet(results.iterator());
+		return new CassandraOrderedResultSet(series, dictionary);
+	}
+
+	private int getMaxSeriesReads(DatasetObservationQuery query,
+			QuantityValue frequency) {
+		long rows = getRows(query);
+
+		if (rows < 0)
+			return getMaxConcurrentReads();
+
+		return getMaxConcurrentReads(frequency.getNumericValue(),
+				getRollover(query.getDatasetId(), frequency),
+				query.getTimeFrom(), query.getTimeTo(), rows, getMaxConcurrentReads());
+	}
+
+	private static long getRows(DatasetObservationQuery query) {
+		// A sliced query needs no more than offset plus limit observations,
+		// if each observation matches
+		if (!query.hasLimit())
+			return -1;
+
+		return query.getOffset() + query.getLimit();
 	}
 
-	private Set<Iterator<Row>> getDatasetObservations(
-			DatasetObservationQuery query, QuantityValue frequency) {
-		URI datasetId = query.getDatasetId();
+	private List<Iterator<PartitionRead>> getDatasetObservations(
+			DatasetObservationQuery query, final QuantityValue frequency) {
+		final URI datasetId = query.getDatasetId();
 		DateTime timeFrom = query.getTimeFrom();
-		DateTime timeTo = query.getTimeTo();
+		final DateTime timeTo = query.getTimeTo();
 
 		if (datasetId == null || timeFrom == null || timeTo == null) {
 			if (log.isLoggable(Level.SEVERE))
@@ -109,7 +181,7 @@ public class CassandraDatasetObservationQueryHandler extends
 						+ "; timeFrom = "
 						+ timeFrom
 						+ "; timeTo = " + timeTo + "]");
-			return Collections.emptySet();
+			return Collections.emptyList();
 		}
 
 		Rollover rollover = getRollover(datasetId, frequency);
@@ -118,38 +190,77 @@ public class CassandraDatasetObservationQueryHandler extends
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Registration rollover is null [datasetId = "
 						+ datasetId + "; frequency = " + frequency + "]");
-			return Collections.emptySet();
+			return Collections.emptyList();
 		}
 
-		DateTime time = timeFrom;
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
-
-		while (time.isBefore(timeTo)) {
-			Iterator<Row> it = getDatasetObservations(
-					getRowKey(datasetId, frequency, time), time, timeTo);
-
-			if (it != null)
-				results.add(it);
-
-			if (rollover.equals(Rollover.YEAR))
-				time = time.year().roundFloorCopy().plusYears(1);
-			else if (rollover.equals(Rollover.MONTH))
-				time = time.monthOfYear().roundFloorCopy().plusMonths(1);
-			else if (rollover.equals(Rollover.DAY))
-				time = time.dayOfMonth().roundFloorCopy().plusDays(1);
-			else if (rollover.equals(Rollover.HOUR))
-				time = time.hourOfDay().roundFloorCopy().plusHours(1);
-			else if (rollover.equals(Rollover.MINUTE))
-				time = time.minuteOfHour().roundFloorCopy().plusMinutes(1);
-			else
-				throw new RuntimeException("Unsupported rollover [rollover = "
-						+ rollover + "]");
+		// Rows per page follow the number of observations expected in a
+		// partition, so that sparse datasets do not reserve large pages
+		final int fetchSize = getFetchSize(frequency.getNumericValue(),
+				rollover, timeFrom, timeTo, getRows(query));
+
+		List<Iterator<PartitionRead>> ret = new ArrayList<Iterator<PartitionRead>>();
+		// Row keys already read, hence a partition is read once; reads are
+		// created as the readers issue them, on the thread consuming results
+		final Set<String> rowKeys = new HashSet<String>();
+
+		ret.add(new PartitionReads<DateTime>(getPartitionTimes(rollover,
+				timeFrom, timeTo)) {
+
+			@Override
+			protected PartitionRead createRead(DateTime time) {
+				return CassandraDatasetObservationQueryHandler.this.createRead(
+						rowKeys, getRowKey(datasetId, frequency, time), time,
+						timeTo, fetchSize);
+			}
+
+		});
+
+		// As for sensor observations, partitions of legacy row keys are
+		// walked per writer zone up to the time row keys are canonical
+		DateTime legacyTo = timeTo;
+
+		if (canonicalRowKeysSince != null
+				&& canonicalRowKeysSince.isBefore(timeTo))
+			legacyTo = canonicalRowKeysSince;
+
+		if (!timeFrom.isBefore(legacyTo))
+			return ret;
+
+		for (DateTimeZone zone : legacyZones) {
+			ret.add(new PartitionReads<DateTime>(getLegacyPartitionTimes(
+					rollover, timeFrom.withZone(zone), legacyTo)) {
+
+				@Override
+				protected PartitionRead createRead(DateTime time) {
+					return CassandraDatasetObservationQueryHandler.this
+							.createRead(rowKeys,
+									getLegacyRowKey(datasetId, frequency, time),
+									time, timeTo, fetchSize);
+				}
+
+			});
 		}
 
-		return Collections.unmodifiableSet(results);
+		return ret;
+	}
+
+	private PartitionRead createRead(Set<String> rowKeys, String rowKey,
+			DateTime time, DateTime timeTo, int fetchSize) {
+		if (!rowKeys.add(rowKey))
+			return null;
+
+		BoundStatement statement = getDatasetObservations(rowKey, time,
+				timeTo);
+
+		if (statement == null)
+			return null;
+
+		statement.setFetchSize(fetchSize);
+
+		return new PartitionRead(statement);
 	}
 
-	private Iterator<Row> getDatasetObservations(String rowKey,
+	private BoundStatement getDatasetObservations(String rowKey,
 			DateTime timeFrom, DateTime timeTo) {
 		if (timeFrom == null || timeTo == null) {
 			if (log.isLoggable(Level.SEVERE))
@@ -162,7 +273,7 @@ public class CassandraDatasetObservationQueryHandler extends
 		return getDatasetObservations(rowKey, timeFrom.toDate(), timeTo.toDate());
 	}
 
-	private Iterator<Row> getDatasetObservations(String rowKey,
+	private BoundStatement getDatasetObservations(String rowKey,
 			Date columnNameFrom, Date columnNameTo) {
 		if (rowKey == null || columnNameFrom == null || columnNameTo == null) {
 			if (log.isLoggable(Level.WARNING))
@@ -173,9 +284,8 @@ public class CassandraDatasetObservationQueryHandler extends
 			return null;
 		}
 
-		return session.execute(
-				new BoundStatement(selectStatement).bind(rowKey,
-						columnNameFrom, columnNameTo)).iterator();
+		return new BoundStatement(selectStatement).bind(rowKey, columnNameFrom,
+				columnNameTo);
 	}
 
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+
+/**
+ * <p>
+ * Title: CassandraOrderedResultSet
+ * </p>
+ * <p>
+ * Description: Merges the partitions of one or more series by result time.
+ * The partitions of a series are expected in time order and their rows are in
+ * clustering order, hence a k-way merge over the series returns observations
+ * in time order without sorting them.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraOrderedResultSet implements
+		TimeOrderedResultSet<Statement> {
+
+	private CassandraSeriesMerger<Set<Statement>> merger;
+	private Iterator<Statement> statements;
+	private DateTime time;
+
+	public CassandraOrderedResultSet(
+			Collection<? extends Iterator<CassandraPartition>> series,
+			UriDictionary dictionary) {
+		this(series, dictionary, new PayloadCodecRegistry());
+	}
+
+	public CassandraOrderedResultSet(
+			Collection<? extends Iterator<CassandraPartition>> series,
+			UriDictionary dictionary, PayloadCodecRegistry registry) {
+		this.merger = new CassandraSeriesMerger<Set<Statement>>(series,
+				dictionary, registry) {
+
+			@Override
+			SortedMap<DateTime, Set<Statement>> decode(
+					PayloadCodecRegistry registry, PayloadContext context,
+					UUID columnName, byte[] bytes) throws IOException {
+				return registry.decodeObservations(context, columnName, bytes);
+			}
+
+			@Override
+			Set<Statement> merge(Set<Statement> existing,
+					Set<Statement> observation) {
+				Set<Statement> ret = new HashSet<Statement>(existing);
+				ret.addAll(observation);
+
+				return ret;
+			}
+
+		};
+		this.statements = Collections.emptyIterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return getStatementIterator().hasNext();
+	}
+
+	@Override
+	public Statement next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		return statements.next();
+	}
+
+	@Override
+	public DateTime getTime() {
+		if (!hasNext())
+			return null;
+
+		return time;
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	private Iterator<Statement> getStatementIterator() {
+		while (!statements.hasNext() && merger.hasNext()) {
+			Map.Entry<DateTime, Set<Statement>> observation = merger.next();
+
+			time = observation.getKey();
+			statements = observation.getValue().iterator();
+		}
+
+		return statements;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.Iterator;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * <p>
+ * Title: CassandraPartition
+ * </p>
+ * <p>
+ * Description: Rows of a data table partition together with the sensor,
+ * property and feature of the row key, which compact column values require
+ * for decoding, and the time range the decoded observations are trimmed to.
+ * Partitions of dataset observations have neither.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraPartition {
+
+	private URI sensorId;
+	private URI propertyId;
+	private URI featureId;
+	private DateTime timeFrom;
+	private DateTime timeTo;
+	private Iterator<Row> rows;
+
+	public CassandraPartition(Iterator<Row> rows) {
+		this(null, null, null, null, null, rows);
+	}
+
+	public CassandraPartition(URI sensorId, URI propertyId, URI featureId,
+			DateTime timeFrom, DateTime timeTo, Iterator<Row> rows) {
+		if (rows == null)
+			throw new NullPointerException("[rows = null]");
+
+		this.sensorId = sensorId;
+		this.propertyId = propertyId;
+		this.featureId = featureId;
+		this.timeFrom = timeFrom;
+		this.timeTo = timeTo;
+		this.rows = rows;
+	}
+
+	public URI getSensorId() {
+		return sensorId;
+	}
+
+	public URI getPropertyId() {
+		return propertyId;
+	}
+
+	public URI getFeatureOfInterestId() {
+		return featureId;
+	}
+
+	public DateTime getTimeFrom() {
+		return timeFrom;
+	}
+
+	public DateTime getTimeTo() {
+		return timeTo;
+	}
+
+	public Iterator<Row> getRows() {
+		return rows;
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
+import static fi.uef.envi.emrooz.EmroozOptions.PARTITIONS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.SERIES_TABLE;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+/**
+ * <p>
+ * Title: CassandraPartitionIndex
+ * </p>
+ * <p>
+ * Description: Partition index persisted in the partitions table, i.e. the
+ * row keys of each sensor, property and feature series ordered by the start
+ * of the partition time span. The series table records per series the
+ * partition time since which the index is complete, i.e. since which every
+ * partition was written by an adder that indexes partitions. Partitions
+ * before that time are found by walking the partitions of the rollover.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraPartitionIndex {
+
+	private Session session;
+	private PreparedStatement insertPartitionStatement;
+	private PreparedStatement selectPartitionsStatement;
+	private PreparedStatement selectIndexedSinceStatement;
+	private PreparedStatement updateIndexedSinceStatement;
+
+	// The time since which a series is indexed is set once, hence it is
+	// cached once known; series not yet indexed are looked up again
+	private final ConcurrentMap<String, DateTime> indexedSince;
+
+	static final String PARTITIONS_TABLE_DEFINITION = "CREATE TABLE "
+			+ KEYSPACE + "." + PARTITIONS_TABLE
+			+ " (series ascii, partition timestamp, " + DATA_TABLE_ATTRIBUTE_1
+			+ " ascii, PRIMARY KEY (series, partition, "
+			+ DATA_TABLE_ATTRIBUTE_1 + "))";
+	static final String SERIES_TABLE_DEFINITION = "CREATE TABLE " + KEYSPACE
+			+ "." + SERIES_TABLE
+			+ " (series ascii PRIMARY KEY, indexed_since timestamp)";
+
+	private static final Logger log = Logger
+			.getLogger(CassandraPartitionIndex.class.getName());
+
+	public CassandraPartitionIndex(Session session) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+
+		this.session = session;
+		this.indexedSince = new ConcurrentHashMap<String, DateTime>();
+
+		this.insertPartitionStatement = session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + PARTITIONS_TABLE + " (series, partition, "
+				+ DATA_TABLE_ATTRIBUTE_1 + ") VALUES (?, ?, ?)");
+		this.selectPartitionsStatement = session.prepare("SELECT partition,"
+				+ DATA_TABLE_ATTRIBUTE_1 + " FROM " + KEYSPACE + "."
+				+ PARTITIONS_TABLE
+				+ " WHERE series=? AND partition>=? AND partition<?");
+		this.selectIndexedSinceStatement = session
+				.prepare("SELECT indexed_since FROM " + KEYSPACE + "."
+						+ SERIES_TABLE + " WHERE series=?");
+		this.updateIndexedSinceStatement = session.prepare("UPDATE "
+				+ KEYSPACE + "." + SERIES_TABLE
+				+ " SET indexed_since=? WHERE series=? IF indexed_since=null");
+	}
+
+	public DateTime getIndexedSince(String seriesKey) {
+		if (seriesKey == null)
+			throw new NullPointerException("[seriesKey = null]");
+
+		DateTime ret = indexedSince.get(seriesKey);
+
+		if (ret != null)
+			return ret;
+
+		Row row = session.execute(
+				new BoundStatement(selectIndexedSinceStatement)
+						.bind(seriesKey)).one();
+
+		if (row == null || row.isNull("indexed_since"))
+			return null;
+
+		return cache(seriesKey, row.getDate("indexed_since"));
+	}
+
+	public DateTime setIndexedSince(String seriesKey, DateTime time) {
+		if (seriesKey == null)
+			throw new NullPointerException("[seriesKey = null]");
+		if (time == null)
+			throw new NullPointerException("[time = null]");
+
+		DateTime ret = indexedSince.get(seriesKey);
+
+		if (ret != null)
+			return ret;
+
+		// The first adder to index the series sets the time, later adders
+		// find the series indexed since then
+		ResultSet rs = session.execute(new BoundStatement(
+				updateIndexedSinceStatement).bind(time.toDate(), seriesKey));
+
+		if (rs.wasApplied()) {
+			if (log.isLoggable(Level.INFO))
+				log.info("Series indexed [seriesKey = " + seriesKey
+						+ "; indexedSince = " + time + "]");
+
+			return cache(seriesKey, time.toDate());
+		}
+
+		return cache(seriesKey, rs.one().getDate("indexed_since"));
+	}
+
+	BoundStatement bindPartition(String seriesKey, DateTime partitionTime,
+			String rowKey) {
+		return new BoundStatement(insertPartitionStatement).bind(seriesKey,
+				partitionTime.toDate(), rowKey);
+	}
+
+	public Map<String, DateTime> getPartitions(String seriesKey,
+			DateTime partitionFrom, DateTime partitionTo) {
+		if (seriesKey == null)
+			throw new NullPointerException("[seriesKey = null]");
+		if (partitionFrom == null)
+			throw new NullPointerException("[partitionFrom = null]");
+		if (partitionTo == null)
+			throw new NullPointerException("[partitionTo = null]");
+
+		// Row keys and the start of their partition, in time order
+		Map<String, DateTime> ret = new LinkedHashMap<String, DateTime>();
+
+		for (Row row : session.execute(new BoundStatement(
+				selectPartitionsStatement).bind(seriesKey,
+				partitionFrom.toDate(), partitionTo.toDate())))
+			ret.put(row.getString(DATA_TABLE_ATTRIBUTE_1), new DateTime(
+					row.getDate("partition"), DateTimeZone.UTC));
+
+		return ret;
+	}
+
+	private DateTime cache(String seriesKey, Date time) {
+		DateTime ret = new DateTime(time, DateTimeZone.UTC);
+		DateTime cached = indexedSince.putIfAbsent(seriesKey, ret);
+
+		if (cached != null)
+			return cached;
+
+		return ret;
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * <p>
+ * Title: CassandraPartitionReader
+ * </p>
+ * <p>
+ * Description: Reads partitions with executeAsync, at most a given number at
+ * a time, and returns them in the order they complete or, if ordered, in the
+ * order they are given; reads are taken from the iterator as they are issued,
+ * hence the statements of partitions not yet read are not created, and
+ * further pages of a partition are fetched in the background while the
+ * current page is consumed. Readers of the series of a query may share the
+ * permits of their reads in flight, hence the query as a whole is bounded
+ * however many series it has; a reader waits for a permit only if it has no
+ * read pending, otherwise it reads ahead as permits are available
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraPartitionReader implements Iterator<CassandraPartition> {
+
+	private Session session;
+	private Iterator<PartitionRead> reads;
+	private int maxConcurrentReads;
+	// Permits of reads in flight, released once a read completes rather than
+	// once it is returned, hence readers waiting on each other cannot block
+	private Semaphore permits;
+	// Reads issued but not yet returned by next, including completed reads
+	// waiting in the queue; bounding them bounds buffered first pages too
+	private int pendingReads;
+	private BlockingQueue<Object> completedReads;
+	// Reads in the order they were issued, if partitions are returned in the
+	// order they are given
+	private Queue<SubmittedRead> submittedReads;
+
+	public CassandraPartitionReader(Session session,
+			Iterator<PartitionRead> reads, int maxConcurrentReads) {
+		this(session, reads, maxConcurrentReads, false);
+	}
+
+	public CassandraPartitionReader(Session session,
+			Iterator<PartitionRead> reads, int maxConcurrentReads,
+			boolean ordered) {
+		this(session, reads, maxConcurrentReads, ordered, new Semaphore(
+				Math.max(1, maxConcurrentReads)));
+	}
+
+	public CassandraPartitionReader(Session session,
+			Iterator<PartitionRead> reads, int maxConcurrentReads,
+			boolean ordered, Semaphore permits) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+		if (reads == null)
+			throw new NullPointerException("[reads = null]");
+		if (permits == null)
+			throw new NullPointerException("[permits = null]");
+
+		this.session = session;
+		this.reads = reads;
+		this.maxConcurrentReads = CassandraRequestHandler
+				.checkMaxConcurrentReads(maxConcurrentReads);
+		this.permits = permits;
+		this.completedReads = new LinkedBlockingQueue<Object>();
+
+		if (ordered)
+			this.submittedReads = new LinkedList<SubmittedRead>();
+	}
+
+	@Override
+	public boolean hasNext() {
+		submit();
+
+		return pendingReads > 0;
+	}
+
+	@Override
+	public CassandraPartition next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		if (submittedReads != null)
+			return nextSubmitted();
+
+		Object ret;
+
+		try {
+			ret = completedReads.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		pendingReads--;
+
+		submit();
+
+		if (ret instanceof Throwable)
+			throw new RuntimeException((Throwable) ret);
+
+		return (CassandraPartition) ret;
+	}
+
+	private CassandraPartition nextSubmitted() {
+		SubmittedRead submitted = submittedReads.remove();
+
+		pendingReads--;
+
+		// Reads behind the head keep running while we wait for it
+		ResultSet result = submitted.future.getUninterruptibly();
+
+		submit();
+
+		return createPartition(submitted.read, result);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void submit() {
+		while (pendingReads < maxConcurrentReads && reads.hasNext()) {
+			// Without a pending read the reader has nothing to return but
+			// this one, hence it waits for a permit
+			if (pendingReads == 0)
+				permits.acquireUninterruptibly();
+			else if (!permits.tryAcquire())
+				return;
+
+			final PartitionRead read = reads.next();
+			ResultSetFuture future;
+
+			try {
+				future = session.executeAsync(read.statement);
+			} catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+
+			pendingReads++;
+
+			final boolean queued = (submittedReads == null);
+
+			if (!queued)
+				submittedReads.add(new SubmittedRead(read, future));
+
+			Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+				@Override
+				public void onSuccess(ResultSet result) {
+					permits.release();
+
+					if (queued)
+						completedReads.add(createPartition(read, result));
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					permits.release();
+
+					if (queued)
+						completedReads.add(t);
+				}
+
+			});
+		}
+	}
+
+	private static CassandraPartition createPartition(PartitionRead read,
+			ResultSet result) {
+		return new CassandraPartition(read.sensorId, read.propertyId,
+				read.featureId, read.timeFrom, read.timeTo,
+				new PrefetchingRowIterator(result));
+	}
+
+	private static class SubmittedRead {
+
+		private final PartitionRead read;
+		private final ResultSetFuture future;
+
+		private SubmittedRead(PartitionRead read, ResultSetFuture future) {
+			this.read = read;
+			this.future = future;
+		}
+
+	}
+
+	private static class PrefetchingRowIterator implements Iterator<Row> {
+
+		private final ResultSet rows;
+		private final int prefetchThreshold;
+
+		private PrefetchingRowIterator(ResultSet rows) {
+			this.rows = rows;
+			// The first page is as large as the fetch size, unless it is the
+			// only page; the next page is requested halfway through a page
+			this.prefetchThreshold = Math.max(1,
+					rows.getAvailableWithoutFetching() / 2);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !rows.isExhausted();
+		}
+
+		@Override
+		public Row next() {
+			if (rows.getAvailableWithoutFetching() == prefetchThreshold
+					&& !rows.isFullyFetched())
+				rows.fetchMoreResults();
+
+			Row ret = rows.one();
+
+			if (ret == null)
+				throw new NoSuchElementException();
+
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	public static class PartitionRead {
+
+		private final URI sensorId;
+		private final URI propertyId;
+		private final URI featureId;
+		private final DateTime timeFrom;
+		private final DateTime timeTo;
+		private final Statement statement;
+
+		public PartitionRead(Statement statement) {
+			this(null, null, null, null, null, statement);
+		}
+
+		public PartitionRead(URI sensorId, URI propertyId, URI featureId,
+				DateTime timeFrom, DateTime timeTo, Statement statement) {
+			if (statement == null)
+				throw new NullPointerException("[statement = null]");
+
+			this.sensorId = sensorId;
+			this.propertyId = propertyId;
+			this.featureId = featureId;
+			this.timeFrom = timeFrom;
+			this.timeTo = timeTo;
+			this.statement = statement;
+		}
+
+	}
+
+}
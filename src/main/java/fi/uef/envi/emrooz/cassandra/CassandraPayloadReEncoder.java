@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_1;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.utils.Bytes;
+import com.google.common.util.concurrent.RateLimiter;
+
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.BinaryRDFCodec;
+import fi.uef.envi.emrooz.cassandra.utils.CompressionUtils;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+
+/**
+ * <p>
+ * Title: CassandraPayloadReEncoder
+ * </p>
+ * <p>
+ * Description: Rewrites column values of the data table that are stored in a
+ * different format than the adder currently writes, at a bounded number of
+ * cells per second. Only self-contained column values, i.e. BinaryRDF and
+ * dictionary encoded statements, possibly compressed, are re-encoded. Compact
+ * and block column values depend on the row key and are left as they are.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class CassandraPayloadReEncoder implements Runnable {
+
+	private Session session;
+	private AbstractCassandraAdder adder;
+	private PayloadCodecRegistry registry;
+	private PayloadContext context;
+	private RateLimiter rateLimiter;
+	private int fetchSize;
+	private volatile boolean running;
+	private Thread thread;
+	private final AtomicLong scannedCells;
+	private final AtomicLong rewrittenCells;
+
+	private static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraPayloadReEncoder.class.getName());
+
+	public CassandraPayloadReEncoder(Session session,
+			AbstractCassandraAdder adder, UriDictionary dictionary,
+			double cellsPerSecond) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+		if (adder == null)
+			throw new NullPointerException("[adder = null]");
+
+		this.session = session;
+		this.adder = adder;
+		this.registry = new PayloadCodecRegistry();
+		this.context = new PayloadContext(null, null, null, null, null,
+				dictionary);
+		this.fetchSize = DEFAULT_FETCH_SIZE;
+		this.scannedCells = new AtomicLong();
+		this.rewrittenCells = new AtomicLong();
+
+		setRate(cellsPerSecond);
+	}
+
+	public void setRate(double cellsPerSecond) {
+		if (cellsPerSecond <= 0)
+			throw new IllegalArgumentException(
+					"Rate must be positive [cellsPerSecond = "
+							+ cellsPerSecond + "]");
+
+		if (rateLimiter == null)
+			rateLimiter = RateLimiter.create(cellsPerSecond);
+		else
+			rateLimiter.setRate(cellsPerSecond);
+	}
+
+	public double getRate() {
+		return rateLimiter.getRate();
+	}
+
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize < 1)
+			throw new IllegalArgumentException(
+					"Fetch size must be positive [fetchSize = " + fetchSize
+							+ "]");
+
+		this.fetchSize = fetchSize;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public long getScannedCells() {
+		return scannedCells.get();
+	}
+
+	public long getRewrittenCells() {
+		return rewrittenCells.get();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public synchronized void start() {
+		if (running)
+			return;
+
+		running = true;
+
+		thread = new Thread(this, "emrooz-payload-reencoder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+
+		if (thread == null)
+			return;
+
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		thread = null;
+	}
+
+	@Override
+	public void run() {
+		// A single pass over the data table, on the thread of start(); the
+		// pass ends early if stopped
+		if (!running)
+			return;
+
+		SimpleStatement select = new SimpleStatement("SELECT "
+				+ DATA_TABLE_ATTRIBUTE_1 + "," + DATA_TABLE_ATTRIBUTE_2 + ","
+				+ DATA_TABLE_ATTRIBUTE_3 + " FROM " + KEYSPACE + "."
+				+ DATA_TABLE);
+		select.setFetchSize(fetchSize);
+
+		try {
+			for (Row row : session.execute(select)) {
+				if (!running)
+					break;
+
+				rateLimiter.acquire();
+				scannedCells.incrementAndGet();
+
+				reEncode(row.getString(DATA_TABLE_ATTRIBUTE_1),
+						row.getUUID(DATA_TABLE_ATTRIBUTE_2),
+						Bytes.getArray(row.getBytes(DATA_TABLE_ATTRIBUTE_3)));
+			}
+		} finally {
+			adder.flush();
+			running = false;
+		}
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Re-encoded column values [scannedCells = "
+					+ scannedCells.get() + "; rewrittenCells = "
+					+ rewrittenCells.get() + "]");
+	}
+
+	private void reEncode(String rowKey, UUID columnName, byte[] bytes) {
+		if (rowKey == null || columnName == null || bytes == null
+				|| bytes.length == 0)
+			return;
+
+		try {
+			byte[] payload = CompressionUtils.decompress(bytes);
+
+			if (payload.length == 0 || !isSelfContained(payload[0]))
+				return;
+
+			Set<Statement> statements = registry.decode(context, columnName,
+					bytes);
+
+			if (statements.isEmpty())
+				return;
+
+			byte[] ret = adder.encode(
+					getObject(statements, SSN.observedBy),
+					getObject(statements, SSN.observedProperty),
+					getObject(statements, SSN.featureOfInterest), columnName,
+					statements);
+
+			if (ret == null || getFormat(ret) == getFormat(bytes))
+				return;
+
+			adder.write(rowKey, columnName, ret);
+			rewrittenCells.incrementAndGet();
+		} catch (IOException e) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("Failed to re-encode column value [rowKey = "
+						+ rowKey + "; columnName = " + columnName
+						+ "; message = " + e.getMessage() + "]");
+		}
+	}
+
+	private static boolean isSelfContained(byte format) {
+		return format == BinaryRDFCodec.FORMAT
+				|| format == StatementUtils.DICTIONARY_FORMAT;
+	}
+
+	private static int getFormat(byte[] bytes) throws IOException {
+		// The format of the column value and, if compressed, the compression
+		// and the format of the decompressed value
+		if (!CompressionUtils.isCompressed(bytes))
+			return bytes[0] & 0xff;
+
+		return (bytes[1] & 0xff) << 16
+				| (CompressionUtils.decompress(bytes)[0] & 0xff) << 8
+				| (bytes[0] & 0xff);
+	}
+
+	private static URI getObject(Set<Statement> statements, URI predicate) {
+		URI ret = null;
+
+		for (Statement statement : statements) {
+			if (!statement.getPredicate().equals(predicate))
+				continue;
+
+			Value object = statement.getObject();
+
+			if (!(object instanceof URI))
+				return null;
+
+			// More than one observation in the column value
+			if (ret != null && !ret.equals(object))
+				return null;
+
+			ret = (URI) object;
+		}
+
+		return ret;
+	}
+
+}
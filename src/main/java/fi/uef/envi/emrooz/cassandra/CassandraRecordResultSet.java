@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: CassandraRecordResultSet
+ * </p>
+ * <p>
+ * Description: Merges the partitions of one or more series by result time,
+ * as CassandraOrderedResultSet, but returns the observations as records
+ * decoded from the column values rather than as statements.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraRecordResultSet implements
+		TimeOrderedResultSet<SensorObservationRecord> {
+
+	private CassandraSeriesMerger<List<SensorObservationRecord>> merger;
+	private Iterator<SensorObservationRecord> records;
+	private DateTime time;
+
+	public CassandraRecordResultSet(
+			Collection<? extends Iterator<CassandraPartition>> series,
+			UriDictionary dictionary) {
+		this(series, dictionary, new PayloadCodecRegistry());
+	}
+
+	public CassandraRecordResultSet(
+			Collection<? extends Iterator<CassandraPartition>> series,
+			UriDictionary dictionary, PayloadCodecRegistry registry) {
+		this.merger = new CassandraSeriesMerger<List<SensorObservationRecord>>(
+				series, dictionary, registry) {
+
+			@Override
+			SortedMap<DateTime, List<SensorObservationRecord>> decode(
+					PayloadCodecRegistry registry, PayloadContext context,
+					UUID columnName, byte[] bytes) throws IOException {
+				SortedMap<DateTime, List<SensorObservationRecord>> ret = new TreeMap<DateTime, List<SensorObservationRecord>>();
+
+				for (Map.Entry<DateTime, SensorObservationRecord> entry : registry
+						.decodeRecords(context, columnName, bytes).entrySet())
+					ret.put(entry.getKey(),
+							Collections.singletonList(entry.getValue()));
+
+				return ret;
+			}
+
+			@Override
+			List<SensorObservationRecord> merge(
+					List<SensorObservationRecord> existing,
+					List<SensorObservationRecord> observation) {
+				List<SensorObservationRecord> ret = new ArrayList<SensorObservationRecord>(
+						existing);
+
+				// As for statements, an observation stored twice is returned
+				// once
+				for (SensorObservationRecord record : observation) {
+					if (!ret.contains(record))
+						ret.add(record);
+				}
+
+				return ret;
+			}
+
+		};
+		this.records = Collections.emptyIterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return getRecordIterator().hasNext();
+	}
+
+	@Override
+	public SensorObservationRecord next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		return records.next();
+	}
+
+	@Override
+	public DateTime getTime() {
+		if (!hasNext())
+			return null;
+
+		return time;
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	private Iterator<SensorObservationRecord> getRecordIterator() {
+		while (!records.hasNext() && merger.hasNext()) {
+			Map.Entry<DateTime, List<SensorObservationRecord>> observation = merger
+					.next();
+
+			time = observation.getKey();
+			records = observation.getValue().iterator();
+		}
+
+		return records;
+	}
+
+}
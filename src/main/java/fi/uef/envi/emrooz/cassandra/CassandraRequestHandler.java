@@ -5,11 +5,21 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import static fi.uef.envi.emrooz.EmroozOptions.MAX_CONCURRENT_READS;
+import static fi.uef.envi.emrooz.EmroozOptions.MAX_FETCH_SIZE;
+import static fi.uef.envi.emrooz.EmroozOptions.MIN_FETCH_SIZE;
+import static fi.uef.envi.emrooz.EmroozOptions.PARTITION_PREFETCH;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 import org.joda.time.DateTime;
 import org.openrdf.model.URI;
 
 import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.cassandra.CassandraPartitionReader.PartitionRead;
 import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationRoute;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
 
@@ -32,10 +42,45 @@ import fi.uef.envi.emrooz.entity.ssn.Frequency;
 
 public abstract class CassandraRequestHandler {
 
-	private RowKeyUtils rowKeyUtils;
+	// Caches of row keys are process-wide, hence handlers share warm keys
+	private static final RowKeyUtils rowKeyUtils = new RowKeyUtils();
+
+	// Partitions of a series read ahead of the one being consumed
+	private int prefetch = PARTITION_PREFETCH;
+	// Partitions of a query read at a time, across its series
+	private int maxConcurrentReads = MAX_CONCURRENT_READS;
 
-	public CassandraRequestHandler() {
-		this.rowKeyUtils = new RowKeyUtils();
+	public void setPrefetch(int prefetch) {
+		this.prefetch = checkPrefetch(prefetch);
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	static int checkPrefetch(int prefetch) {
+		if (prefetch < 1)
+			throw new IllegalArgumentException(
+					"Prefetch must be positive [prefetch = " + prefetch + "]");
+
+		return prefetch;
+	}
+
+	public void setMaxConcurrentReads(int maxConcurrentReads) {
+		this.maxConcurrentReads = checkMaxConcurrentReads(maxConcurrentReads);
+	}
+
+	public int getMaxConcurrentReads() {
+		return maxConcurrentReads;
+	}
+
+	static int checkMaxConcurrentReads(int maxConcurrentReads) {
+		if (maxConcurrentReads < 1)
+			throw new IllegalArgumentException(
+					"Maximum number of concurrent reads must be positive [maxConcurrentReads = "
+							+ maxConcurrentReads + "]");
+
+		return maxConcurrentReads;
 	}
 
 	protected String getRowKey(URI sensorId, URI propertyId, URI featureId,
@@ -44,6 +89,48 @@ public abstract class CassandraRequestHandler {
 				frequency, time);
 	}
 
+	protected String getRowKey(SensorObservationRoute route, DateTime time) {
+		return rowKeyUtils.getRowKey(route, time);
+	}
+
+	protected String getLegacyRowKey(SensorObservationRoute route,
+			DateTime time) {
+		return rowKeyUtils.getLegacyRowKey(route, time);
+	}
+
+	protected String getLegacyRowKey(URI datasetId, QuantityValue frequency,
+			DateTime time) {
+		return rowKeyUtils.getLegacyRowKey(datasetId, frequency, time);
+	}
+
+	protected DateTime getNextPartitionTime(Rollover rollover, DateTime time) {
+		return rowKeyUtils.getNextPartitionTime(rollover, time);
+	}
+
+	protected DateTime getNextLegacyPartitionTime(Rollover rollover,
+			DateTime time) {
+		return rowKeyUtils.getNextLegacyPartitionTime(rollover, time);
+	}
+
+	/**
+	 * @return the times of the partitions from timeFrom to timeTo, computed as
+	 *         they are iterated
+	 */
+	protected Iterator<DateTime> getPartitionTimes(Rollover rollover,
+			DateTime timeFrom, DateTime timeTo) {
+		return new PartitionTimes(rollover, timeFrom, timeTo, false);
+	}
+
+	protected Iterator<DateTime> getLegacyPartitionTimes(Rollover rollover,
+			DateTime timeFrom, DateTime timeTo) {
+		return new PartitionTimes(rollover, timeFrom, timeTo, true);
+	}
+
+	protected SensorObservationRoute getRoute(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency) {
+		return rowKeyUtils.getRoute(sensorId, propertyId, featureId, frequency);
+	}
+
 	protected String getRowKey(URI datasetId, QuantityValue frequency,
 			DateTime time) {
 		return rowKeyUtils.getRowKey(datasetId, frequency, time);
@@ -55,8 +142,172 @@ public abstract class CassandraRequestHandler {
 				frequency);
 	}
 
+	protected String getSeriesKey(URI sensorId, URI propertyId, URI featureId) {
+		return rowKeyUtils.getSeriesKey(sensorId, propertyId, featureId);
+	}
+
+	protected DateTime getPartitionTime(SensorObservationRoute route,
+			DateTime time) {
+		return rowKeyUtils.getPartitionTime(route, time);
+	}
+
+	protected DateTime getPartitionTime(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime time) {
+		return rowKeyUtils.getPartitionTime(
+				getRollover(sensorId, propertyId, featureId, frequency), time);
+	}
+
+	protected int getFetchSize(Double frequency, Rollover rollover,
+			DateTime timeFrom, DateTime timeTo) {
+		if (frequency == null || rollover == null || timeFrom == null
+				|| timeTo == null)
+			return MAX_FETCH_SIZE;
+
+		double rows = getPartitionRows(frequency, rollover, timeFrom, timeTo);
+
+		return (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, rows));
+	}
+
+	protected int getFetchSize(Double frequency, Rollover rollover,
+			DateTime timeFrom, DateTime timeTo, long rows) {
+		int ret = getFetchSize(frequency, rollover, timeFrom, timeTo);
+
+		if (rows < 0)
+			return ret;
+
+		// No larger pages than the rows a sliced query needs, unless the
+		// pages are small anyway
+		return (int) Math.max(MIN_FETCH_SIZE, Math.min(ret, rows));
+	}
+
+	protected int getMaxConcurrentReads(Double frequency, Rollover rollover,
+			DateTime timeFrom, DateTime timeTo, long rows,
+			int maxConcurrentReads) {
+		if (rows < 0 || frequency == null || rollover == null
+				|| timeFrom == null || timeTo == null)
+			return maxConcurrentReads;
+
+		double partitionRows = getPartitionRows(frequency, rollover,
+				timeFrom, timeTo);
+
+		if (partitionRows <= 0)
+			return maxConcurrentReads;
+
+		// Partitions are read in time order, hence reads beyond those that
+		// likely hold the rows of a sliced query are mostly wasted; one more
+		// covers a partition that starts before timeFrom
+		double partitions = Math.ceil(rows / partitionRows) + 1;
+
+		return (int) Math.max(1, Math.min(maxConcurrentReads, partitions));
+	}
+
+	private double getPartitionRows(Double frequency, Rollover rollover,
+			DateTime timeFrom, DateTime timeTo) {
+		long millis = timeTo.getMillis() - timeFrom.getMillis();
+
+		// A partition never spans more than its rollover, hence the number of
+		// rows expected in one partition is bounded by either
+		if (rollover.equals(Rollover.YEAR))
+			millis = Math.min(millis, 366L * 24 * 60 * 60 * 1000);
+		else if (rollover.equals(Rollover.MONTH))
+			millis = Math.min(millis, 31L * 24 * 60 * 60 * 1000);
+		else if (rollover.equals(Rollover.DAY))
+			millis = Math.min(millis, 25L * 60 * 60 * 1000);
+		else if (rollover.equals(Rollover.HOUR))
+			millis = Math.min(millis, 60L * 60 * 1000);
+		else if (rollover.equals(Rollover.MINUTE))
+			millis = Math.min(millis, 60L * 1000);
+
+		return Math.ceil(frequency * millis / 1000.0);
+	}
+
 	protected Rollover getRollover(URI datasetId, QuantityValue frequency) {
 		return rowKeyUtils.getRollover(datasetId, frequency);
 	}
 
+	private static class PartitionTimes implements Iterator<DateTime> {
+
+		private final Rollover rollover;
+		private final DateTime timeTo;
+		private final boolean legacy;
+		private DateTime time;
+
+		private PartitionTimes(Rollover rollover, DateTime timeFrom,
+				DateTime timeTo, boolean legacy) {
+			this.rollover = rollover;
+			this.timeTo = timeTo;
+			this.legacy = legacy;
+			this.time = timeFrom;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return time.isBefore(timeTo);
+		}
+
+		@Override
+		public DateTime next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			DateTime ret = time;
+
+			if (legacy)
+				time = rowKeyUtils.getNextLegacyPartitionTime(rollover, ret);
+			else
+				time = rowKeyUtils.getNextPartitionTime(rollover, ret);
+
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	/**
+	 * Reads of partitions created as they are iterated, one for each item
+	 * unless createRead returns null
+	 */
+	protected abstract static class PartitionReads<T> implements
+			Iterator<PartitionRead> {
+
+		private final Iterator<T> items;
+		private PartitionRead next;
+
+		protected PartitionReads(Iterator<T> items) {
+			this.items = items;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && items.hasNext())
+				next = createRead(items.next());
+
+			return next != null;
+		}
+
+		@Override
+		public PartitionRead next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			PartitionRead ret = next;
+
+			next = null;
+
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		protected abstract PartitionRead createRead(T item);
+
+	}
+
 }
@@ -5,16 +5,23 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 import org.openrdf.model.Statement;
-import org.openrdf.rio.RDFHandlerException;
-import org.openrdf.rio.RDFParseException;
 
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.Bytes;
+
 import fi.uef.envi.emrooz.api.ResultSet;
-import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
 
 /**
  * <p>
@@ -35,27 +42,47 @@ import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 
 public class CassandraResultSet implements ResultSet<Statement> {
 
-	private Iterator<Iterator<Row>> results;
+	private Iterator<CassandraPartition> results;
 	private Iterator<Statement> statements;
+	private PayloadCodecRegistry registry;
+	private UriDictionary dictionary;
+	private Iterator<Row> rows;
+	private PayloadContext context;
+
+	public CassandraResultSet(Iterator<CassandraPartition> results) {
+		this(results, null);
+	}
+
+	public CassandraResultSet(Iterator<CassandraPartition> results,
+			UriDictionary dictionary) {
+		this(results, dictionary, new PayloadCodecRegistry());
+	}
+
+	public CassandraResultSet(Iterator<CassandraPartition> results,
+			UriDictionary dictionary, PayloadCodecRegistry registry) {
+		if (registry == null)
+			throw new NullPointerException("[registry = null]");
 
-	public CassandraResultSet(Iterator<Iterator<Row>> results) {
 		this.results = results;
+		this.dictionary = dictionary;
+		this.registry = registry;
 		this.statements = Collections.emptyIterator();
 	}
 
 	@Override
 	public boolean hasNext() {
 		try {
-			getStatementIterator();
-		} catch (RDFParseException | RDFHandlerException | IOException e) {
+			return getStatementIterator().hasNext();
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-
-		return statements.hasNext();
 	}
 
 	@Override
 	public Statement next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
 		return statements.next();
 	}
 
@@ -64,17 +91,37 @@ public class CassandraResultSet implements ResultSet<Statement> {
 		// Nothing to close
 	}
 
-	private void getStatementIterator() throws RDFParseException,
-			RDFHandlerException, IOException {
-		if (!results.hasNext())
-			return; // Do not set statements to empty iterator; there may still
-					// be statements even though there are no more results
+	private Iterator<Statement> getStatementIterator() throws IOException {
+		// Partitions are opened one at a time and their column values decoded
+		// one at a time, hence memory is bounded by a column value rather
+		// than a partition; runs of empty partitions are skipped iteratively
+		while (!statements.hasNext()) {
+			if (rows == null || !rows.hasNext()) {
+				if (!results.hasNext())
+					return statements;
+
+				CassandraPartition partition = results.next();
+
+				rows = partition.getRows();
+				context = new PayloadContext(partition.getSensorId(),
+						partition.getPropertyId(),
+						partition.getFeatureOfInterestId(),
+						partition.getTimeFrom(), partition.getTimeTo(),
+						dictionary);
 
-		if (!statements.hasNext()) {
-			statements = StatementUtils.toStatements(results.next());
-			if (!statements.hasNext())
-				getStatementIterator();
+				continue;
+			}
+
+			Row row = rows.next();
+
+			// Codecs are responsible to drop observations outside the range
+			statements = registry.decode(context,
+					row.getUUID(DATA_TABLE_ATTRIBUTE_2),
+					Bytes.getArray(row.getBytes(DATA_TABLE_ATTRIBUTE_3)))
+					.iterator();
 		}
+
+		return statements;
 	}
 
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+
+/**
+ * <p>
+ * Title: CassandraSSTableAdder
+ * </p>
+ * <p>
+ * Description: Writes the data table cells to SSTable files in
+ * [directory]/[keyspace]/[table], the layout expected by sstableloader
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraSSTableAdder extends AbstractCassandraAdder {
+
+	private File directory;
+	private CQLSSTableWriter writer;
+	private long failedWrites;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraSSTableAdder.class.getName());
+
+	public CassandraSSTableAdder(File directory, int bufferSizeInMB) {
+		if (directory == null)
+			throw new NullPointerException("[directory = null]");
+		if (bufferSizeInMB < 1)
+			throw new IllegalArgumentException(
+					"Buffer size must be positive [bufferSizeInMB = "
+							+ bufferSizeInMB + "]");
+
+		this.directory = new File(new File(directory, KEYSPACE), DATA_TABLE);
+
+		if (!this.directory.exists() && !this.directory.mkdirs())
+			throw new IllegalArgumentException(
+					"Failed to create directory [directory = "
+							+ this.directory + "]");
+
+		// The writer sorts the cells of each buffer by partition and column
+		// and writes a new SSTable whenever the buffer is full
+		this.writer = CQLSSTableWriter.builder()
+				.inDirectory(this.directory)
+				.forTable(CassandraDataStore.DATA_TABLE_DEFINITION)
+				.using(CassandraDataStore.DATA_TABLE_INSERT)
+				.withBufferSizeInMB(bufferSizeInMB).build();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getFailedWrites() {
+		return failedWrites;
+	}
+
+	@Override
+	protected synchronized void write(String rowKey, UUID columnName,
+			byte[] columnValue) {
+		try {
+			writer.addRow(rowKey, columnName, ByteBuffer.wrap(columnValue));
+		} catch (InvalidRequestException | IOException e) {
+			failedWrites++;
+
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Failed to write [rowKey = " + rowKey
+						+ "; columnName = " + columnName + "; error = "
+						+ e.getMessage() + "]");
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Failed to close SSTable writer [directory = "
+						+ directory + "; error = " + e.getMessage() + "]");
+		}
+
+		if (failedWrites > 0) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("SSTable writes failed [failedWrites = "
+						+ failedWrites + "]");
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.SSTABLE_BUFFER_SIZE_IN_MB;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+import fi.uef.envi.emrooz.Compression;
+import fi.uef.envi.emrooz.api.DataStore;
+import fi.uef.envi.emrooz.api.QueryHandler;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.query.DatasetObservationQuery;
+import fi.uef.envi.emrooz.query.SensorObservationQuery;
+
+/**
+ * <p>
+ * Title: CassandraSSTableDataStore
+ * </p>
+ * <p>
+ * Description: Offline data store for backfills that writes observations to
+ * SSTable files rather than to a cluster. The files use the row keys and
+ * column values of {@link CassandraDataStore} and are loaded with
+ * sstableloader, e.g. sstableloader -d localhost [directory]/emrooz/data.
+ * This data store cannot be queried and does not index partitions, hence
+ * files should only hold partitions before those the partition index of
+ * their series is complete since. It requires cassandra-all on the
+ * classpath, an optional dependency of Emrooz.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraSSTableDataStore implements DataStore {
+
+	private CassandraSSTableAdder cassandraSSTableAdder;
+
+	private static final Logger log = Logger
+			.getLogger(CassandraSSTableDataStore.class.getName());
+
+	public CassandraSSTableDataStore(File directory) {
+		this(directory, SSTABLE_BUFFER_SIZE_IN_MB);
+	}
+
+	public CassandraSSTableDataStore(File directory, int bufferSizeInMB) {
+		this.cassandraSSTableAdder = new CassandraSSTableAdder(directory,
+				bufferSizeInMB);
+	}
+
+	public File getDirectory() {
+		return cassandraSSTableAdder.getDirectory();
+	}
+
+	public void setCompactEncoding(boolean compactEncoding) {
+		cassandraSSTableAdder.setCompactEncoding(compactEncoding);
+	}
+
+	public boolean isCompactEncoding() {
+		return cassandraSSTableAdder.isCompactEncoding();
+	}
+
+	public void setBlockWindow(long blockWindow) {
+		// Data stores that query the loaded files need a read block window
+		// of at least this block window
+		cassandraSSTableAdder.setBlockWindow(blockWindow);
+	}
+
+	public long getBlockWindow() {
+		return cassandraSSTableAdder.getBlockWindow();
+	}
+
+	public void setCompression(Compression compression) {
+		cassandraSSTableAdder.setCompression(compression);
+	}
+
+	public Compression getCompression() {
+		return cassandraSSTableAdder.getCompression();
+	}
+
+	@Override
+	public void addSensorObservation(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency, DateTime resultTime,
+			Set<Statement> statements) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| frequency == null || resultTime == null
+				|| statements == null || statements.isEmpty()) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null or empty [sensorId = "
+						+ sensorId
+						+ "; propertyId = "
+						+ propertyId
+						+ "; featureId = "
+						+ featureId
+						+ "; frequency = "
+						+ frequency
+						+ "; resultTime = "
+						+ resultTime
+						+ "; statements = " + statements + "]");
+			return;
+		}
+
+		cassandraSSTableAdder.addSensorObservation(sensorId, propertyId,
+				featureId, frequency, resultTime, statements);
+	}
+
+	@Override
+	public void addSensorObservations(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency,
+			Map<DateTime, Set<Statement>> observations) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| frequency == null || observations == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [sensorId = "
+						+ sensorId + "; propertyId = " + propertyId
+						+ "; featureId = " + featureId + "; frequency = "
+						+ frequency + "; observations = " + observations
+						+ "]");
+			return;
+		}
+
+		cassandraSSTableAdder.addSensorObservations(sensorId, propertyId,
+				featureId, frequency, observations);
+	}
+
+	@Override
+	public void addDatasetObservation(URI datasetId, QuantityValue frequency,
+			DateTime timePeriod, Set<Statement> statements) {
+		if (datasetId == null || frequency == null || timePeriod == null
+				|| statements == null || statements.isEmpty()) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null or empty [datasetId = "
+						+ datasetId
+						+ "; frequency = "
+						+ frequency
+						+ "; timePeriod = "
+						+ timePeriod
+						+ "; statements = "
+						+ statements + "]");
+			return;
+		}
+
+		cassandraSSTableAdder.addDatasetObservation(datasetId, frequency,
+				timePeriod, statements);
+	}
+
+	@Override
+	public void addDatasetObservations(URI datasetId, QuantityValue frequency,
+			Map<DateTime, Set<Statement>> observations) {
+		if (datasetId == null || frequency == null || observations == null) {
+			if (log.isLoggable(Level.WARNING))
+				log.warning("At least one parameter is null [datasetId = "
+						+ datasetId + "; frequency = " + frequency
+						+ "; observations = " + observations + "]");
+			return;
+		}
+
+		cassandraSSTableAdder.addDatasetObservations(datasetId, frequency,
+				observations);
+	}
+
+	@Override
+	public QueryHandler<Statement> createSensorObservationQueryHandler(
+			Map<SensorObservationQuery, Frequency> queries) {
+		throw new UnsupportedOperationException(
+				"SSTable data store cannot be queried [directory = "
+						+ getDirectory() + "]");
+	}
+
+	@Override
+	public QueryHandler<Statement> createDatasetObservationQueryHandler(
+			Map<DatasetObservationQuery, QuantityValue> queries) {
+		throw new UnsupportedOperationException(
+				"SSTable data store cannot be queried [directory = "
+						+ getDirectory() + "]");
+	}
+
+	@Override
+	public void close() {
+		cassandraSSTableAdder.close();
+	}
+
+}
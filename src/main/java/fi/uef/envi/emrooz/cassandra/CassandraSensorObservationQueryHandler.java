@@ -5,30 +5,39 @@
 
 package fi.uef.envi.emrooz.cassandra;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.query.TupleQueryResultHandler;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.google.common.collect.Iterators;
 
 import fi.uef.envi.emrooz.Rollover;
-import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.api.SensorObservationRecordQueryHandler;
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.CassandraPartitionReader.PartitionRead;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationRoute;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
 
 /**
  * <p>
@@ -48,11 +57,16 @@ import fi.uef.envi.emrooz.query.SensorObservationQuery;
  */
 
 public class CassandraSensorObservationQueryHandler extends CassandraRequestHandler implements
-		QueryHandler<Statement> {
+		SensorObservationRecordQueryHandler {
 
 	private Session session;
 	private PreparedStatement selectStatement;
 	private Map<SensorObservationQuery, Frequency> queries;
+	private long blockWindow;
+	private UriDictionary dictionary;
+	private CassandraPartitionIndex partitionIndex;
+	private Set<DateTimeZone> legacyZones;
+	private DateTime canonicalRowKeysSince;
 
 	private static final Logger log = Logger
 			.getLogger(CassandraSensorObservationQueryHandler.class.getName());
@@ -60,6 +74,20 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 	public CassandraSensorObservationQueryHandler(Session session,
 			PreparedStatement selectStatement,
 			Map<SensorObservationQuery, Frequency> queries) {
+		this(session, selectStatement, queries, 0, null);
+	}
+
+	public CassandraSensorObservationQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			Map<SensorObservationQuery, Frequency> queries, long blockWindow,
+			UriDictionary dictionary) {
+		this(session, selectStatement, queries, blockWindow, dictionary, null);
+	}
+
+	public CassandraSensorObservationQueryHandler(Session session,
+			PreparedStatement selectStatement,
+			Map<SensorObservationQuery, Frequency> queries, long blockWindow,
+			UriDictionary dictionary, CassandraPartitionIndex partitionIndex) {
 		if (session == null)
 			throw new NullPointerException("[session = null]");
 		if (selectStatement == null)
@@ -70,6 +98,31 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 		this.session = session;
 		this.selectStatement = selectStatement;
 		this.queries = queries;
+		this.blockWindow = blockWindow;
+		this.dictionary = dictionary;
+		this.partitionIndex = partitionIndex;
+		this.legacyZones = Collections.emptySet();
+	}
+
+	public void setLegacyZones(Set<DateTimeZone> legacyZones) {
+		if (legacyZones == null)
+			throw new NullPointerException("[legacyZones = null]");
+
+		this.legacyZones = legacyZones;
+	}
+
+	public Set<DateTimeZone> getLegacyZones() {
+		return legacyZones;
+	}
+
+	public void setCanonicalRowKeysSince(DateTime canonicalRowKeysSince) {
+		// Partitions of legacy row keys are read up to this time, or over the
+		// whole range of a query if it is null
+		this.canonicalRowKeysSince = canonicalRowKeysSince;
+	}
+
+	public DateTime getCanonicalRowKeysSince() {
+		return canonicalRowKeysSince;
 	}
 
 	@Override
@@ -85,24 +138,49 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 
 	@Override
 	public ResultSet<Statement> evaluate() {
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
+		return new CassandraOrderedResultSet(getSeries(), dictionary);
+	}
+
+	@Override
+	public TimeOrderedResultSet<SensorObservationRecord> evaluateRecords() {
+		return new CassandraRecordResultSet(getSeries(), dictionary);
+	}
+
+	private List<CassandraPartitionReader> getSeries() {
+		List<CassandraPartitionReader> ret = new ArrayList<CassandraPartitionReader>();
+		// The concurrency limit is shared by the series of the query, legacy
+		// series included, each reading ahead as permits are available
+		Semaphore permits = new Semaphore(getMaxConcurrentReads());
 
 		for (Map.Entry<SensorObservationQuery, Frequency> entry : queries
 				.entrySet()) {
-			results.addAll(getSensorObservations(entry.getKey(),
-					entry.getValue()));
+			SensorObservationQuery query = entry.getKey();
+			Frequency frequency = entry.getValue();
+			// Partitions are returned in time order, hence reads further ahead
+			// only buffer first pages
+			int maxReads = Math.min(getPrefetch(),
+					getMaxSeriesReads(query, frequency));
+
+			// Partitions are listed in time order and read concurrently, but
+			// returned in the order they are listed; partitions of legacy row
+			// keys overlap those of canonical row keys in time, hence each
+			// list is read and merged as a series of its own
+			for (Iterator<PartitionRead> partitions : getSensorObservations(
+					query, frequency))
+				ret.add(new CassandraPartitionReader(session, partitions,
+						maxReads, true, permits));
 		}
 
-		return new CassandraResultSet(results.iterator());
+		return ret;
 	}
 
-	private Set<Iterator<Row>> getSensorObservations(
+	private List<Iterator<PartitionRead>> getSensorObservations(
 			SensorObservationQuery query, Frequency frequency) {
 		URI sensorId = query.getSensorId();
 		URI propertyId = query.getPropertyId();
 		URI featureId = query.getFeatureOfInterestId();
-		DateTime timeFrom = query.getTimeFrom();
-		DateTime timeTo = query.getTimeTo();
+		final DateTime timeFrom = query.getTimeFrom();
+		final DateTime timeTo = query.getTimeTo();
 
 		if (sensorId == null || propertyId == null || featureId == null
 				|| timeFrom == null || timeTo == null) {
@@ -115,51 +193,219 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 						+ featureId
 						+ "; timeFrom = "
 						+ timeFrom + "; timeTo = " + timeTo + "]");
-			return Collections.emptySet();
+			return Collections.emptyList();
 		}
 
-		Rollover rollover = getRollover(sensorId, propertyId, featureId,
-				frequency);
+		final SensorObservationRoute route = getRoute(sensorId, propertyId,
+				featureId, frequency);
 
-		if (rollover == null) {
+		if (route == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Registration rollover is null [sensorId = "
 						+ sensorId + "; propertyId = " + propertyId
 						+ "; featureId = " + featureId + "; frequency = "
 						+ frequency + "]");
-			return Collections.emptySet();
+			return Collections.emptyList();
+		}
+
+		Rollover rollover = route.getRollover();
+
+		// Rows per page follow the number of observations expected in a
+		// partition, so that sparse series do not reserve large pages
+		final int fetchSize = getFetchSize(frequency.getQuantityValue()
+				.getNumericValue(), rollover, timeFrom, timeTo, getRows(query));
+
+		List<Iterator<PartitionRead>> ret = new ArrayList<Iterator<PartitionRead>>();
+		// Row keys already read, hence a partition is read once; reads are
+		// created as the readers issue them, on the thread consuming results
+		final Set<String> rowKeys = new HashSet<String>();
+
+		DateTime indexedSince = null;
+
+		if (partitionIndex != null)
+			indexedSince = partitionIndex.getIndexedSince(route
+					.getSeriesKey());
+
+		// Partitions before the series was indexed are walked, those since
+		// are looked up in the index
+		Iterator<PartitionRead> partitions = new PartitionReads<DateTime>(
+				getPartitionTimes(rollover, timeFrom,
+						getEarlier(timeTo, indexedSince))) {
+
+			@Override
+			protected PartitionRead createRead(DateTime time) {
+				return CassandraSensorObservationQueryHandler.this.createRead(
+						rowKeys, route, getRowKey(route, time), time, timeTo,
+						fetchSize);
+			}
+
+		};
+
+		if (indexedSince != null && timeTo.isAfter(indexedSince)) {
+			List<String> indexedRowKeys = new ArrayList<String>();
+			List<String> legacyRowKeys = new ArrayList<String>();
+
+			addIndexedRowKeys(indexedRowKeys, legacyRowKeys, route,
+					indexedSince, timeFrom, timeTo);
+
+			partitions = Iterators.concat(partitions,
+					getReads(indexedRowKeys, rowKeys, route, timeFrom, timeTo,
+							fetchSize));
+
+			if (!legacyRowKeys.isEmpty())
+				ret.add(getReads(legacyRowKeys, rowKeys, route, timeFrom,
+						timeTo, fetchSize));
 		}
 
-		DateTime time = timeFrom;
-		Set<Iterator<Row>> results = new HashSet<Iterator<Row>>();
-
-		while (time.isBefore(timeTo)) {
-			Iterator<Row> it = getSensorObservations(
-					getRowKey(sensorId, propertyId, featureId, frequency, time),
-					time, timeTo);
-
-			if (it != null)
-				results.add(it);
-
-			if (rollover.equals(Rollover.YEAR))
-				time = time.year().roundFloorCopy().plusYears(1);
-			else if (rollover.equals(Rollover.MONTH))
-				time = time.monthOfYear().roundFloorCopy().plusMonths(1);
-			else if (rollover.equals(Rollover.DAY))
-				time = time.dayOfMonth().roundFloorCopy().plusDays(1);
-			else if (rollover.equals(Rollover.HOUR))
-				time = time.hourOfDay().roundFloorCopy().plusHours(1);
-			else if (rollover.equals(Rollover.MINUTE))
-				time = time.minuteOfHour().roundFloorCopy().plusMinutes(1);
+		ret.add(0, partitions);
+
+		// Partitions of legacy row keys hold observations written before the
+		// row keys were computed in UTC; their row key depends on the zone of
+		// the time written, hence the partitions are walked per writer zone
+		DateTime legacyTo = getEarlier(timeTo, canonicalRowKeysSince);
+
+		if (!timeFrom.isBefore(legacyTo))
+			return ret;
+
+		for (DateTimeZone zone : legacyZones) {
+			ret.add(new PartitionReads<DateTime>(getLegacyPartitionTimes(
+					rollover, timeFrom.withZone(zone), legacyTo)) {
+
+				@Override
+				protected PartitionRead createRead(DateTime time) {
+					return CassandraSensorObservationQueryHandler.this
+							.createRead(rowKeys, route,
+									getLegacyRowKey(route, time), time,
+									timeTo, fetchSize);
+				}
+
+			});
+		}
+
+		return ret;
+	}
+
+	private Iterator<PartitionRead> getReads(List<String> indexedRowKeys,
+			final Set<String> rowKeys, final SensorObservationRoute route,
+			final DateTime timeFrom, final DateTime timeTo, final int fetchSize) {
+		return new PartitionReads<String>(indexedRowKeys.iterator()) {
+
+			@Override
+			protected PartitionRead createRead(String rowKey) {
+				return CassandraSensorObservationQueryHandler.this.createRead(
+						rowKeys, route, rowKey, timeFrom, timeTo, fetchSize);
+			}
+
+		};
+	}
+
+	private PartitionRead createRead(Set<String> rowKeys,
+			SensorObservationRoute route, String rowKey, DateTime time,
+			DateTime timeTo, int fetchSize) {
+		if (!rowKeys.add(rowKey))
+			return null;
+
+		// A block holds the observations of a window and is named after the
+		// first, hence the range is widened by one window and the
+		// observations are trimmed to the requested range at decoding
+		BoundStatement statement = getSensorObservations(rowKey,
+				time.minus(blockWindow), timeTo);
+
+		if (statement == null)
+			return null;
+
+		statement.setFetchSize(fetchSize);
+
+		return new PartitionRead(route.getSensorId(), route.getPropertyId(),
+				route.getFeatureOfInterestId(), time, timeTo, statement);
+	}
+
+	private static DateTime getEarlier(DateTime time, DateTime since) {
+		if (since == null || time.isBefore(since))
+			return time;
+
+		return since;
+	}
+
+	private int getMaxSeriesReads(SensorObservationQuery query,
+			Frequency frequency) {
+		long rows = getRows(query);
+
+		if (rows < 0)
+			return getMaxConcurrentReads();
+
+		return getMaxConcurrentReads(frequency.getQuantityValue()
+				.getNumericValue(), getRollover(query.getSensorId(),
+				query.getPropertyId(), query.getFeatureOfInterestId(),
+				frequency), query.getTimeFrom(), query.getTimeTo(), rows,
+				getMaxConcurrentReads());
+	}
+
+	private static long getRows(SensorObservationQuery query) {
+		// A sliced query needs no more than offset plus limit observations of
+		// a series, if each observation matches
+		if (!query.hasLimit())
+			return -1;
+
+		return query.getOffset() + query.getLimit();
+	}
+
+	private void addIndexedRowKeys(List<String> indexedRowKeys,
+			List<String> legacyRowKeys, SensorObservationRoute route,
+			DateTime indexedSince, DateTime timeFrom, DateTime timeTo) {
+		Rollover rollover = route.getRollover();
+		// A block is named after its first observation, hence the
+		// observations from timeFrom may be in a block that starts up to one
+		// block window earlier
+		DateTime blockFrom = timeFrom.minus(blockWindow);
+		// Partitions are indexed by the start of their time span, which is at
+		// most one rollover (and a daylight saving hour) before blockFrom for
+		// the partition holding blockFrom
+		DateTime partitionFrom;
+
+		if (rollover.equals(Rollover.YEAR))
+			partitionFrom = blockFrom.minusYears(1);
+		else if (rollover.equals(Rollover.MONTH))
+			partitionFrom = blockFrom.minusMonths(1);
+		else if (rollover.equals(Rollover.DAY))
+			partitionFrom = blockFrom.minusDays(1);
+		else if (rollover.equals(Rollover.HOUR))
+			partitionFrom = blockFrom.minusHours(1);
+		else if (rollover.equals(Rollover.MINUTE))
+			partitionFrom = blockFrom.minusMinutes(1);
+		else
+			throw new RuntimeException("Unsupported rollover [rollover = "
+					+ rollover + "]");
+
+		partitionFrom = partitionFrom.minusHours(1);
+
+		// Partitions before the series was indexed are walked
+		if (partitionFrom.isBefore(indexedSince))
+			partitionFrom = indexedSince;
+
+		Map<String, DateTime> indexedPartitions = partitionIndex
+				.getPartitions(route.getSeriesKey(), partitionFrom, timeTo);
+
+		for (Map.Entry<String, DateTime> partition : indexedPartitions
+				.entrySet()) {
+			String rowKey = partition.getKey();
+
+			// The index lists partitions of legacy row keys too, which
+			// overlap those of canonical row keys in time
+			if (rowKey.equals(getRowKey(route, partition.getValue())))
+				indexedRowKeys.add(rowKey);
 			else
-				throw new RuntimeException("Unsupported rollover [rollover = "
-						+ rollover + "]");
+				legacyRowKeys.add(rowKey);
 		}
 
-		return Collections.unmodifiableSet(results);
+		if (log.isLoggable(Level.FINE))
+			log.fine("Partition index lookup [route = " + route
+					+ "; indexedSince = " + indexedSince + "; timeFrom = "
+					+ timeFrom + "; timeTo = " + timeTo + "; partitions = "
+					+ indexedPartitions.size() + "]");
 	}
 
-	private Iterator<Row> getSensorObservations(String rowKey,
+	private BoundStatement getSensorObservations(String rowKey,
 			DateTime timeFrom, DateTime timeTo) {
 		if (timeFrom == null || timeTo == null) {
 			if (log.isLoggable(Level.SEVERE))
@@ -172,7 +418,7 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 		return getSensorObservations(rowKey, timeFrom.toDate(), timeTo.toDate());
 	}
 
-	private Iterator<Row> getSensorObservations(String rowKey,
+	private BoundStatement getSensorObservations(String rowKey,
 			Date columnNameFrom, Date columnNameTo) {
 		if (rowKey == null || columnNameFrom == null || columnNameTo == null) {
 			if (log.isLoggable(Level.WARNING))
@@ -183,9 +429,8 @@ public class CassandraSensorObservationQueryHandler extends CassandraRequestHand
 			return null;
 		}
 
-		return session.execute(
-				new BoundStatement(selectStatement).bind(rowKey,
-						columnNameFrom, columnNameTo)).iterator();
+		return new BoundStatement(selectStatement).bind(rowKey, columnNameFrom,
+				columnNameTo);
 	}
 
 }
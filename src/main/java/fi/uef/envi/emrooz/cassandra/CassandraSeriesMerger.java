@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_2;
+import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+
+import com.carmatech.cassandra.TimeUUID;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.Bytes;
+
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+
+/**
+ * <p>
+ * Title: CassandraSeriesMerger
+ * </p>
+ * <p>
+ * Description: K-way merge by result time over the partitions of one or more
+ * series. The partitions of a series are expected in time order and their
+ * rows are in clustering order, hence observations are returned in time order
+ * without sorting them. Subclasses decode column values to observations, e.g.
+ * to statements or records, and merge observations of equal time in a series.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+abstract class CassandraSeriesMerger<T> {
+
+	private PriorityQueue<SeriesCursor> cursors;
+
+	CassandraSeriesMerger(
+			Collection<? extends Iterator<CassandraPartition>> series,
+			UriDictionary dictionary, PayloadCodecRegistry registry) {
+		if (series == null)
+			throw new NullPointerException("[series = null]");
+		if (registry == null)
+			throw new NullPointerException("[registry = null]");
+
+		this.cursors = new PriorityQueue<SeriesCursor>(Math.max(1,
+				series.size()), new Comparator<SeriesCursor>() {
+
+			@Override
+			public int compare(SeriesCursor o1, SeriesCursor o2) {
+				long t1 = o1.getTime().getMillis();
+				long t2 = o2.getTime().getMillis();
+
+				return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+			}
+
+		});
+
+		try {
+			for (Iterator<CassandraPartition> partitions : series) {
+				SeriesCursor cursor = new SeriesCursor(partitions, dictionary,
+						registry);
+
+				if (cursor.getTime() != null)
+					cursors.add(cursor);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Decodes a column value to its observations. Codecs are responsible to
+	 * drop observations outside the range of the context.
+	 */
+	abstract SortedMap<DateTime, T> decode(PayloadCodecRegistry registry,
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException;
+
+	/**
+	 * Merges observations of the same time in a series, e.g. a column value
+	 * and a block of another ingest.
+	 */
+	abstract T merge(T existing, T observation);
+
+	boolean hasNext() {
+		return !cursors.isEmpty();
+	}
+
+	/**
+	 * @return the next observation of any series, or null if there is none
+	 */
+	Map.Entry<DateTime, T> next() {
+		SeriesCursor cursor = cursors.poll();
+
+		if (cursor == null)
+			return null;
+
+		Map.Entry<DateTime, T> ret;
+
+		try {
+			ret = cursor.next();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (cursor.getTime() != null)
+			cursors.add(cursor);
+
+		return ret;
+	}
+
+	private class SeriesCursor {
+
+		private Iterator<CassandraPartition> partitions;
+		private UriDictionary dictionary;
+		private PayloadCodecRegistry registry;
+		private Iterator<Row> rows;
+		private PayloadContext context;
+		private Row row;
+		// Decoded observations not yet returned; a column value is decoded
+		// only once the observations before its column name are returned
+		private SortedMap<DateTime, T> observations;
+
+		private SeriesCursor(Iterator<CassandraPartition> partitions,
+				UriDictionary dictionary, PayloadCodecRegistry registry)
+				throws IOException {
+			this.partitions = partitions;
+			this.dictionary = dictionary;
+			this.registry = registry;
+			this.observations = new TreeMap<DateTime, T>();
+
+			fill();
+		}
+
+		private DateTime getTime() {
+			if (observations.isEmpty())
+				return null;
+
+			return observations.firstKey();
+		}
+
+		private Map.Entry<DateTime, T> next() throws IOException {
+			DateTime key = observations.firstKey();
+			Map.Entry<DateTime, T> ret = new AbstractMap.SimpleImmutableEntry<DateTime, T>(
+					key, observations.remove(key));
+
+			fill();
+
+			return ret;
+		}
+
+		private void fill() throws IOException {
+			// Column names are the result time of the first observation in the
+			// column value, hence no later column value holds an observation
+			// before that time
+			while (nextRow() != null) {
+				UUID columnName = row.getUUID(DATA_TABLE_ATTRIBUTE_2);
+
+				if (!observations.isEmpty()
+						&& observations.firstKey().getMillis() < TimeUUID
+								.toMillis(columnName))
+					return;
+
+				SortedMap<DateTime, T> decoded = decode(registry, context,
+						columnName,
+						Bytes.getArray(row.getBytes(DATA_TABLE_ATTRIBUTE_3)));
+
+				row = null;
+
+				for (Map.Entry<DateTime, T> entry : decoded.entrySet())
+					add(entry.getKey(), entry.getValue());
+			}
+		}
+
+		private void add(DateTime time, T observation) {
+			T existing = observations.get(time);
+
+			if (existing == null)
+				observations.put(time, observation);
+			else
+				observations.put(time, merge(existing, observation));
+		}
+
+		private Row nextRow() {
+			while (row == null) {
+				if (rows != null && rows.hasNext()) {
+					row = rows.next();
+					continue;
+				}
+
+				if (!partitions.hasNext())
+					return null;
+
+				CassandraPartition partition = partitions.next();
+
+				rows = partition.getRows();
+				context = new PayloadContext(partition.getSensorId(),
+						partition.getPropertyId(),
+						partition.getFeatureOfInterestId(),
+						partition.getTimeFrom(), partition.getTimeTo(),
+						dictionary);
+			}
+
+			return row;
+		}
+
+	}
+
+}
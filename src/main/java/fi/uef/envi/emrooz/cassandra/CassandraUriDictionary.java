@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra;
+
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_CACHE_SIZE;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_IDS_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_ID_BLOCK_SIZE;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_SEQUENCE_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.DICTIONARY_TABLE;
+import static fi.uef.envi.emrooz.EmroozOptions.KEYSPACE;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import fi.uef.envi.emrooz.api.UriDictionary;
+
+/**
+ * <p>
+ * Title: CassandraUriDictionary
+ * </p>
+ * <p>
+ * Description: URI dictionary persisted in the dictionary tables next to the
+ * data table. Identifiers are allocated in blocks from a sequence updated with
+ * lightweight transactions, so that concurrent clients never hand out the
+ * same identifier. Both directions are cached in memory, each bounded to the
+ * most recently used DICTIONARY_CACHE_SIZE entries.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CassandraUriDictionary implements UriDictionary {
+
+	private Session session;
+	private PreparedStatement selectIdStatement;
+	private PreparedStatement selectUriStatement;
+	private PreparedStatement insertIdStatement;
+	private PreparedStatement insertUriStatement;
+	private PreparedStatement selectSequenceStatement;
+	private PreparedStatement insertSequenceStatement;
+	private PreparedStatement updateSequenceStatement;
+
+	private Map<URI, Long> ids;
+	private Map<Long, URI> uris;
+
+	// Identifiers allocated to this client and not yet used
+	private long nextId;
+	private long lastId;
+
+	static final String DICTIONARY_TABLE_DEFINITION = "CREATE TABLE "
+			+ KEYSPACE + "." + DICTIONARY_TABLE
+			+ " (uri text PRIMARY KEY, id bigint)";
+	static final String DICTIONARY_IDS_TABLE_DEFINITION = "CREATE TABLE "
+			+ KEYSPACE + "." + DICTIONARY_IDS_TABLE
+			+ " (id bigint PRIMARY KEY, uri text)";
+	static final String DICTIONARY_SEQUENCE_TABLE_DEFINITION = "CREATE TABLE "
+			+ KEYSPACE + "." + DICTIONARY_SEQUENCE_TABLE
+			+ " (name text PRIMARY KEY, next bigint)";
+
+	private static final String SEQUENCE = "uri";
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final Logger log = Logger
+			.getLogger(CassandraUriDictionary.class.getName());
+
+	public CassandraUriDictionary(Session session) {
+		if (session == null)
+			throw new NullPointerException("[session = null]");
+
+		this.session = session;
+		this.ids = Collections.synchronizedMap(new Cache<URI, Long>());
+		this.uris = Collections.synchronizedMap(new Cache<Long, URI>());
+
+		this.selectIdStatement = session.prepare("SELECT id FROM " + KEYSPACE
+				+ "." + DICTIONARY_TABLE + " WHERE uri=?");
+		this.selectUriStatement = session.prepare("SELECT uri FROM "
+				+ KEYSPACE + "." + DICTIONARY_IDS_TABLE + " WHERE id=?");
+		this.insertIdStatement = session.prepare("INSERT INTO " + KEYSPACE
+				+ "." + DICTIONARY_TABLE
+				+ " (uri, id) VALUES (?, ?) IF NOT EXISTS");
+		this.insertUriStatement = session.prepare("INSERT INTO " + KEYSPACE
+				+ "." + DICTIONARY_IDS_TABLE + " (id, uri) VALUES (?, ?)");
+		this.selectSequenceStatement = session.prepare("SELECT next FROM "
+				+ KEYSPACE + "." + DICTIONARY_SEQUENCE_TABLE
+				+ " WHERE name=?");
+		this.insertSequenceStatement = session.prepare("INSERT INTO "
+				+ KEYSPACE + "." + DICTIONARY_SEQUENCE_TABLE
+				+ " (name, next) VALUES (?, ?) IF NOT EXISTS");
+		this.updateSequenceStatement = session.prepare("UPDATE " + KEYSPACE
+				+ "." + DICTIONARY_SEQUENCE_TABLE
+				+ " SET next=? WHERE name=? IF next=?");
+	}
+
+	@Override
+	public long getId(URI uri) {
+		if (uri == null)
+			throw new NullPointerException("[uri = null]");
+
+		Long ret = ids.get(uri);
+
+		if (ret != null)
+			return ret.longValue();
+
+		Row row = session.execute(
+				new BoundStatement(selectIdStatement).bind(uri.stringValue()))
+				.one();
+
+		if (row != null)
+			return cache(uri, row.getLong("id"));
+
+		return add(uri);
+	}
+
+	@Override
+	public URI getUri(long id) {
+		URI ret = uris.get(Long.valueOf(id));
+
+		if (ret != null)
+			return ret;
+
+		Row row = session.execute(
+				new BoundStatement(selectUriStatement).bind(Long.valueOf(id)))
+				.one();
+
+		if (row == null) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Unknown dictionary id [id = " + id + "]");
+
+			return null;
+		}
+
+		return cache(vf.createURI(row.getString("uri")), Long.valueOf(id));
+	}
+
+	private synchronized long add(URI uri) {
+		Long ret = ids.get(uri);
+
+		if (ret != null)
+			return ret.longValue();
+
+		long id = allocate();
+
+		// The reverse mapping is written first so that an id is never
+		// visible without its URI; the allocated id is lost if another client
+		// added the URI concurrently
+		session.execute(new BoundStatement(insertUriStatement).bind(
+				Long.valueOf(id), uri.stringValue()));
+
+		ResultSet rs = session.execute(new BoundStatement(insertIdStatement)
+				.bind(uri.stringValue(), Long.valueOf(id)));
+
+		if (!rs.wasApplied())
+			id = rs.one().getLong("id");
+
+		return cache(uri, id);
+	}
+
+	private long allocate() {
+		if (nextId > 0 && nextId <= lastId)
+			return nextId++;
+
+		while (true) {
+			Row row = session.execute(
+					new BoundStatement(selectSequenceStatement).bind(SEQUENCE))
+					.one();
+
+			long first;
+			ResultSet rs;
+
+			if (row == null) {
+				first = 1;
+				rs = session.execute(new BoundStatement(
+						insertSequenceStatement).bind(SEQUENCE,
+						Long.valueOf(first + DICTIONARY_ID_BLOCK_SIZE)));
+			} else {
+				first = row.getLong("next");
+				rs = session.execute(new BoundStatement(
+						updateSequenceStatement).bind(
+						Long.valueOf(first + DICTIONARY_ID_BLOCK_SIZE),
+						SEQUENCE, Long.valueOf(first)));
+			}
+
+			if (rs.wasApplied()) {
+				nextId = first + 1;
+				lastId = first + DICTIONARY_ID_BLOCK_SIZE - 1;
+
+				return first;
+			}
+		}
+	}
+
+	private long cache(URI uri, long id) {
+		Long key = Long.valueOf(id);
+
+		ids.put(uri, key);
+		cache(uri, key);
+
+		return id;
+	}
+
+	private URI cache(URI uri, Long id) {
+		// Decoding returns the cached instance, hence equal URIs are created
+		// once per dictionary while they are cached
+		synchronized (uris) {
+			URI ret = uris.get(id);
+
+			if (ret != null)
+				return ret;
+
+			uris.put(id, uri);
+
+			return uri;
+		}
+	}
+
+	private static class Cache<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Cache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > DICTIONARY_CACHE_SIZE;
+		}
+
+	}
+
+}
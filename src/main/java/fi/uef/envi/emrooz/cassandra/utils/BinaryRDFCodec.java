@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+
+/**
+ * <p>
+ * Title: BinaryRDFCodec
+ * </p>
+ * <p>
+ * Description: Column values written by StatementUtils.toByteArray, the
+ * format of all values before format bytes were introduced
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class BinaryRDFCodec implements PayloadCodec {
+
+	// The BinaryRDF magic number starts with 'B'
+	public static final byte FORMAT = 'B';
+
+	@Override
+	public byte getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException {
+		if (!context.isInRange(columnName))
+			return Collections.emptySet();
+
+		try {
+			return StatementUtils.toStatements(bytes);
+		} catch (RDFParseException | RDFHandlerException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
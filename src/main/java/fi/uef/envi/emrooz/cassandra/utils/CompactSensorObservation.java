@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: CompactSensorObservation
+ * </p>
+ * <p>
+ * Description: The parts of a sensor observation that are stored by the
+ * compact codecs; sensor, property and feature are those of the row key
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+class CompactSensorObservation {
+
+	final URI observationId;
+	final URI resultId;
+	final URI valueId;
+	final URI resultTimeId;
+	final URI unitId;
+	final boolean quantityValue;
+	final double value;
+	final DateTime resultTime;
+	// Namespace of the identifiers if they are derived with
+	// ObservationIdUtils, null otherwise
+	final String derivedNamespace;
+
+	CompactSensorObservation(URI observationId, URI resultId, URI valueId,
+			URI resultTimeId, URI unitId, boolean quantityValue, double value,
+			DateTime resultTime) {
+		this(observationId, resultId, valueId, resultTimeId, unitId,
+				quantityValue, value, resultTime, null);
+	}
+
+	CompactSensorObservation(URI observationId, URI resultId, URI valueId,
+			URI resultTimeId, URI unitId, boolean quantityValue, double value,
+			DateTime resultTime, String derivedNamespace) {
+		this.observationId = observationId;
+		this.resultId = resultId;
+		this.valueId = valueId;
+		this.resultTimeId = resultTimeId;
+		this.unitId = unitId;
+		this.quantityValue = quantityValue;
+		this.value = value;
+		this.resultTime = resultTime;
+		this.derivedNamespace = derivedNamespace;
+	}
+
+}
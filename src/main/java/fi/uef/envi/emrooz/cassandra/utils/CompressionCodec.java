@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: CompressionCodec
+ * </p>
+ * <p>
+ * Description: Column values compressed by CompressionUtils; the
+ * decompressed value is decoded by the codec of its own format
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CompressionCodec implements ObservationPayloadCodec,
+		SensorObservationRecordCodec {
+
+	private PayloadCodecRegistry registry;
+
+	public CompressionCodec(PayloadCodecRegistry registry) {
+		if (registry == null)
+			throw new NullPointerException("[registry = null]");
+
+		this.registry = registry;
+	}
+
+	@Override
+	public byte getFormat() {
+		return CompressionUtils.FORMAT;
+	}
+
+	@Override
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException {
+		byte[] decompressed = CompressionUtils.decompress(bytes);
+
+		if (CompressionUtils.isCompressed(decompressed))
+			throw new IOException("Nested compression [columnName = "
+					+ columnName + "]");
+
+		return registry.decode(context, columnName, decompressed);
+	}
+
+	@Override
+	public SortedMap<DateTime, Set<Statement>> decodeObservations(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		byte[] decompressed = CompressionUtils.decompress(bytes);
+
+		if (CompressionUtils.isCompressed(decompressed))
+			throw new IOException("Nested compression [columnName = "
+					+ columnName + "]");
+
+		return registry.decodeObservations(context, columnName, decompressed);
+	}
+
+	@Override
+	public SortedMap<DateTime, SensorObservationRecord> decodeRecords(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		byte[] decompressed = CompressionUtils.decompress(bytes);
+
+		if (CompressionUtils.isCompressed(decompressed))
+			throw new IOException("Nested compression [columnName = "
+					+ columnName + "]");
+
+		return registry.decodeRecords(context, columnName, decompressed);
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.readVarLong;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.writeVarLong;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+import org.xerial.snappy.Snappy;
+
+import fi.uef.envi.emrooz.Compression;
+
+/**
+ * <p>
+ * Title: CompressionUtils
+ * </p>
+ * <p>
+ * Description: Compressed column values start with a format byte, followed by
+ * the compression and the uncompressed length. Column values without the
+ * format byte are returned unchanged by decompress.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class CompressionUtils {
+
+	public static final byte FORMAT = 0x03;
+
+	private static final int LZ4 = 1;
+	private static final int SNAPPY = 2;
+
+	private static final LZ4Factory lz4 = LZ4Factory.fastestInstance();
+	private static final Logger log = Logger.getLogger(CompressionUtils.class
+			.getName());
+
+	public static boolean isCompressed(byte[] bytes) {
+		return bytes != null && bytes.length > 0 && bytes[0] == FORMAT;
+	}
+
+	public static byte[] compress(byte[] bytes, Compression compression) {
+		if (bytes == null || compression == null
+				|| compression.equals(Compression.NONE))
+			return bytes;
+
+		int id;
+		byte[] compressed;
+
+		try {
+			if (compression.equals(Compression.LZ4)) {
+				id = LZ4;
+				compressed = lz4.fastCompressor().compress(bytes);
+			} else if (compression.equals(Compression.SNAPPY)) {
+				id = SNAPPY;
+				compressed = Snappy.compress(bytes);
+			} else
+				throw new IllegalArgumentException(
+						"Unsupported compression [compression = "
+								+ compression + "]");
+		} catch (IOException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+			return bytes;
+		}
+
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(
+				compressed.length + 8);
+		DataOutputStream os = new DataOutputStream(ret);
+
+		try {
+			os.writeByte(FORMAT);
+			os.writeByte(id);
+			writeVarLong(os, bytes.length);
+			os.write(compressed);
+			os.close();
+		} catch (IOException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+			return bytes;
+		}
+
+		// Small column values, such as compact sensor observations, may not
+		// compress; these are stored as they are
+		if (ret.size() >= bytes.length)
+			return bytes;
+
+		return ret.toByteArray();
+	}
+
+	public static byte[] decompress(byte[] bytes) throws IOException {
+		if (!isCompressed(bytes))
+			return bytes;
+
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes, 1,
+				bytes.length - 1);
+		DataInputStream is = new DataInputStream(in);
+
+		int id = is.readUnsignedByte();
+		int length = (int) readVarLong(is);
+		int offset = bytes.length - in.available();
+
+		if (id == LZ4) {
+			try {
+				return lz4.fastDecompressor().decompress(bytes, offset, length);
+			} catch (LZ4Exception e) {
+				throw new IOException(e);
+			}
+		}
+
+		if (id == SNAPPY) {
+			byte[] ret = new byte[length];
+			Snappy.uncompress(bytes, offset, bytes.length - offset, ret, 0);
+			return ret;
+		}
+
+		throw new IOException("Unsupported compression [id = " + id + "]");
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+
+/**
+ * <p>
+ * Title: DictionaryCodec
+ * </p>
+ * <p>
+ * Description: Column values written by StatementUtils.toByteArray with a
+ * URI dictionary
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class DictionaryCodec implements PayloadCodec {
+
+	@Override
+	public byte getFormat() {
+		return StatementUtils.DICTIONARY_FORMAT;
+	}
+
+	@Override
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException {
+		if (!context.isInRange(columnName))
+			return Collections.emptySet();
+
+		try {
+			return StatementUtils.toStatements(bytes,
+					context.getUriDictionary());
+		} catch (RDFParseException | RDFHandlerException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
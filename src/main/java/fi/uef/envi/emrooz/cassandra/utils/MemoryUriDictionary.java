@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.URI;
+
+import fi.uef.envi.emrooz.api.UriDictionary;
+
+/**
+ * <p>
+ * Title: MemoryUriDictionary
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class MemoryUriDictionary implements UriDictionary {
+
+	private Map<URI, Long> ids;
+	private List<URI> uris;
+
+	public MemoryUriDictionary() {
+		this.ids = new HashMap<URI, Long>();
+		this.uris = new ArrayList<URI>();
+	}
+
+	@Override
+	public synchronized long getId(URI uri) {
+		if (uri == null)
+			throw new NullPointerException("[uri = null]");
+
+		Long ret = ids.get(uri);
+
+		if (ret != null)
+			return ret.longValue();
+
+		uris.add(uri);
+		ret = Long.valueOf(uris.size());
+		ids.put(uri, ret);
+
+		return ret.longValue();
+	}
+
+	@Override
+	public synchronized URI getUri(long id) {
+		if (id < 1 || id > uris.size())
+			return null;
+
+		return uris.get((int) id - 1);
+	}
+
+}
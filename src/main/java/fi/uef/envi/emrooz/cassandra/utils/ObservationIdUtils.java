@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ * <p>
+ * Title: ObservationIdUtils
+ * </p>
+ * <p>
+ * Description: Deterministic identifiers for the observation, sensor output,
+ * observation value and instant of a sensor observation, derived from the
+ * sensor, property, feature and result time. Column values of observations
+ * with such identifiers need not store them, as they can be derived again from
+ * the row key and the column name.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class ObservationIdUtils {
+
+	public static final String OBSERVATION = "observation";
+	public static final String RESULT = "result";
+	public static final String VALUE = "value";
+	public static final String RESULT_TIME = "resultTime";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	public static URI createId(URI ns, URI sensorId, URI propertyId,
+			URI featureId, DateTime resultTime, String role) {
+		if (ns == null)
+			throw new NullPointerException("[ns = null]");
+		if (resultTime == null)
+			throw new NullPointerException("[resultTime = null]");
+
+		return createId(getNamespace(ns), sensorId, propertyId, featureId,
+				resultTime.getMillis(), role);
+	}
+
+	static URI createId(String namespace, URI sensorId, URI propertyId,
+			URI featureId, long resultTime, String role) {
+		if (sensorId == null)
+			throw new NullPointerException("[sensorId = null]");
+		if (propertyId == null)
+			throw new NullPointerException("[propertyId = null]");
+		if (featureId == null)
+			throw new NullPointerException("[featureId = null]");
+		if (role == null)
+			throw new NullPointerException("[role = null]");
+
+		// Name based (type 3) UUID, hence no SecureRandom on the ingest path
+		String name = sensorId.stringValue() + " " + propertyId.stringValue()
+				+ " " + featureId.stringValue() + " " + resultTime + " "
+				+ role;
+
+		return vf.createURI(namespace
+				+ UUID.nameUUIDFromBytes(name.getBytes(UTF8)).toString());
+	}
+
+	static String getNamespace(URI ns) {
+		// Same convention as random identifiers of observation readers
+		String s = ns.stringValue();
+
+		if (s.endsWith("#"))
+			return s;
+
+		return s + "#";
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+
+/**
+ * <p>
+ * Title: ObservationPayloadCodec
+ * </p>
+ * <p>
+ * Description: Payload codec for column values that hold more than one
+ * observation. The statements are returned per observation, ordered by result
+ * time, so that column values can be merged by time.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public interface ObservationPayloadCodec extends PayloadCodec {
+
+	public SortedMap<DateTime, Set<Statement>> decodeObservations(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException;
+
+}
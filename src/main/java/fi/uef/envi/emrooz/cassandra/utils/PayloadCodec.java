@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+
+import org.openrdf.model.Statement;
+
+/**
+ * <p>
+ * Title: PayloadCodec
+ * </p>
+ * <p>
+ * Description: Decoder of the column values of one format, identified by
+ * the first byte of the value
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public interface PayloadCodec {
+
+	public byte getFormat();
+
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException;
+
+}
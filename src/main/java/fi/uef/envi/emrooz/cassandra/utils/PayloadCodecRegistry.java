@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: PayloadCodecRegistry
+ * </p>
+ * <p>
+ * Description: Dispatches column values to the codec registered for their
+ * first byte, so that new formats can be added without rewriting the data
+ * table; values written in older formats remain readable
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class PayloadCodecRegistry {
+
+	private ConcurrentMap<Byte, PayloadCodec> codecs;
+
+	public PayloadCodecRegistry() {
+		this.codecs = new ConcurrentHashMap<Byte, PayloadCodec>();
+
+		register(new BinaryRDFCodec());
+		register(new SensorObservationCodec());
+		register(new SensorObservationBlockCodec());
+		register(new CompressionCodec(this));
+		register(new DictionaryCodec());
+	}
+
+	public void register(PayloadCodec codec) {
+		if (codec == null)
+			throw new NullPointerException("[codec = null]");
+
+		codecs.put(Byte.valueOf(codec.getFormat()), codec);
+	}
+
+	public PayloadCodec getCodec(byte format) {
+		return codecs.get(Byte.valueOf(format));
+	}
+
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException {
+		if (bytes == null || bytes.length == 0)
+			return Collections.emptySet();
+
+		PayloadCodec codec = getCodec(bytes[0]);
+
+		if (codec == null)
+			throw new IOException("Unknown column value format [format = "
+					+ bytes[0] + "; columnName = " + columnName + "]");
+
+		return codec.decode(context, columnName, bytes);
+	}
+
+	public SortedMap<DateTime, Set<Statement>> decodeObservations(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		if (bytes == null || bytes.length == 0)
+			return new TreeMap<DateTime, Set<Statement>>();
+
+		PayloadCodec codec = getCodec(bytes[0]);
+
+		if (codec == null)
+			throw new IOException("Unknown column value format [format = "
+					+ bytes[0] + "; columnName = " + columnName + "]");
+
+		if (codec instanceof ObservationPayloadCodec)
+			return ((ObservationPayloadCodec) codec).decodeObservations(
+					context, columnName, bytes);
+
+		SortedMap<DateTime, Set<Statement>> ret = new TreeMap<DateTime, Set<Statement>>();
+		Set<Statement> statements = codec.decode(context, columnName, bytes);
+
+		// Other column values hold a single observation, named after its
+		// result time
+		if (!statements.isEmpty())
+			ret.put(new DateTime(TimeUUID.toMillis(columnName)), statements);
+
+		return ret;
+	}
+
+	public SortedMap<DateTime, SensorObservationRecord> decodeRecords(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		if (bytes == null || bytes.length == 0)
+			return new TreeMap<DateTime, SensorObservationRecord>();
+
+		PayloadCodec codec = getCodec(bytes[0]);
+
+		if (codec == null)
+			throw new IOException("Unknown column value format [format = "
+					+ bytes[0] + "; columnName = " + columnName + "]");
+
+		if (codec instanceof SensorObservationRecordCodec)
+			return ((SensorObservationRecordCodec) codec).decodeRecords(
+					context, columnName, bytes);
+
+		SortedMap<DateTime, SensorObservationRecord> ret = new TreeMap<DateTime, SensorObservationRecord>();
+
+		// Column values of statements are returned as records of statements
+		for (Map.Entry<DateTime, Set<Statement>> entry : decodeObservations(
+				context, columnName, bytes).entrySet())
+			ret.put(entry.getKey(),
+					new SensorObservationRecord(context.getSensorId(),
+							context.getPropertyId(), context
+									.getFeatureOfInterestId(), entry.getKey(),
+							entry.getValue()));
+
+		return ret;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.URI;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.api.UriDictionary;
+
+/**
+ * <p>
+ * Title: PayloadContext
+ * </p>
+ * <p>
+ * Description: What decoders may need beyond the column value: the sensor,
+ * property and feature of the row key, the requested time range and the URI
+ * dictionary
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class PayloadContext {
+
+	private URI sensorId;
+	private URI propertyId;
+	private URI featureId;
+	private DateTime timeFrom;
+	private DateTime timeTo;
+	private UriDictionary dictionary;
+
+	public PayloadContext(URI sensorId, URI propertyId, URI featureId,
+			DateTime timeFrom, DateTime timeTo, UriDictionary dictionary) {
+		this.sensorId = sensorId;
+		this.propertyId = propertyId;
+		this.featureId = featureId;
+		this.timeFrom = timeFrom;
+		this.timeTo = timeTo;
+		this.dictionary = dictionary;
+	}
+
+	public URI getSensorId() {
+		return sensorId;
+	}
+
+	public URI getPropertyId() {
+		return propertyId;
+	}
+
+	public URI getFeatureOfInterestId() {
+		return featureId;
+	}
+
+	public DateTime getTimeFrom() {
+		return timeFrom;
+	}
+
+	public DateTime getTimeTo() {
+		return timeTo;
+	}
+
+	public UriDictionary getUriDictionary() {
+		return dictionary;
+	}
+
+	public boolean isInRange(UUID columnName) {
+		return isInRange(TimeUUID.toMillis(columnName));
+	}
+
+	public boolean isInRange(DateTime time) {
+		return isInRange(time.getMillis());
+	}
+
+	private boolean isInRange(long millis) {
+		if (timeFrom != null && millis < timeFrom.getMillis())
+			return false;
+		if (timeTo != null && millis >= timeTo.getMillis())
+			return false;
+
+		return true;
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import org.joda.time.DateTime;
+
+/**
+ * <p>
+ * Title: RowKeyPartition
+ * </p>
+ * <p>
+ * Description: The bounds of a partition, i.e. a bucket of a rollover, with
+ * the time of the partition and its formatted key. Times within the bounds
+ * share the key, hence it is formatted once per partition rather than once
+ * per observation.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+final class RowKeyPartition {
+
+	private final long start;
+	private final long end;
+	private final DateTime time;
+	private final String key;
+
+	RowKeyPartition(DateTime time, long end, String key) {
+		this.start = time.getMillis();
+		this.end = end;
+		this.time = time;
+		this.key = key;
+	}
+
+	boolean contains(DateTime time) {
+		long millis = time.getMillis();
+
+		return millis >= start && millis < end;
+	}
+
+	long getEnd() {
+		return end;
+	}
+
+	DateTime getTime() {
+		return time;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	RowKeyPartition withKey(String key) {
+		return new RowKeyPartition(time, end, key);
+	}
+
+}
@@ -7,13 +7,19 @@ package fi.uef.envi.emrooz.cassandra.utils;
 
 import static fi.uef.envi.emrooz.EmroozOptions.ROWKEY_DATETIME_PATTERN;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.digest.DigestUtils;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeField;
+import org.joda.time.chrono.ISOChronology;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.openrdf.model.URI;
@@ -29,7 +35,13 @@ import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
  * Title: RowKeyUtils
  * </p>
  * <p>
- * Description:
+ * Description: Row keys of sensor observation series and datasets. Keys and
+ * rollovers are cached process-wide, hence shared by all request handlers.
+ * Partitions are computed in UTC on epoch millis, hence an instant has the
+ * same row key whatever the zone of its time. The row key of the partition
+ * last used by a series is kept with its route.
+ * Row keys of partitions rounded in the zone of the time, as written by
+ * earlier versions, are computed as legacy row keys.
  * </p>
  * <p>
  * Project: Emrooz
@@ -43,27 +55,25 @@ import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
 
 public class RowKeyUtils {
 
-	private DateTimeFormatter dtfRowKey;
-	private Map<URI, Map<URI, Map<URI, String>>> shaCacheSensor;
-	private Map<URI, Map<URI, Map<URI, Rollover>>> rolloverCacheSensor;
-	private Map<URI, String> shaCacheDataset;
-	private Map<URI, Rollover> rolloverCacheDataset;
+	private static final DateTimeFormatter dtfRowKey = DateTimeFormat
+			.forPattern(ROWKEY_DATETIME_PATTERN);
+	// Keyed by the list of sensor, property and feature, hence a lookup is a
+	// single probe
+	private static final Map<List<URI>, String> shaCacheSensor = new ConcurrentHashMap<List<URI>, String>();
+	// Likewise keyed by sensor, property and feature; the frequency is not
+	// part of the key but held by the route
+	private static final Map<List<URI>, SensorObservationRoute> routes = new ConcurrentHashMap<List<URI>, SensorObservationRoute>();
+	private static final Map<URI, String> shaCacheDataset = new ConcurrentHashMap<URI, String>();
+	private static final Map<URI, Rollover> rolloverCacheDataset = new ConcurrentHashMap<URI, Rollover>();
+
+	private static final Chronology utc = ISOChronology.getInstanceUTC();
 
 	private static final Logger log = Logger.getLogger(RowKeyUtils.class
 			.getName());
 
-	public RowKeyUtils() {
-		this.dtfRowKey = DateTimeFormat.forPattern(ROWKEY_DATETIME_PATTERN);
-		this.shaCacheSensor = new HashMap<URI, Map<URI, Map<URI, String>>>();
-		this.rolloverCacheSensor = new HashMap<URI, Map<URI, Map<URI, Rollover>>>();
-		this.shaCacheDataset = new HashMap<URI, String>();
-		this.rolloverCacheDataset = new HashMap<URI, Rollover>();
-	}
-
 	public String getRowKey(URI sensorId, URI propertyId, URI featureId,
 			Frequency frequency, DateTime time) {
-		if (sensorId == null || propertyId == null || featureId == null
-				|| frequency == null || time == null) {
+		if (time == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Parameters cannot be null [sensorId = " + sensorId
 						+ "; propertyId = " + propertyId + "; featureId = "
@@ -72,36 +82,73 @@ public class RowKeyUtils {
 			return null;
 		}
 
-		Rollover rollover = getRollover(sensorId, propertyId, featureId,
-				frequency);
+		return getRowKey(getRoute(sensorId, propertyId, featureId, frequency),
+				time);
+	}
 
-		if (rollover == null) {
+	public String getRowKey(SensorObservationRoute route, DateTime time) {
+		if (route == null || time == null)
+			return null;
+
+		RowKeyPartition ret = route.getPartition();
+
+		if (ret != null && ret.contains(time))
+			return ret.getKey();
+
+		ret = getPartition(route.getRollover(), time);
+
+		if (ret == null) {
 			if (log.isLoggable(Level.SEVERE))
-				log.severe("Failed to compute rollover [sensorId = " + sensorId
-						+ "; propertyId = " + propertyId + "; featureId = "
-						+ featureId + "; frequency = " + frequency + "]");
+				log.severe("Failed to compute date for rollover and time [rollover = "
+						+ route.getRollover() + "; time = " + time + "]");
 			return null;
 		}
 
-		String shaHex = getShaHex(sensorId, propertyId, featureId);
-		String date = getDate(rollover, time);
+		ret = ret.withKey(route.getSeriesKey() + "-" + ret.getKey());
 
-		if (shaHex == null) {
+		route.setPartition(ret);
+
+		return ret.getKey();
+	}
+
+	public SensorObservationRoute getRoute(URI sensorId, URI propertyId,
+			URI featureId, Frequency frequency) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| frequency == null) {
 			if (log.isLoggable(Level.SEVERE))
-				log.severe("Failed to compute SHA hex [sensorId = " + sensorId
+				log.severe("Parameters cannot be null [sensorId = " + sensorId
 						+ "; propertyId = " + propertyId + "; featureId = "
 						+ featureId + "; frequency = " + frequency + "]");
 			return null;
 		}
 
-		if (date == null) {
+		List<URI> key = Arrays.asList(sensorId, propertyId, featureId);
+		SensorObservationRoute ret = routes.get(key);
+
+		// Routes are shared and keyed without the frequency, hence the
+		// frequency of a series may have changed since its route was
+		// computed; the route is then replaced by one for the new frequency
+		if (ret != null
+				&& (ret.getFrequency() == frequency || ret.getFrequency()
+						.equals(frequency)))
+			return ret;
+
+		Rollover rollover = getRollover(sensorId, frequency);
+
+		if (rollover == null) {
 			if (log.isLoggable(Level.SEVERE))
-				log.severe("Failed to compute date for rollover and time [rollover = "
-						+ rollover + "; time = " + time + "]");
+				log.severe("Failed to compute rollover [sensorId = " + sensorId
+						+ "; propertyId = " + propertyId + "; featureId = "
+						+ featureId + "; frequency = " + frequency + "]");
 			return null;
 		}
 
-		return shaHex + "-" + date;
+		ret = new SensorObservationRoute(sensorId, propertyId, featureId,
+				frequency, rollover, getShaHex(sensorId, propertyId, featureId));
+
+		routes.put(key, ret);
+
+		return ret;
 	}
 
 	public String getRowKey(URI datasetId, QuantityValue frequency,
@@ -124,7 +171,7 @@ public class RowKeyUtils {
 		}
 
 		String shaHex = getShaHex(datasetId);
-		String date = getDate(rollover, time);
+		RowKeyPartition partition = getPartition(rollover, time);
 
 		if (shaHex == null) {
 			if (log.isLoggable(Level.SEVERE))
@@ -133,32 +180,28 @@ public class RowKeyUtils {
 			return null;
 		}
 
-		if (date == null) {
+		if (partition == null) {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe("Failed to compute date for rollover and time [rollover = "
 						+ rollover + "; time = " + time + "]");
 			return null;
 		}
 
-		return shaHex + "-" + date;
+		return shaHex + "-" + partition.getKey();
 	}
 
 	public Rollover getRollover(URI sensorId, URI propertyId, URI featureId,
 			Frequency frequency) {
-		if (sensorId == null || propertyId == null || featureId == null
-				|| frequency == null) {
-			if (log.isLoggable(Level.SEVERE))
-				log.severe("Parameters cannot be null [sensorId = " + sensorId
-						+ "; propertyId = " + propertyId + "; featureId = "
-						+ featureId + "; frequency = " + frequency + "]");
-			return null;
-		}
+		SensorObservationRoute route = getRoute(sensorId, propertyId,
+				featureId, frequency);
 
-		Rollover ret = lookupRollover(sensorId, propertyId, featureId);
+		if (route == null)
+			return null;
 
-		if (ret != null)
-			return ret;
+		return route.getRollover();
+	}
 
+	private Rollover getRollover(URI sensorId, Frequency frequency) {
 		QuantityValue quantityValue = frequency.getQuantityValue();
 		Double numericValue = quantityValue.getNumericValue();
 		Unit unit = quantityValue.getUnit();
@@ -172,20 +215,16 @@ public class RowKeyUtils {
 		}
 
 		if (numericValue > 100) {
-			ret = Rollover.MINUTE;
+			return Rollover.MINUTE;
 		} else if (numericValue > 1) {
-			ret = Rollover.HOUR;
+			return Rollover.HOUR;
 		} else if (numericValue > 0.01) {
-			ret = Rollover.DAY;
+			return Rollover.DAY;
 		} else if (numericValue > 0.0001) {
-			ret = Rollover.MONTH;
-		} else {
-			ret = Rollover.YEAR;
+			return Rollover.MONTH;
 		}
 
-		cacheRollover(sensorId, propertyId, featureId, ret);
-
-		return ret;
+		return Rollover.YEAR;
 	}
 
 	public Rollover getRollover(URI datasetId, QuantityValue frequency) {
@@ -229,64 +268,176 @@ public class RowKeyUtils {
 		return ret;
 	}
 
-	private Rollover lookupRollover(URI sensorId, URI propertyId, URI featureId) {
-		Map<URI, Map<URI, Rollover>> m1 = rolloverCacheSensor.get(sensorId);
+	private Rollover lookupRollover(URI datasetId) {
+		return rolloverCacheDataset.get(datasetId);
+	}
 
-		if (m1 == null)
+	private void cacheRollover(URI datasetId, Rollover rollover) {
+		rolloverCacheDataset.put(datasetId, rollover);
+	}
+
+	public String getSeriesKey(URI sensorId, URI propertyId, URI featureId) {
+		if (sensorId == null || propertyId == null || featureId == null) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Parameters cannot be null [sensorId = " + sensorId
+						+ "; propertyId = " + propertyId + "; featureId = "
+						+ featureId + "]");
 			return null;
+		}
 
-		Map<URI, Rollover> m2 = m1.get(propertyId);
+		// The part of the row key shared by all partitions of the series
+		return getShaHex(sensorId, propertyId, featureId);
+	}
 
-		if (m2 == null)
+	public DateTime getPartitionTime(SensorObservationRoute route,
+			DateTime time) {
+		if (route == null || time == null)
 			return null;
 
-		return m2.get(featureId);
+		RowKeyPartition partition = route.getPartition();
+
+		if (partition != null && partition.contains(time))
+			return partition.getTime();
+
+		return getPartitionTime(route.getRollover(), time);
 	}
 
-	private Rollover lookupRollover(URI datasetId) {
-		return rolloverCacheDataset.get(datasetId);
+	public DateTime getPartitionTime(Rollover rollover, DateTime time) {
+		RowKeyPartition partition = getPartition(rollover, time);
+
+		if (partition == null)
+			return null;
+
+		return partition.getTime();
 	}
 
-	private void cacheRollover(URI sensorId, URI propertyId, URI featureId,
-			Rollover rollover) {
-		Map<URI, Map<URI, Rollover>> m1 = rolloverCacheSensor.get(sensorId);
+	public DateTime getNextPartitionTime(Rollover rollover, DateTime time) {
+		RowKeyPartition partition = getPartition(rollover, time);
 
-		if (m1 == null) {
-			m1 = new HashMap<URI, Map<URI, Rollover>>();
-			rolloverCacheSensor.put(sensorId, m1);
-		}
+		if (partition == null)
+			return null;
+
+		return new DateTime(partition.getEnd(), utc);
+	}
+
+	private RowKeyPartition getPartition(Rollover rollover, DateTime time) {
+		if (rollover == null || time == null)
+			return null;
+
+		return createPartition(rollover, time);
+	}
+
+	private static RowKeyPartition createPartition(Rollover rollover,
+			DateTime time) {
+		long millis = time.getMillis();
+		long length = getLength(rollover);
+		long start;
+		long end;
 
-		Map<URI, Rollover> m2 = m1.get(propertyId);
+		if (length > 0) {
+			long remainder = millis % length;
 
-		if (m2 == null) {
-			m2 = new HashMap<URI, Rollover>();
-			m1.put(propertyId, m2);
+			if (remainder < 0)
+				remainder += length;
+
+			start = millis - remainder;
+			end = start + length;
+		} else {
+			DateTimeField field = getField(rollover);
+
+			start = field.roundFloor(millis);
+			end = field.add(start, 1);
 		}
 
-		m2.put(featureId, rollover);
+		DateTime partitionTime = new DateTime(start, utc);
+
+		return new RowKeyPartition(partitionTime, end,
+				dtfRowKey.print(partitionTime));
 	}
 
-	private void cacheRollover(URI datasetId, Rollover rollover) {
-		rolloverCacheDataset.put(datasetId, rollover);
+	private static long getLength(Rollover rollover) {
+		if (rollover.equals(Rollover.DAY))
+			return DateTimeConstants.MILLIS_PER_DAY;
+		else if (rollover.equals(Rollover.HOUR))
+			return DateTimeConstants.MILLIS_PER_HOUR;
+		else if (rollover.equals(Rollover.MINUTE))
+			return DateTimeConstants.MILLIS_PER_MINUTE;
+
+		return 0;
+	}
+
+	private static DateTimeField getField(Rollover rollover) {
+		if (rollover.equals(Rollover.YEAR))
+			return utc.year();
+
+		return utc.monthOfYear();
+	}
+
+	public String getLegacyRowKey(SensorObservationRoute route, DateTime time) {
+		if (route == null || time == null)
+			return null;
+
+		return route.getSeriesKey() + "-"
+				+ dtfRowKey.print(getLegacyPartitionTime(route.getRollover(), time));
+	}
+
+	public String getLegacyRowKey(URI datasetId, QuantityValue frequency,
+			DateTime time) {
+		if (datasetId == null || frequency == null || time == null)
+			return null;
+
+		Rollover rollover = getRollover(datasetId, frequency);
+
+		if (rollover == null)
+			return null;
+
+		return getShaHex(datasetId) + "-"
+				+ dtfRowKey.print(getLegacyPartitionTime(rollover, time));
 	}
 
-	private String getDate(Rollover rollover, DateTime time) {
+	/**
+	 * @return the start of the partition of time as rounded in the zone of
+	 *         time, i.e. of row keys written before partitions were computed
+	 *         in UTC
+	 */
+	public DateTime getLegacyPartitionTime(Rollover rollover, DateTime time) {
+		if (rollover == null || time == null)
+			return null;
+
 		if (rollover.equals(Rollover.YEAR))
-			return dtfRowKey.print(time.year().roundFloorCopy());
+			return time.year().roundFloorCopy();
 		else if (rollover.equals(Rollover.MONTH))
-			return dtfRowKey.print(time.monthOfYear().roundFloorCopy());
+			return time.monthOfYear().roundFloorCopy();
 		else if (rollover.equals(Rollover.DAY))
-			return dtfRowKey.print(time.dayOfMonth().roundFloorCopy());
+			return time.dayOfMonth().roundFloorCopy();
 		else if (rollover.equals(Rollover.HOUR))
-			return dtfRowKey.print(time.hourOfDay().roundFloorCopy());
-		else if (rollover.equals(Rollover.MINUTE))
-			return dtfRowKey.print(time.minuteOfHour().roundFloorCopy());
+			return time.hourOfDay().roundFloorCopy();
 
-		return null;
+		return time.minuteOfHour().roundFloorCopy();
+	}
+
+	public DateTime getNextLegacyPartitionTime(Rollover rollover,
+			DateTime time) {
+		DateTime ret = getLegacyPartitionTime(rollover, time);
+
+		if (ret == null)
+			return null;
+
+		if (rollover.equals(Rollover.YEAR))
+			return ret.plusYears(1);
+		else if (rollover.equals(Rollover.MONTH))
+			return ret.plusMonths(1);
+		else if (rollover.equals(Rollover.DAY))
+			return ret.plusDays(1);
+		else if (rollover.equals(Rollover.HOUR))
+			return ret.plusHours(1);
+
+		return ret.plusMinutes(1);
 	}
 
 	private String getShaHex(URI sensorId, URI propertyId, URI featureId) {
-		String ret = lookupShaHex(sensorId, propertyId, featureId);
+		List<URI> key = Arrays.asList(sensorId, propertyId, featureId);
+		String ret = shaCacheSensor.get(key);
 
 		if (ret != null)
 			return ret;
@@ -294,7 +445,7 @@ public class RowKeyUtils {
 		ret = DigestUtils.sha256Hex(sensorId.stringValue() + "-"
 				+ propertyId.stringValue() + "-" + featureId.stringValue());
 
-		cacheShaHex(sensorId, propertyId, featureId, ret);
+		shaCacheSensor.put(key, ret);
 
 		return ret;
 	}
@@ -312,43 +463,10 @@ public class RowKeyUtils {
 		return ret;
 	}
 
-	private String lookupShaHex(URI sensorId, URI propertyId, URI featureId) {
-		Map<URI, Map<URI, String>> m1 = shaCacheSensor.get(sensorId);
-
-		if (m1 == null)
-			return null;
-
-		Map<URI, String> m2 = m1.get(propertyId);
-
-		if (m2 == null)
-			return null;
-
-		return m2.get(featureId);
-	}
-
 	private String lookupShaHex(URI datasetId) {
 		return shaCacheDataset.get(datasetId);
 	}
 
-	private void cacheShaHex(URI sensorId, URI propertyId, URI featureId,
-			String shahex) {
-		Map<URI, Map<URI, String>> m1 = shaCacheSensor.get(sensorId);
-
-		if (m1 == null) {
-			m1 = new HashMap<URI, Map<URI, String>>();
-			shaCacheSensor.put(sensorId, m1);
-		}
-
-		Map<URI, String> m2 = m1.get(propertyId);
-
-		if (m2 == null) {
-			m2 = new HashMap<URI, String>();
-			m1.put(propertyId, m2);
-		}
-
-		m2.put(featureId, shahex);
-	}
-
 	private void cacheShaHex(URI datasetId, String shahex) {
 		shaCacheDataset.put(datasetId, shahex);
 	}
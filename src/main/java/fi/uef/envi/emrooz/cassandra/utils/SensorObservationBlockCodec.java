@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.FLAG_DERIVED_IDS;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.FLAG_UNIT;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.FLAG_QUANTITY_VALUE;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.createIds;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.createRecord;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.getFlags;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.readId;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.readIds;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.readNamespace;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.readVarLong;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.writeId;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.writeIds;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.writeVarLong;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: SensorObservationBlockCodec
+ * </p>
+ * <p>
+ * Description: Packs the sensor observations of a time window into one column
+ * value. Identifiers, flags and units are written as for
+ * SensorObservationCodec, result times as delta-of-delta and values as XOR
+ * with the previous value, as in Gorilla (Pelkonen et al., VLDB 2015). The
+ * column name of a block is the time of its first observation.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SensorObservationBlockCodec implements ObservationPayloadCodec,
+		SensorObservationRecordCodec {
+
+	public static final byte FORMAT = 0x02;
+
+	private SensorObservationCodec codec;
+
+	private static final Logger log = Logger
+			.getLogger(SensorObservationBlockCodec.class.getName());
+
+	public SensorObservationBlockCodec() {
+		this.codec = new SensorObservationCodec();
+	}
+
+	@Override
+	public byte getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException {
+		return decode(context.getSensorId(), context.getPropertyId(),
+				context.getFeatureOfInterestId(), columnName, bytes,
+				context.getTimeFrom(), context.getTimeTo());
+	}
+
+	@Override
+	public SortedMap<DateTime, Set<Statement>> decodeObservations(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		return decodeObservations(context.getSensorId(),
+				context.getPropertyId(), context.getFeatureOfInterestId(),
+				columnName, bytes, context.getTimeFrom(), context.getTimeTo());
+	}
+
+	@Override
+	public SortedMap<DateTime, SensorObservationRecord> decodeRecords(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		return decodeRecords(context.getSensorId(), context.getPropertyId(),
+				context.getFeatureOfInterestId(), columnName, bytes,
+				context.getTimeFrom(), context.getTimeTo());
+	}
+
+	public static boolean isBlock(byte[] bytes) {
+		return bytes != null && bytes.length > 0 && bytes[0] == FORMAT;
+	}
+
+	public byte[] encode(URI sensorId, URI propertyId, URI featureId,
+			UUID columnName, SortedMap<DateTime, Set<Statement>> observations) {
+		if (columnName == null || observations == null
+				|| observations.isEmpty())
+			return null;
+
+		List<CompactSensorObservation> compact = new ArrayList<CompactSensorObservation>(
+				observations.size());
+
+		for (Map.Entry<DateTime, Set<Statement>> entry : observations
+				.entrySet()) {
+			CompactSensorObservation observation = codec.parse(sensorId,
+					propertyId, featureId, entry.getValue());
+
+			// Blocks are all or nothing, the caller writes the observations
+			// one by one instead
+			if (observation == null
+					|| observation.resultTime.getMillis() != entry.getKey()
+							.getMillis())
+				return null;
+
+			compact.add(observation);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bytes);
+		List<String> namespaces = new ArrayList<String>();
+		List<URI> units = new ArrayList<URI>();
+
+		try {
+			os.writeByte(FORMAT);
+			writeVarLong(os, compact.size());
+
+			for (CompactSensorObservation observation : compact) {
+				os.writeByte(getFlags(observation));
+				writeIds(os, namespaces, observation);
+
+				if (observation.unitId == null)
+					continue;
+
+				// A block typically has a single unit, written once
+				int index = units.indexOf(observation.unitId);
+
+				if (index == -1) {
+					writeVarLong(os, 0);
+					writeId(os, namespaces, observation.unitId);
+					units.add(observation.unitId);
+				} else {
+					writeVarLong(os, index + 1);
+				}
+			}
+
+			DateTime first = compact.get(0).resultTime;
+
+			writeVarLong(os, first.getMillis() - TimeUUID.toMillis(columnName));
+			writeVarLong(os, getOffset(first));
+
+			BitOutput bits = new BitOutput();
+
+			writeTimes(bits, compact);
+			writeValues(bits, compact);
+
+			os.write(bits.toByteArray());
+			os.close();
+		} catch (IOException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+			return null;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	public Set<Statement> decode(URI sensorId, URI propertyId, URI featureId,
+			UUID columnName, byte[] bytes) throws IOException {
+		return decode(sensorId, propertyId, featureId, columnName, bytes, null,
+				null);
+	}
+
+	public Set<Statement> decode(URI sensorId, URI propertyId, URI featureId,
+			UUID columnName, byte[] bytes, DateTime timeFrom, DateTime timeTo)
+			throws IOException {
+		Set<Statement> ret = new HashSet<Statement>();
+
+		for (Set<Statement> statements : decodeObservations(sensorId,
+				propertyId, featureId, columnName, bytes, timeFrom, timeTo)
+				.values())
+			ret.addAll(statements);
+
+		return Collections.unmodifiableSet(ret);
+	}
+
+	public SortedMap<DateTime, Set<Statement>> decodeObservations(
+			URI sensorId, URI propertyId, URI featureId, UUID columnName,
+			byte[] bytes, DateTime timeFrom, DateTime timeTo)
+			throws IOException {
+		SortedMap<DateTime, Set<Statement>> ret = new TreeMap<DateTime, Set<Statement>>();
+
+		for (CompactSensorObservation observation : read(sensorId,
+				propertyId, featureId, columnName, bytes, timeFrom, timeTo)) {
+			URI[] ids = new URI[] { observation.observationId,
+					observation.resultId, observation.valueId,
+					observation.resultTimeId };
+
+			if (observation.derivedNamespace != null)
+				ids = createIds(observation.derivedNamespace, sensorId,
+						propertyId, featureId,
+						observation.resultTime.getMillis());
+
+			ret.put(observation.resultTime, codec.createRepresentation(
+					sensorId, propertyId, featureId,
+					new CompactSensorObservation(ids[0], ids[1], ids[2],
+							ids[3], observation.unitId,
+							observation.quantityValue, observation.value,
+							observation.resultTime)));
+		}
+
+		return ret;
+	}
+
+	public SortedMap<DateTime, SensorObservationRecord> decodeRecords(
+			URI sensorId, URI propertyId, URI featureId, UUID columnName,
+			byte[] bytes, DateTime timeFrom, DateTime timeTo)
+			throws IOException {
+		SortedMap<DateTime, SensorObservationRecord> ret = new TreeMap<DateTime, SensorObservationRecord>();
+
+		for (CompactSensorObservation observation : read(sensorId,
+				propertyId, featureId, columnName, bytes, timeFrom, timeTo))
+			ret.put(observation.resultTime, createRecord(sensorId,
+					propertyId, featureId, observation));
+
+		return ret;
+	}
+
+	private static List<CompactSensorObservation> read(URI sensorId,
+			URI propertyId, URI featureId, UUID columnName, byte[] bytes,
+			DateTime timeFrom, DateTime timeTo) throws IOException {
+		if (!isBlock(bytes))
+			throw new IOException("Unknown column value format [format = "
+					+ (bytes == null || bytes.length == 0 ? null : bytes[0])
+					+ "]");
+
+		if (sensorId == null || propertyId == null || featureId == null
+				|| columnName == null)
+			throw new IOException(
+					"Decoding requires sensor, property, feature and column name [sensorId = "
+							+ sensorId + "; propertyId = " + propertyId
+							+ "; featureId = " + featureId + "; columnName = "
+							+ columnName + "]");
+
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes, 1,
+				bytes.length - 1);
+		DataInputStream is = new DataInputStream(in);
+		List<String> namespaces = new ArrayList<String>();
+		List<URI> units = new ArrayList<URI>();
+
+		int size = (int) readVarLong(is);
+		int[] flags = new int[size];
+		URI[][] ids = new URI[size][];
+		String[] derivedNamespaces = new String[size];
+		URI[] unitIds = new URI[size];
+
+		for (int i = 0; i < size; i++) {
+			flags[i] = is.readUnsignedByte();
+
+			// Derived identifiers need the result time, which follows
+			if ((flags[i] & FLAG_DERIVED_IDS) != 0)
+				derivedNamespaces[i] = readNamespace(is, namespaces);
+			else
+				ids[i] = readIds(is, namespaces);
+
+			if ((flags[i] & FLAG_UNIT) == 0)
+				continue;
+
+			int index = (int) readVarLong(is);
+
+			if (index == 0) {
+				unitIds[i] = readId(is, namespaces);
+				units.add(unitIds[i]);
+			} else {
+				unitIds[i] = units.get(index - 1);
+			}
+		}
+
+		long millis = TimeUUID.toMillis(columnName) + readVarLong(is);
+		int offset = (int) readVarLong(is);
+
+		byte[] rest = new byte[in.available()];
+		is.readFully(rest);
+
+		BitInput bits = new BitInput(rest);
+		DateTime[] times = readTimes(bits, size, millis, offset);
+		double[] values = readValues(bits, size);
+
+		List<CompactSensorObservation> ret = new ArrayList<CompactSensorObservation>(
+				size);
+
+		for (int i = 0; i < size; i++) {
+			if (timeFrom != null && times[i].isBefore(timeFrom))
+				continue;
+			if (timeTo != null && !times[i].isBefore(timeTo))
+				continue;
+
+			// Derived identifiers are left to the caller, records do not
+			// need them
+			if (ids[i] == null)
+				ids[i] = new URI[4];
+
+			ret.add(new CompactSensorObservation(ids[i][0], ids[i][1],
+					ids[i][2], ids[i][3], unitIds[i],
+					(flags[i] & FLAG_QUANTITY_VALUE) != 0, values[i],
+					times[i], derivedNamespaces[i]));
+		}
+
+		return ret;
+	}
+
+	private static void writeTimes(BitOutput bits,
+			List<CompactSensorObservation> observations) {
+		DateTime previous = observations.get(0).resultTime;
+		long previousDelta = 0;
+		int previousOffset = getOffset(previous);
+
+		for (int i = 1; i < observations.size(); i++) {
+			DateTime time = observations.get(i).resultTime;
+			long delta = time.getMillis() - previous.getMillis();
+			long deltaOfDelta = delta - previousDelta;
+
+			// Regular sampling makes the delta of delta mostly zero, hence a
+			// single bit per timestamp
+			if (deltaOfDelta == 0) {
+				bits.write(0, 1);
+			} else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+				bits.write(2, 2);
+				bits.write(deltaOfDelta, 7);
+			} else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+				bits.write(6, 3);
+				bits.write(deltaOfDelta, 9);
+			} else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+				bits.write(14, 4);
+				bits.write(deltaOfDelta, 12);
+			} else {
+				bits.write(15, 4);
+				bits.write(deltaOfDelta, 64);
+			}
+
+			int offset = getOffset(time);
+
+			if (offset == previousOffset) {
+				bits.write(0, 1);
+			} else {
+				bits.write(1, 1);
+				bits.write(offset, 32);
+			}
+
+			previous = time;
+			previousDelta = delta;
+			previousOffset = offset;
+		}
+	}
+
+	private static DateTime[] readTimes(BitInput bits, int size, long millis,
+			int offset) throws IOException {
+		DateTime[] ret = new DateTime[size];
+
+		if (size == 0)
+			return ret;
+
+		ret[0] = new DateTime(millis, DateTimeZone.forOffsetMillis(offset));
+
+		long delta = 0;
+
+		for (int i = 1; i < size; i++) {
+			long deltaOfDelta;
+
+			if (bits.read(1) == 0)
+				deltaOfDelta = 0;
+			else if (bits.read(1) == 0)
+				deltaOfDelta = bits.readSigned(7);
+			else if (bits.read(1) == 0)
+				deltaOfDelta = bits.readSigned(9);
+			else if (bits.read(1) == 0)
+				deltaOfDelta = bits.readSigned(12);
+			else
+				deltaOfDelta = bits.read(64);
+
+			if (bits.read(1) == 1)
+				offset = (int) bits.readSigned(32);
+
+			delta += deltaOfDelta;
+			millis += delta;
+
+			ret[i] = new DateTime(millis, DateTimeZone.forOffsetMillis(offset));
+		}
+
+		return ret;
+	}
+
+	private static void writeValues(BitOutput bits,
+			List<CompactSensorObservation> observations) {
+		long previous = Double.doubleToRawLongBits(observations.get(0).value);
+		int previousLeading = Integer.MAX_VALUE;
+		int previousTrailing = 0;
+
+		bits.write(previous, 64);
+
+		for (int i = 1; i < observations.size(); i++) {
+			long value = Double.doubleToRawLongBits(observations.get(i).value);
+			long xor = value ^ previous;
+
+			if (xor == 0) {
+				bits.write(0, 1);
+			} else {
+				int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				int trailing = Long.numberOfTrailingZeros(xor);
+
+				// Reuse the previous window of meaningful bits if it covers
+				// this one, otherwise write a new window
+				if (previousLeading != Integer.MAX_VALUE
+						&& leading >= previousLeading
+						&& trailing >= previousTrailing) {
+					bits.write(2, 2);
+					bits.write(xor >>> previousTrailing, 64 - previousLeading
+							- previousTrailing);
+				} else {
+					int length = 64 - leading - trailing;
+
+					bits.write(3, 2);
+					bits.write(leading, 5);
+					bits.write(length - 1, 6);
+					bits.write(xor >>> trailing, length);
+
+					previousLeading = leading;
+					previousTrailing = trailing;
+				}
+			}
+
+			previous = value;
+		}
+	}
+
+	private static double[] readValues(BitInput bits, int size)
+			throws IOException {
+		double[] ret = new double[size];
+
+		if (size == 0)
+			return ret;
+
+		long previous = bits.read(64);
+		int previousLeading = 0;
+		int previousTrailing = 0;
+
+		ret[0] = Double.longBitsToDouble(previous);
+
+		for (int i = 1; i < size; i++) {
+			if (bits.read(1) == 1) {
+				if (bits.read(1) == 1) {
+					previousLeading = (int) bits.read(5);
+					previousTrailing = 64 - previousLeading
+							- ((int) bits.read(6) + 1);
+				}
+
+				previous ^= bits.read(64 - previousLeading - previousTrailing) << previousTrailing;
+			}
+
+			ret[i] = Double.longBitsToDouble(previous);
+		}
+
+		return ret;
+	}
+
+	private static int getOffset(DateTime time) {
+		return time.getZone().getOffset(time.getMillis());
+	}
+
+	private static class BitOutput {
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int current;
+		private int count;
+
+		private void write(long value, int length) {
+			for (int i = length - 1; i >= 0; i--) {
+				current = (current << 1) | (int) ((value >>> i) & 1);
+
+				if (++count == 8) {
+					bytes.write(current);
+					current = 0;
+					count = 0;
+				}
+			}
+		}
+
+		private byte[] toByteArray() {
+			if (count > 0) {
+				bytes.write(current << (8 - count));
+				current = 0;
+				count = 0;
+			}
+
+			return bytes.toByteArray();
+		}
+
+	}
+
+	private static class BitInput {
+
+		private byte[] bytes;
+		private int position;
+
+		private BitInput(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		private long read(int length) throws IOException {
+			long ret = 0;
+
+			for (int i = 0; i < length; i++) {
+				int index = position >>> 3;
+
+				if (index >= bytes.length)
+					throw new IOException("Unexpected end of block");
+
+				ret = (ret << 1) | ((bytes[index] >>> (7 - (position & 7))) & 1);
+				position++;
+			}
+
+			return ret;
+		}
+
+		private long readSigned(int length) throws IOException {
+			long ret = read(length);
+
+			// Sign extend the two's complement of the given length
+			return (ret << (64 - length)) >> (64 - length);
+		}
+
+	}
+
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
+import fi.uef.envi.emrooz.entity.ssn.ObservationValueDouble;
+import fi.uef.envi.emrooz.entity.ssn.Property;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
+import fi.uef.envi.emrooz.entity.time.Instant;
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.QUDTSchema;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+import fi.uef.envi.emrooz.vocabulary.Time;
+
+/**
+ * <p>
+ * Title: SensorObservationCodec
+ * </p>
+ * <p>
+ * Description: Compact column value for the statements of
+ * RDFEntityRepresenter.createRepresentation(SensorObservation). Only the
+ * observation, output, value and instant identifiers, the value, the unit and
+ * the result time as offset to the column name are stored. Sensor, property
+ * and feature are known from the row key and rebuilt at decoding. Statements
+ * that do not follow the representation are not encoded and left to
+ * BinaryRDF.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SensorObservationCodec implements SensorObservationRecordCodec {
+
+	// BinaryRDF starts with the magic number 'B', 'R', 'D', 'F'
+	public static final byte FORMAT = 0x01;
+
+	static final int FLAG_QUANTITY_VALUE = 1;
+	static final int FLAG_UNIT = 2;
+	static final int FLAG_DERIVED_IDS = 4;
+
+	private static final int LOCAL_NAME_UUID = 0;
+	private static final int LOCAL_NAME_STRING = 1;
+
+	// Codecs are shared by writers and readers, representers hold state
+	private static final ThreadLocal<RDFEntityRepresenter> representer = new ThreadLocal<RDFEntityRepresenter>() {
+		@Override
+		protected RDFEntityRepresenter initialValue() {
+			return new RDFEntityRepresenter();
+		}
+	};
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final DateTimeFormatter dtf = ISODateTimeFormat.dateTime()
+			.withOffsetParsed();
+	private static final Logger log = Logger
+			.getLogger(SensorObservationCodec.class.getName());
+
+	@Override
+	public byte getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public Set<Statement> decode(PayloadContext context, UUID columnName,
+			byte[] bytes) throws IOException {
+		if (!context.isInRange(columnName))
+			return Collections.emptySet();
+
+		return decode(context.getSensorId(), context.getPropertyId(),
+				context.getFeatureOfInterestId(), columnName, bytes);
+	}
+
+	public static boolean isCompact(byte[] bytes) {
+		return bytes != null && bytes.length > 0 && bytes[0] == FORMAT;
+	}
+
+	public byte[] encode(URI sensorId, URI propertyId,
+			URI featureId, UUID columnName, Set<Statement> statements) {
+		if (columnName == null)
+			return null;
+
+		CompactSensorObservation observation = parse(sensorId, propertyId,
+				featureId, statements);
+
+		if (observation == null)
+			return null;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bytes);
+		List<String> namespaces = new ArrayList<String>();
+		DateTime resultTime = observation.resultTime;
+
+		try {
+			os.writeByte(FORMAT);
+			os.writeByte(getFlags(observation));
+			writeIds(os, namespaces, observation);
+
+			if (observation.unitId != null)
+				writeId(os, namespaces, observation.unitId);
+
+			os.writeDouble(observation.value);
+			writeVarLong(os, resultTime.getMillis()
+					- TimeUUID.toMillis(columnName));
+			writeVarLong(os,
+					resultTime.getZone().getOffset(resultTime.getMillis()));
+			os.close();
+		} catch (IOException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+			return null;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	public Set<Statement> decode(URI sensorId, URI propertyId,
+			URI featureId, UUID columnName, byte[] bytes) throws IOException {
+		CompactSensorObservation observation = read(sensorId, propertyId,
+				featureId, columnName, bytes);
+		URI[] ids = new URI[] { observation.observationId,
+				observation.resultId, observation.valueId,
+				observation.resultTimeId };
+
+		if (observation.derivedNamespace != null)
+			ids = createIds(observation.derivedNamespace, sensorId,
+					propertyId, featureId, observation.resultTime.getMillis());
+
+		return createRepresentation(sensorId, propertyId, featureId,
+				new CompactSensorObservation(ids[0], ids[1], ids[2], ids[3],
+						observation.unitId, observation.quantityValue,
+						observation.value, observation.resultTime));
+	}
+
+	@Override
+	public SortedMap<DateTime, SensorObservationRecord> decodeRecords(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException {
+		SortedMap<DateTime, SensorObservationRecord> ret = new TreeMap<DateTime, SensorObservationRecord>();
+
+		if (!context.isInRange(columnName))
+			return ret;
+
+		URI sensorId = context.getSensorId();
+		URI propertyId = context.getPropertyId();
+		URI featureId = context.getFeatureOfInterestId();
+		CompactSensorObservation observation = read(sensorId, propertyId,
+				featureId, columnName, bytes);
+
+		ret.put(observation.resultTime,
+				createRecord(sensorId, propertyId, featureId, observation));
+
+		return ret;
+	}
+
+	static SensorObservationRecord createRecord(URI sensorId, URI propertyId,
+			URI featureId, CompactSensorObservation observation) {
+		return new SensorObservationRecord(sensorId, propertyId, featureId,
+				observation.resultTime, observation.value,
+				observation.quantityValue, observation.unitId);
+	}
+
+	private static CompactSensorObservation read(URI sensorId,
+			URI propertyId, URI featureId, UUID columnName, byte[] bytes)
+			throws IOException {
+		if (!isCompact(bytes))
+			throw new IOException("Unknown column value format [format = "
+					+ (bytes == null || bytes.length == 0 ? null : bytes[0])
+					+ "]");
+
+		if (sensorId == null || propertyId == null || featureId == null
+				|| columnName == null)
+			throw new IOException(
+					"Decoding requires sensor, property, feature and column name [sensorId = "
+							+ sensorId + "; propertyId = " + propertyId
+							+ "; featureId = " + featureId + "; columnName = "
+							+ columnName + "]");
+
+		DataInputStream is = new DataInputStream(new ByteArrayInputStream(
+				bytes, 1, bytes.length - 1));
+		List<String> namespaces = new ArrayList<String>();
+
+		int flags = is.readUnsignedByte();
+		URI[] ids = new URI[4];
+		String namespace = null;
+
+		// Derived identifiers are left to the caller, records do not need
+		// them
+		if ((flags & FLAG_DERIVED_IDS) != 0)
+			namespace = readNamespace(is, namespaces);
+		else
+			ids = readIds(is, namespaces);
+
+		URI unitId = null;
+
+		if ((flags & FLAG_UNIT) != 0)
+			unitId = readId(is, namespaces);
+
+		double value = is.readDouble();
+		long millis = TimeUUID.toMillis(columnName) + readVarLong(is);
+		int offset = (int) readVarLong(is);
+
+		return new CompactSensorObservation(ids[0], ids[1], ids[2], ids[3],
+				unitId, (flags & FLAG_QUANTITY_VALUE) != 0, value,
+				new DateTime(millis, DateTimeZone.forOffsetMillis(offset)),
+				namespace);
+	}
+
+	CompactSensorObservation parse(URI sensorId, URI propertyId,
+			URI featureId, Set<Statement> statements) {
+		if (sensorId == null || propertyId == null || featureId == null
+				|| statements == null)
+			return null;
+
+		URI observationId = getSubject(statements, RDF.TYPE, SSN.Observation);
+
+		if (observationId == null)
+			return null;
+
+		if (!sensorId.equals(getObject(statements, observationId,
+				SSN.observedBy))
+				|| !propertyId.equals(getObject(statements, observationId,
+						SSN.observedProperty))
+				|| !featureId.equals(getObject(statements, observationId,
+						SSN.featureOfInterest)))
+			return null;
+
+		Value resultId = getObject(statements, observationId,
+				SSN.observationResult);
+		Value resultTimeId = getObject(statements, observationId,
+				SSN.observationResultTime);
+
+		if (!(resultId instanceof URI) || !(resultTimeId instanceof URI))
+			return null;
+
+		Value valueId = getObject(statements, (URI) resultId, SSN.hasValue);
+
+		if (!(valueId instanceof URI))
+			return null;
+
+		Value value = getObject(statements, (URI) valueId,
+				DUL.hasRegionDataValue);
+		Value time = getObject(statements, (URI) resultTimeId,
+				Time.inXSDDateTime);
+
+		if (!(value instanceof Literal) || !(time instanceof Literal))
+			return null;
+
+		Value unitId = getObject(statements, (URI) valueId, QUDTSchema.unit);
+
+		if (unitId != null && !(unitId instanceof URI))
+			return null;
+
+		boolean quantityValue = statements.contains(vf.createStatement(
+				(URI) valueId, RDF.TYPE, QUDTSchema.QuantityValue));
+
+		CompactSensorObservation ret;
+
+		try {
+			DateTime resultTime = dtf.parseDateTime(time.stringValue());
+
+			ret = new CompactSensorObservation(observationId, (URI) resultId,
+					(URI) valueId, (URI) resultTimeId, (URI) unitId,
+					quantityValue, ((Literal) value).doubleValue(),
+					resultTime, getDerivedNamespace(sensorId, propertyId,
+							featureId, resultTime, observationId,
+							(URI) resultId, (URI) valueId, (URI) resultTimeId));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		if (!isLossless(statements,
+				createRepresentation(sensorId, propertyId, featureId, ret),
+				ret))
+			return null;
+
+		return ret;
+	}
+
+	Set<Statement> createRepresentation(URI sensorId,
+			URI propertyId, URI featureId, CompactSensorObservation observation) {
+		Unit unit = null;
+
+		if (observation.unitId != null)
+			unit = new Unit(observation.unitId);
+
+		ObservationValueDouble value;
+
+		if (observation.quantityValue)
+			value = new QuantityValue(observation.valueId, observation.value,
+					unit);
+		else
+			value = new ObservationValueDouble(observation.valueId,
+					observation.value);
+
+		return representer.get().createRepresentation(new SensorObservation(
+				observation.observationId, new Sensor(sensorId), new Property(
+						propertyId), new FeatureOfInterest(featureId),
+				new SensorOutput(observation.resultId, value), new Instant(
+						observation.resultTimeId, observation.resultTime)));
+	}
+
+	static int getFlags(CompactSensorObservation observation) {
+		return (observation.quantityValue ? FLAG_QUANTITY_VALUE : 0)
+				| (observation.unitId != null ? FLAG_UNIT : 0)
+				| (observation.derivedNamespace != null ? FLAG_DERIVED_IDS : 0);
+	}
+
+	private static String getDerivedNamespace(URI sensorId, URI propertyId,
+			URI featureId, DateTime resultTime, URI observationId,
+			URI resultId, URI valueId, URI resultTimeId) {
+		String namespace = observationId.getNamespace();
+		URI[] ids = createIds(namespace, sensorId, propertyId, featureId,
+				resultTime.getMillis());
+
+		if (ids[0].equals(observationId) && ids[1].equals(resultId)
+				&& ids[2].equals(valueId) && ids[3].equals(resultTimeId))
+			return namespace;
+
+		return null;
+	}
+
+	static URI[] createIds(String namespace, URI sensorId, URI propertyId,
+			URI featureId, long resultTime) {
+		return new URI[] {
+				ObservationIdUtils.createId(namespace, sensorId, propertyId,
+						featureId, resultTime, ObservationIdUtils.OBSERVATION),
+				ObservationIdUtils.createId(namespace, sensorId, propertyId,
+						featureId, resultTime, ObservationIdUtils.RESULT),
+				ObservationIdUtils.createId(namespace, sensorId, propertyId,
+						featureId, resultTime, ObservationIdUtils.VALUE),
+				ObservationIdUtils.createId(namespace, sensorId, propertyId,
+						featureId, resultTime, ObservationIdUtils.RESULT_TIME) };
+	}
+
+	private boolean isLossless(Set<Statement> statements,
+			Set<Statement> decoded, CompactSensorObservation observation) {
+		if (!statements.containsAll(decoded))
+			return false;
+
+		Set<Resource> subjects = new HashSet<Resource>();
+		subjects.add(observation.observationId);
+		subjects.add(observation.resultId);
+		subjects.add(observation.valueId);
+		subjects.add(observation.resultTimeId);
+
+		if (observation.unitId != null)
+			subjects.add(observation.unitId);
+
+		// Statements about the sensor, property and feature are part of the
+		// specification in the knowledge store; all others must be rebuilt
+		for (Statement statement : statements) {
+			if (subjects.contains(statement.getSubject())
+					&& !decoded.contains(statement))
+				return false;
+		}
+
+		return true;
+	}
+
+	static void writeIds(DataOutputStream os, List<String> namespaces,
+			CompactSensorObservation observation) throws IOException {
+		// Derived identifiers are rebuilt from the row key and column name,
+		// only their namespace is stored
+		if (observation.derivedNamespace != null) {
+			writeNamespace(os, namespaces, observation.derivedNamespace);
+			return;
+		}
+
+		writeId(os, namespaces, observation.observationId);
+		writeId(os, namespaces, observation.resultId);
+		writeId(os, namespaces, observation.valueId);
+		writeId(os, namespaces, observation.resultTimeId);
+	}
+
+	static URI[] readIds(DataInputStream is, List<String> namespaces)
+			throws IOException {
+		return new URI[] { readId(is, namespaces), readId(is, namespaces),
+				readId(is, namespaces), readId(is, namespaces) };
+	}
+
+	static void writeNamespace(DataOutputStream os, List<String> namespaces,
+			String namespace) throws IOException {
+		int index = namespaces.indexOf(namespace);
+
+		// Namespaces are written once and referred to by position thereafter
+		if (index == -1) {
+			writeVarLong(os, 0);
+			os.writeUTF(namespace);
+			namespaces.add(namespace);
+		} else {
+			writeVarLong(os, index + 1);
+		}
+	}
+
+	static String readNamespace(DataInputStream is, List<String> namespaces)
+			throws IOException {
+		int index = (int) readVarLong(is);
+
+		if (index != 0)
+			return namespaces.get(index - 1);
+
+		String ret = is.readUTF();
+		namespaces.add(ret);
+
+		return ret;
+	}
+
+	static void writeId(DataOutputStream os, List<String> namespaces,
+			URI id) throws IOException {
+		String localName = id.getLocalName();
+
+		writeNamespace(os, namespaces, id.getNamespace());
+
+		UUID uuid = toUUID(localName);
+
+		if (uuid == null) {
+			os.writeByte(LOCAL_NAME_STRING);
+			os.writeUTF(localName);
+		} else {
+			os.writeByte(LOCAL_NAME_UUID);
+			os.writeLong(uuid.getMostSignificantBits());
+			os.writeLong(uuid.getLeastSignificantBits());
+		}
+	}
+
+	static URI readId(DataInputStream is, List<String> namespaces)
+			throws IOException {
+		String namespace = readNamespace(is, namespaces);
+		String localName;
+
+		if (is.readUnsignedByte() == LOCAL_NAME_UUID)
+			localName = new UUID(is.readLong(), is.readLong()).toString();
+		else
+			localName = is.readUTF();
+
+		return vf.createURI(namespace, localName);
+	}
+
+	private static UUID toUUID(String localName) {
+		if (localName.length() != 36)
+			return null;
+
+		try {
+			UUID ret = UUID.fromString(localName);
+
+			// Only canonical lower case representations round-trip
+			if (ret.toString().equals(localName))
+				return ret;
+		} catch (IllegalArgumentException e) {
+			// Not a UUID
+		}
+
+		return null;
+	}
+
+	static void writeVarLong(DataOutputStream os, long value)
+			throws IOException {
+		// Zig-zag encoding keeps small negative values short
+		long v = (value << 1) ^ (value >> 63);
+
+		while ((v & ~0x7FL) != 0) {
+			os.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+
+		os.writeByte((int) v);
+	}
+
+	static long readVarLong(DataInputStream is) throws IOException {
+		long v = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = is.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static URI getSubject(Set<Statement> statements, URI predicate,
+			Value object) {
+		URI ret = null;
+
+		for (Statement statement : statements) {
+			if (!statement.getPredicate().equals(predicate)
+					|| !statement.getObject().equals(object))
+				continue;
+
+			// More than one observation is not a single observation graph
+			if (ret != null || !(statement.getSubject() instanceof URI))
+				return null;
+
+			ret = (URI) statement.getSubject();
+		}
+
+		return ret;
+	}
+
+	private static Value getObject(Set<Statement> statements, URI subject,
+			URI predicate) {
+		Value ret = null;
+
+		for (Statement statement : statements) {
+			if (!statement.getSubject().equals(subject)
+					|| !statement.getPredicate().equals(predicate))
+				continue;
+
+			if (ret != null)
+				return null;
+
+			ret = statement.getObject();
+		}
+
+		return ret;
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: SensorObservationRecordCodec
+ * </p>
+ * <p>
+ * Description: Payload codec for column values that can be decoded to the
+ * values of their sensor observations, ordered by result time, without
+ * creating statements. Records are returned with statements only if the
+ * column value holds statements that are not decoded to values.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public interface SensorObservationRecordCodec extends PayloadCodec {
+
+	public SortedMap<DateTime, SensorObservationRecord> decodeRecords(
+			PayloadContext context, UUID columnName, byte[] bytes)
+			throws IOException;
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils;
+
+import org.openrdf.model.URI;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+
+/**
+ * <p>
+ * Title: SensorObservationRoute
+ * </p>
+ * <p>
+ * Description: What row keys of a sensor, property and feature series are
+ * made of, i.e. the series key shared by all partitions of the series and the
+ * rollover of its frequency. Routes are computed once per series, hence an
+ * observation only needs the date of its partition. The row key of the
+ * partition last used by the series is kept with the route, as observations
+ * of a series are mostly added, and read, partition by partition.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SensorObservationRoute {
+
+	private final URI sensorId;
+	private final URI propertyId;
+	private final URI featureId;
+	private final Frequency frequency;
+	private final Rollover rollover;
+	private final String seriesKey;
+	private volatile RowKeyPartition partition;
+
+	public SensorObservationRoute(URI sensorId, URI propertyId, URI featureId,
+			Frequency frequency, Rollover rollover, String seriesKey) {
+		if (sensorId == null)
+			throw new NullPointerException("[sensorId = null]");
+		if (propertyId == null)
+			throw new NullPointerException("[propertyId = null]");
+		if (featureId == null)
+			throw new NullPointerException("[featureId = null]");
+		if (frequency == null)
+			throw new NullPointerException("[frequency = null]");
+		if (rollover == null)
+			throw new NullPointerException("[rollover = null]");
+		if (seriesKey == null)
+			throw new NullPointerException("[seriesKey = null]");
+
+		this.sensorId = sensorId;
+		this.propertyId = propertyId;
+		this.featureId = featureId;
+		this.frequency = frequency;
+		this.rollover = rollover;
+		this.seriesKey = seriesKey;
+	}
+
+	public URI getSensorId() {
+		return sensorId;
+	}
+
+	public URI getPropertyId() {
+		return propertyId;
+	}
+
+	public URI getFeatureOfInterestId() {
+		return featureId;
+	}
+
+	public Frequency getFrequency() {
+		return frequency;
+	}
+
+	public Rollover getRollover() {
+		return rollover;
+	}
+
+	public String getSeriesKey() {
+		return seriesKey;
+	}
+
+	RowKeyPartition getPartition() {
+		return partition;
+	}
+
+	void setPartition(RowKeyPartition partition) {
+		this.partition = partition;
+	}
+
+	@Override
+	public String toString() {
+		return "SensorObservationRoute [sensorId = " + sensorId
+				+ "; propertyId = " + propertyId + "; featureId = "
+				+ featureId + "; rollover = " + rollover + "; seriesKey = "
+				+ seriesKey + "]";
+	}
+
+}
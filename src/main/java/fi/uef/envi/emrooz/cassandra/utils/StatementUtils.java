@@ -6,16 +6,32 @@
 package fi.uef.envi.emrooz.cassandra.utils;
 
 import static fi.uef.envi.emrooz.EmroozOptions.DATA_TABLE_ATTRIBUTE_3;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.readVarLong;
+import static fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec.writeVarLong;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
@@ -28,6 +44,11 @@ import org.openrdf.rio.helpers.StatementCollector;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.utils.Bytes;
 
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.vocabulary.QB;
+import fi.uef.envi.emrooz.vocabulary.QUDTSchema;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+
 /**
  * <p>
  * Title: StatementUtils
@@ -47,6 +68,30 @@ import com.datastax.driver.core.utils.Bytes;
 
 public class StatementUtils {
 
+	// Statements with URIs replaced by dictionary identifiers
+	public static final byte DICTIONARY_FORMAT = 0x04;
+
+	private static final int URI_TERM = 0;
+	private static final int BNODE_TERM = 1;
+	private static final int LITERAL_TERM = 2;
+	private static final int TYPED_LITERAL_TERM = 3;
+	private static final int LANGUAGE_LITERAL_TERM = 4;
+	private static final int INLINE_URI_TERM = 5;
+
+	// Objects of these predicates are vocabulary terms, sensors, properties,
+	// features or datasets, which recur across observations and are
+	// dictionary encoded as are predicates and datatypes; other URIs, e.g. of
+	// the observation and its result, are local to an observation and are
+	// written inline so that they do not grow the dictionary
+	private static final Set<URI> recurringObjectsOf = new HashSet<URI>(
+			Arrays.asList(RDF.TYPE, SSN.observedBy, SSN.observedProperty,
+					SSN.featureOfInterest, QUDTSchema.unit, QB.dataSet));
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final Logger log = Logger.getLogger(StatementUtils.class
+			.getName());
+
 	public static byte[] toByteArray(Set<Statement> statements) {
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
 		RDFHandler rdfHandler = new BinaryRDFWriter(os);
@@ -66,6 +111,69 @@ public class StatementUtils {
 		return os.toByteArray();
 	}
 
+	public static byte[] toByteArray(Set<Statement> statements,
+			UriDictionary dictionary) {
+		if (dictionary == null)
+			return toByteArray(statements);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bytes);
+
+		try {
+			os.writeByte(DICTIONARY_FORMAT);
+			writeVarLong(os, statements.size());
+
+			for (Statement statement : statements) {
+				URI predicate = statement.getPredicate();
+
+				writeValue(os, dictionary, statement.getSubject(), false);
+				writeValue(os, dictionary, predicate, true);
+				writeValue(os, dictionary, statement.getObject(),
+						recurringObjectsOf.contains(predicate));
+			}
+
+			os.close();
+		} catch (IOException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Failed to dictionary encode statements [statements = "
+						+ statements + "; error = " + e.getMessage() + "]");
+
+			// A partial buffer would not decode; callers write BinaryRDF
+			return null;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	public static boolean isDictionaryEncoded(byte[] bytes) {
+		return bytes != null && bytes.length > 0
+				&& bytes[0] == DICTIONARY_FORMAT;
+	}
+
+	public static Set<Statement> toStatements(byte[] bytes,
+			UriDictionary dictionary) throws RDFParseException,
+			RDFHandlerException, IOException {
+		if (!isDictionaryEncoded(bytes))
+			return toStatements(bytes);
+
+		if (dictionary == null)
+			throw new IOException(
+					"Dictionary encoded statements require a dictionary [dictionary = null]");
+
+		DataInputStream is = new DataInputStream(new ByteArrayInputStream(
+				bytes, 1, bytes.length - 1));
+		int size = (int) readVarLong(is);
+		Set<Statement> ret = new HashSet<Statement>(size * 2);
+
+		for (int i = 0; i < size; i++) {
+			ret.add(vf.createStatement((Resource) readValue(is, dictionary),
+					(URI) readValue(is, dictionary),
+					readValue(is, dictionary)));
+		}
+
+		return Collections.unmodifiableSet(ret);
+	}
+
 	public static Set<Statement> toStatements(byte[] bytes)
 			throws RDFParseException, RDFHandlerException, IOException {
 		if (bytes.length == 0)
@@ -107,4 +215,92 @@ public class StatementUtils {
 		parser.parse(new ByteArrayInputStream(bytes), null);
 	}
 
+	private static void writeValue(DataOutputStream os,
+			UriDictionary dictionary, Value value, boolean recurring)
+			throws IOException {
+		if (value instanceof URI && recurring) {
+			os.writeByte(URI_TERM);
+			writeVarLong(os, getId(dictionary, (URI) value));
+		} else if (value instanceof URI) {
+			os.writeByte(INLINE_URI_TERM);
+			writeString(os, value.stringValue());
+		} else if (value instanceof BNode) {
+			os.writeByte(BNODE_TERM);
+			writeString(os, ((BNode) value).getID());
+		} else {
+			Literal literal = (Literal) value;
+
+			if (literal.getLanguage() != null) {
+				os.writeByte(LANGUAGE_LITERAL_TERM);
+				writeString(os, literal.getLabel());
+				writeString(os, literal.getLanguage());
+			} else if (literal.getDatatype() != null) {
+				os.writeByte(TYPED_LITERAL_TERM);
+				writeString(os, literal.getLabel());
+				writeVarLong(os, getId(dictionary, literal.getDatatype()));
+			} else {
+				os.writeByte(LITERAL_TERM);
+				writeString(os, literal.getLabel());
+			}
+		}
+	}
+
+	private static Value readValue(DataInputStream is, UriDictionary dictionary)
+			throws IOException {
+		int term = is.readUnsignedByte();
+
+		if (term == URI_TERM)
+			return getUri(dictionary, readVarLong(is));
+		if (term == BNODE_TERM)
+			return vf.createBNode(readString(is));
+		if (term == LITERAL_TERM)
+			return vf.createLiteral(readString(is));
+		if (term == TYPED_LITERAL_TERM)
+			return vf.createLiteral(readString(is),
+					getUri(dictionary, readVarLong(is)));
+		if (term == LANGUAGE_LITERAL_TERM)
+			return vf.createLiteral(readString(is), readString(is));
+		if (term == INLINE_URI_TERM)
+			return vf.createURI(readString(is));
+
+		throw new IOException("Unknown term [term = " + term + "]");
+	}
+
+	private static long getId(UriDictionary dictionary, URI uri)
+			throws IOException {
+		long ret = dictionary.getId(uri);
+
+		if (ret < 1)
+			throw new IOException("Invalid dictionary id [uri = " + uri
+					+ "; id = " + ret + "]");
+
+		return ret;
+	}
+
+	private static URI getUri(UriDictionary dictionary, long id)
+			throws IOException {
+		URI ret = dictionary.getUri(id);
+
+		if (ret == null)
+			throw new IOException("Unknown dictionary id [id = " + id + "]");
+
+		return ret;
+	}
+
+	private static void writeString(DataOutputStream os, String value)
+			throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+
+		writeVarLong(os, bytes.length);
+		os.write(bytes);
+	}
+
+	private static String readString(DataInputStream is) throws IOException {
+		byte[] bytes = new byte[(int) readVarLong(is)];
+
+		is.readFully(bytes);
+
+		return new String(bytes, UTF8);
+	}
+
 }
@@ -5,13 +5,23 @@
 
 package fi.uef.envi.emrooz.io;
 
+import static fi.uef.envi.emrooz.EmroozOptions.MAX_IN_FLIGHT_WRITES;
+import static fi.uef.envi.emrooz.EmroozOptions.WRITE_BATCH_MAX_AGE;
+import static fi.uef.envi.emrooz.EmroozOptions.WRITE_BATCH_SIZE;
+
+import java.io.File;
 import java.util.UUID;
 
+import org.joda.time.DateTime;
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
 
+import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.api.ObservationReader;
+import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+import fi.uef.envi.emrooz.cassandra.CassandraSSTableDataStore;
+import fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils;
 
 /**
  * <p>
@@ -34,6 +44,10 @@ public abstract class AbstractObservationReader<T> implements
 		ObservationReader<T> {
 
 	private URI ns;
+	// Observation, sensor output, value and instant identifiers are derived
+	// from sensor, property, feature and time instead of random UUIDs, which
+	// lets the data store omit them from column values
+	private boolean derivedIds;
 	protected static final ValueFactory vf = ValueFactoryImpl.getInstance();
 	protected static final String LINE_SEPARATOR = System
 			.getProperty("line.separator");
@@ -51,10 +65,27 @@ public abstract class AbstractObservationReader<T> implements
 				"This sensor observation reader those not support removing sensor observations from the iterator.");
 	}
 
+	public void setDerivedIds(boolean derivedIds) {
+		this.derivedIds = derivedIds;
+	}
+
+	public boolean isDerivedIds() {
+		return derivedIds;
+	}
+
 	protected URI _id() {
 		return _id(ns);
 	}
 
+	protected URI _id(URI sensorId, URI propertyId, URI featureId,
+			DateTime resultTime, String role) {
+		if (!derivedIds)
+			return _id();
+
+		return ObservationIdUtils.createId(ns, sensorId, propertyId,
+				featureId, resultTime, role);
+	}
+
 	protected static URI _id(URI ns) {
 		String s = ns.stringValue();
 
@@ -64,6 +95,19 @@ public abstract class AbstractObservationReader<T> implements
 		return vf.createURI(ns + "#" + UUID.randomUUID().toString());
 	}
 
+	protected static DataStore createDataStore(String dataStoreHost,
+			File sstableDirectory) {
+		if (sstableDirectory != null)
+			return new CassandraSSTableDataStore(sstableDirectory);
+
+		CassandraDataStore ret = new CassandraDataStore(dataStoreHost);
+		ret.setMaxInFlightWrites(MAX_IN_FLIGHT_WRITES);
+		ret.setBatchSize(WRITE_BATCH_SIZE);
+		ret.setMaxBatchAge(WRITE_BATCH_MAX_AGE);
+
+		return ret;
+	}
+
 	protected static void status(String message) {
 		System.out.println(message);
 	}
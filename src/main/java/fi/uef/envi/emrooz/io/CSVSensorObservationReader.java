@@ -5,9 +5,17 @@
 
 package fi.uef.envi.emrooz.io;
 
+import static fi.uef.envi.emrooz.EmroozOptions.INGEST_CHUNK_SIZE;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.OBSERVATION;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.RESULT;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.RESULT_TIME;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.VALUE;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,7 +28,7 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.memory.MemoryStore;
 
 import fi.uef.envi.emrooz.Emrooz;
-import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.qudt.Unit;
 import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
@@ -134,10 +142,14 @@ public class CSVSensorObservationReader extends
 				continue;
 			}
 
-			next = new SensorObservation(_id(), new Sensor(sensorId),
-					new Property(propertyId), new FeatureOfInterest(featureId),
-					new SensorOutput(_id(), new QuantityValue(_id(), value,
-							new Unit(unitId))), new Instant(_id(), time));
+			next = new SensorObservation(_id(sensorId, propertyId, featureId,
+					time, OBSERVATION), new Sensor(sensorId), new Property(
+					propertyId), new FeatureOfInterest(featureId),
+					new SensorOutput(_id(sensorId, propertyId, featureId, time,
+							RESULT), new QuantityValue(_id(sensorId,
+							propertyId, featureId, time, VALUE), value,
+							new Unit(unitId))), new Instant(_id(sensorId,
+							propertyId, featureId, time, RESULT_TIME), time));
 		}
 
 		if (next == null)
@@ -164,6 +176,8 @@ public class CSVSensorObservationReader extends
 		URI unitId = null;
 		File knowledgeStoreFile = null;
 		String dataStoreHost = "localhost";
+		File sstableDirectory = null;
+		boolean derivedIds = false;
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-f"))
@@ -184,6 +198,10 @@ public class CSVSensorObservationReader extends
 				knowledgeStoreFile = new File(args[++i]);
 			if (args[i].equals("-ds"))
 				dataStoreHost = args[++i];
+			if (args[i].equals("-sst"))
+				sstableDirectory = new File(args[++i]);
+			if (args[i].equals("-di"))
+				derivedIds = true;
 		}
 
 		if (file == null || ns == null || sensorId == null
@@ -199,7 +217,7 @@ public class CSVSensorObservationReader extends
 				_id(ns), new Frequency(_id(ns), new QuantityValue(_id(ns),
 						samplingFrequency, new Unit(QUDTUnit.Hertz))))));
 
-		CassandraDataStore ds = new CassandraDataStore(dataStoreHost);
+		DataStore ds = createDataStore(dataStoreHost, sstableDirectory);
 
 		Emrooz e = new Emrooz(ks, ds);
 
@@ -209,18 +227,33 @@ public class CSVSensorObservationReader extends
 
 		CSVSensorObservationReader reader = new CSVSensorObservationReader(
 				file, ns, sensorId, propertyId, featureId, unitId);
+		reader.setDerivedIds(derivedIds);
 
 		long numOfObservations = 0;
 
+		Set<SensorObservation> observations = new HashSet<SensorObservation>();
+
 		while (reader.hasNext()) {
-			e.add(reader.next());
+			observations.add(reader.next());
+			numOfObservations++;
+
+			if (observations.size() == INGEST_CHUNK_SIZE) {
+				e.add(observations);
+				observations.clear();
+			}
 		}
 
-		long end = System.currentTimeMillis();
+		e.add(observations);
 
+		// Closing waits for pending asynchronous writes or flushes the
+		// remaining SSTable buffer
 		e.close();
 
-		summary(start, end, numOfObservations, dataStoreHost);
+		long end = System.currentTimeMillis();
+
+		summary(start, end, numOfObservations,
+				sstableDirectory == null ? dataStoreHost : sstableDirectory
+						.getPath());
 	}
 
 	private static void help() {
@@ -246,6 +279,10 @@ public class CSVSensorObservationReader extends
 				+ LINE_SEPARATOR);
 		sb.append("  -ds  [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -sst [directory name]  Write SSTables to directory for sstableloader instead of the data store"
+				+ LINE_SEPARATOR);
+		sb.append("  -di                    Derive observation identifiers instead of random UUIDs"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
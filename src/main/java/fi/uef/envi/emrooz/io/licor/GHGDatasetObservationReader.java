@@ -5,7 +5,10 @@
 
 package fi.uef.envi.emrooz.io.licor;
 
+import static fi.uef.envi.emrooz.EmroozOptions.INGEST_CHUNK_SIZE;
+
 import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -20,7 +23,7 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import fi.uef.envi.emrooz.Emrooz;
-import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.entity.qb.ComponentProperty;
 import fi.uef.envi.emrooz.entity.qb.ComponentPropertyValueDouble;
 import fi.uef.envi.emrooz.entity.qb.ComponentPropertyValueInteger;
@@ -224,6 +227,7 @@ public class GHGDatasetObservationReader extends
 		URI biometDatasetId = null;
 		File knowledgeStoreFile = null;
 		String dataStoreHost = "localhost";
+		File sstableDirectory = null;
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-f"))
@@ -238,6 +242,8 @@ public class GHGDatasetObservationReader extends
 				knowledgeStoreFile = new File(args[++i]);
 			if (args[i].equals("-ds"))
 				dataStoreHost = args[++i];
+			if (args[i].equals("-sst"))
+				sstableDirectory = new File(args[++i]);
 		}
 
 		if (file == null || ns == null || gasDatasetId == null
@@ -251,7 +257,7 @@ public class GHGDatasetObservationReader extends
 		ks.addDataset(new Dataset(biometDatasetId, new QuantityValue(_id(ns),
 				BIOMET_SAMPLING_FREQUENCY, new Unit(QUDTUnit.Hertz))));
 
-		CassandraDataStore ds = new CassandraDataStore(dataStoreHost);
+		DataStore ds = createDataStore(dataStoreHost, sstableDirectory);
 
 		Emrooz e = new Emrooz(ks, ds);
 
@@ -264,16 +270,29 @@ public class GHGDatasetObservationReader extends
 
 		long numOfObservations = 0;
 
+		List<DatasetObservation> observations = new ArrayList<DatasetObservation>();
+
 		while (reader.hasNext()) {
-			e.add(reader.next());
+			observations.add(reader.next());
 			numOfObservations++;
+
+			if (observations.size() == INGEST_CHUNK_SIZE) {
+				e.addDatasetObservations(observations);
+				observations.clear();
+			}
 		}
 
-		long end = System.currentTimeMillis();
+		e.addDatasetObservations(observations);
 
+		// Closing waits for pending asynchronous writes or flushes the
+		// remaining SSTable buffer
 		e.close();
 
-		summary(start, end, numOfObservations, dataStoreHost);
+		long end = System.currentTimeMillis();
+
+		summary(start, end, numOfObservations,
+				sstableDirectory == null ? dataStoreHost : sstableDirectory
+						.getPath());
 	}
 
 	private static void help() {
@@ -293,6 +312,8 @@ public class GHGDatasetObservationReader extends
 				+ LINE_SEPARATOR);
 		sb.append("  -ds [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -sst [directory name] Write SSTables to directory for sstableloader instead of the data store"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
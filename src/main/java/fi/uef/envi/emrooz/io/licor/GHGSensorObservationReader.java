@@ -5,10 +5,18 @@
 
 package fi.uef.envi.emrooz.io.licor;
 
+import static fi.uef.envi.emrooz.EmroozOptions.INGEST_CHUNK_SIZE;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.OBSERVATION;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.RESULT;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.RESULT_TIME;
+import static fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils.VALUE;
+
 import java.io.File;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,7 +28,7 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import fi.uef.envi.emrooz.Emrooz;
-import fi.uef.envi.emrooz.cassandra.CassandraDataStore;
+import fi.uef.envi.emrooz.api.DataStore;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.qudt.Unit;
 import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
@@ -172,10 +180,18 @@ public class GHGSensorObservationReader extends
 	private SensorObservation getSensorObservation(Sensor sensor,
 			Property property, FeatureOfInterest feature, DateTime dateTime,
 			Double value) {
-		return new SensorObservation(_id(), sensor, property, feature,
-				new SensorOutput(_id(), new QuantityValue(_id(), value,
-						new Unit(QUDTUnit.MilliMolePerCubicMeter))),
-				new Instant(_id(), dateTime));
+		URI sensorId = sensor.getId();
+		URI propertyId = property.getId();
+		URI featureId = feature.getId();
+
+		return new SensorObservation(_id(sensorId, propertyId, featureId,
+				dateTime, OBSERVATION), sensor, property, feature,
+				new SensorOutput(_id(sensorId, propertyId, featureId, dateTime,
+						RESULT), new QuantityValue(_id(sensorId, propertyId,
+						featureId, dateTime, VALUE), value, new Unit(
+						QUDTUnit.MilliMolePerCubicMeter))), new Instant(_id(
+						sensorId, propertyId, featureId, dateTime, RESULT_TIME),
+						dateTime));
 	}
 
 	public static void main(String[] args) {
@@ -188,6 +204,8 @@ public class GHGSensorObservationReader extends
 		URI methaneAnalyzerId = null;
 		File knowledgeStoreFile = null;
 		String dataStoreHost = "localhost";
+		File sstableDirectory = null;
+		boolean derivedIds = false;
 
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-f"))
@@ -202,6 +220,10 @@ public class GHGSensorObservationReader extends
 				knowledgeStoreFile = new File(args[++i]);
 			if (args[i].equals("-ds"))
 				dataStoreHost = args[++i];
+			if (args[i].equals("-sst"))
+				sstableDirectory = new File(args[++i]);
+			if (args[i].equals("-di"))
+				derivedIds = true;
 		}
 
 		if (file == null || ns == null
@@ -226,7 +248,7 @@ public class GHGSensorObservationReader extends
 		ks.addSensor(carbonDioxideAndWaterAnalyzer);
 		ks.addSensor(methaneAnalyzer);
 
-		CassandraDataStore ds = new CassandraDataStore(dataStoreHost);
+		DataStore ds = createDataStore(dataStoreHost, sstableDirectory);
 
 		Emrooz e = new Emrooz(ks, ds);
 
@@ -236,19 +258,33 @@ public class GHGSensorObservationReader extends
 
 		GHGSensorObservationReader reader = new GHGSensorObservationReader(
 				file, ns, carbonDioxideAndWaterAnalyzer, methaneAnalyzer);
+		reader.setDerivedIds(derivedIds);
 
 		long numOfObservations = 0;
 
+		Set<SensorObservation> observations = new HashSet<SensorObservation>();
+
 		while (reader.hasNext()) {
-			e.add(reader.next());
+			observations.add(reader.next());
 			numOfObservations++;
+
+			if (observations.size() == INGEST_CHUNK_SIZE) {
+				e.add(observations);
+				observations.clear();
+			}
 		}
 
-		long end = System.currentTimeMillis();
+		e.add(observations);
 
+		// Closing waits for pending asynchronous writes or flushes the
+		// remaining SSTable buffer
 		e.close();
 
-		summary(start, end, numOfObservations, dataStoreHost);
+		long end = System.currentTimeMillis();
+
+		summary(start, end, numOfObservations,
+				sstableDirectory == null ? dataStoreHost : sstableDirectory
+						.getPath());
 	}
 
 	private static void help() {
@@ -268,6 +304,10 @@ public class GHGSensorObservationReader extends
 				+ LINE_SEPARATOR);
 		sb.append("  -ds [host name]       Data store host name (default: localhost)"
 				+ LINE_SEPARATOR);
+		sb.append("  -sst [directory name] Write SSTables to directory for sstableloader instead of the data store"
+				+ LINE_SEPARATOR);
+		sb.append("  -di                   Derive observation identifiers instead of random UUIDs"
+				+ LINE_SEPARATOR);
 
 		System.out.println(sb);
 
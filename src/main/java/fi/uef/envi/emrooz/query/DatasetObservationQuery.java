@@ -43,10 +43,8 @@ public class DatasetObservationQuery extends ObservationQuery {
 	private URI datasetId;
 	private DateTime timeFrom;
 	private DateTime timeTo;
-
-	private static SPARQLParser sparqlParser = new SPARQLParser();
-	private static StatementPatternCollector collector = new StatementPatternCollector();
-	private static SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
+	private long limit = -1;
+	private long offset = 0;
 
 	private DatasetObservationQuery() {
 
@@ -64,6 +62,22 @@ public class DatasetObservationQuery extends ObservationQuery {
 		return timeTo;
 	}
 
+	/**
+	 * @return the LIMIT of a query ordered by time whose solutions each match
+	 *         a single observation, or -1
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public boolean hasLimit() {
+		return limit > -1;
+	}
+
 	public boolean isFullySpecified() {
 		if (datasetId == null)
 			return false;
@@ -83,6 +97,14 @@ public class DatasetObservationQuery extends ObservationQuery {
 		this.timeTo = time;
 	}
 
+	private void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	private void setOffset(long offset) {
+		this.offset = offset;
+	}
+
 	public static DatasetObservationQuery create(URI datasetId,
 			DateTime timeFrom, DateTime timeTo) {
 		DatasetObservationQuery ret = new DatasetObservationQuery();
@@ -96,7 +118,7 @@ public class DatasetObservationQuery extends ObservationQuery {
 
 	public static DatasetObservationQuery create(String query) {
 		try {
-			return create(sparqlParser.parseQuery(query, null));
+			return create(new SPARQLParser().parseQuery(query, null));
 		} catch (MalformedQueryException e) {
 			throw new RuntimeException(e);
 		}
@@ -110,12 +132,11 @@ public class DatasetObservationQuery extends ObservationQuery {
 
 		TupleExpr expr = query.getTupleExpr();
 
-		expr.visit(collector);
-
 		URI datasetId = null;
 		Var inXSDDateTimeVar = null;
 
-		List<StatementPattern> patterns = collector.getStatementPatterns();
+		List<StatementPattern> patterns = StatementPatternCollector
+				.process(expr);
 
 		for (StatementPattern pattern : patterns) {
 			Value predicate = pattern.getPredicateVar().getValue();
@@ -148,6 +169,8 @@ public class DatasetObservationQuery extends ObservationQuery {
 					"Cannot create query, failed to determine XSD date time variable [inXSDDateTimeVar = null; queryString = "
 							+ query + "]");
 
+		SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
+
 		visitor.setInXSDDateTimeVar(inXSDDateTimeVar);
 
 		try {
@@ -172,6 +195,14 @@ public class DatasetObservationQuery extends ObservationQuery {
 		ret.setTimeFrom(timeFrom);
 		ret.setTimeTo(timeTo);
 
+		// Solutions are returned in time order an observation at a time,
+		// hence reads can stop once the slice is complete
+		if (TimeOrderedQueryAnalyzer.isOrderedByTime(query)
+				&& TimeOrderedQueryAnalyzer.isObservationLocal(query)) {
+			ret.setLimit(visitor.getLimit());
+			ret.setOffset(visitor.getOffset());
+		}
+
 		return ret;
 	}
 
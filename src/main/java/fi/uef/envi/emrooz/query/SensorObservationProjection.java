@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.Compare.CompareOp;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.Order;
+import org.openrdf.query.algebra.OrderElem;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.ProjectionElem;
+import org.openrdf.query.algebra.ProjectionElemList;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.ParsedTupleQuery;
+
+import fi.uef.envi.emrooz.vocabulary.DUL;
+import fi.uef.envi.emrooz.vocabulary.QUDTSchema;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+import fi.uef.envi.emrooz.vocabulary.Time;
+
+/**
+ * <p>
+ * Title: SensorObservationProjection
+ * </p>
+ * <p>
+ * Description: Recognizes queries that select the result time and value, and
+ * possibly unit, sensor, property and feature, of the observations of a time
+ * range, such as those of the examples and the REST connection. The solutions
+ * of such queries are bindings of the values of an observation, hence they
+ * are created from the records decoded from column values without statements
+ * and query evaluation.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SensorObservationProjection {
+
+	private String sensorVar;
+	private String propertyVar;
+	private String featureVar;
+	private String timeVar;
+	private String valueVar;
+	private String unitVar;
+	// Constant objects of the patterns, which records are compared with
+	private URI sensorId;
+	private URI propertyId;
+	private URI featureId;
+	private URI unitId;
+	// Either dul:hasRegionDataValue or qudt:numericValue, which only quantity
+	// values have
+	private URI valuePredicate;
+	private List<String> bindingNames;
+	private long limit = -1;
+	private long offset = 0;
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final DateTimeFormatter dtf = ISODateTimeFormat.dateTime()
+			.withOffsetParsed();
+	// Nodes of a query that selects from the observations of a time range,
+	// possibly ordered and sliced
+	private static final Set<Class<? extends QueryModelNode>> nodes = new HashSet<Class<? extends QueryModelNode>>(
+			Arrays.<Class<? extends QueryModelNode>> asList(QueryRoot.class,
+					Slice.class, Projection.class, ProjectionElemList.class,
+					ProjectionElem.class, Order.class, OrderElem.class,
+					Filter.class, And.class, Compare.class, Join.class,
+					StatementPattern.class, Var.class, ValueConstant.class));
+
+	private SensorObservationProjection() {
+	}
+
+	/**
+	 * @return the projection of the query, or null if the solutions of the
+	 *         query are not bindings of the values of single observations
+	 */
+	public static SensorObservationProjection create(ParsedQuery query) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+
+		if (!(query instanceof ParsedTupleQuery) || query.getDataset() != null)
+			return null;
+
+		ShapeVisitor visitor = new ShapeVisitor();
+
+		query.getTupleExpr().visit(visitor);
+
+		if (visitor.unsupported || visitor.projection == null
+				|| visitor.orders.size() > 1)
+			return null;
+
+		SensorObservationProjection ret = new SensorObservationProjection();
+
+		if (!ret.setPatterns(StatementPatternCollector.process(query
+				.getTupleExpr())))
+			return null;
+
+		if (!ret.isTimeRange(visitor.compares) || !ret.isOrder(visitor.orders))
+			return null;
+
+		Set<String> names = new HashSet<String>(Arrays.asList(ret.sensorVar,
+				ret.propertyVar, ret.featureVar, ret.timeVar, ret.valueVar,
+				ret.unitVar));
+
+		ret.bindingNames = new ArrayList<String>();
+
+		for (ProjectionElem elem : visitor.projection.getProjectionElemList()
+				.getElements()) {
+			String name = elem.getSourceName();
+
+			// Observation, result, value and instant are not selected, which
+			// would need their identifiers
+			if (!name.equals(elem.getTargetName()) || !names.contains(name))
+				return null;
+
+			ret.bindingNames.add(name);
+		}
+
+		if (visitor.slice != null) {
+			ret.limit = visitor.slice.hasLimit() ? visitor.slice.getLimit() : -1;
+			ret.offset = visitor.slice.hasOffset() ? visitor.slice.getOffset()
+					: 0;
+		}
+
+		return ret;
+	}
+
+	public List<String> getBindingNames() {
+		return bindingNames;
+	}
+
+	/**
+	 * @return the LIMIT of the query, or -1 if there is none
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the OFFSET of the query, or 0 if there is none
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public boolean hasLimit() {
+		return limit > -1;
+	}
+
+	/**
+	 * @return the solution of the observation, or null if the observation does
+	 *         not match the query, e.g. it has no unit
+	 */
+	public BindingSet createBindingSet(SensorObservationRecord record) {
+		if (record == null)
+			throw new NullPointerException("[record = null]");
+		if (record.hasStatements())
+			throw new IllegalArgumentException(
+					"Expected record without statements [record = " + record
+							+ "]");
+
+		if (valuePredicate.equals(QUDTSchema.numericValue)
+				&& !record.isQuantityValue())
+			return null;
+
+		if (unitVar != null && record.getUnitId() == null)
+			return null;
+
+		if (!isMatch(sensorId, record.getSensorId())
+				|| !isMatch(propertyId, record.getPropertyId())
+				|| !isMatch(featureId, record.getFeatureOfInterestId())
+				|| !isMatch(unitId, record.getUnitId()))
+			return null;
+
+		MapBindingSet ret = new MapBindingSet(bindingNames.size());
+
+		// Values as in RDFEntityRepresenter
+		for (String name : bindingNames) {
+			Value value;
+
+			if (name.equals(timeVar))
+				value = vf.createLiteral(dtf.print(record.getTime()),
+						XMLSchema.DATETIME);
+			else if (name.equals(valueVar))
+				value = vf.createLiteral(record.getValue());
+			else if (name.equals(unitVar))
+				value = record.getUnitId();
+			else if (name.equals(sensorVar))
+				value = record.getSensorId();
+			else if (name.equals(propertyVar))
+				value = record.getPropertyId();
+			else
+				value = record.getFeatureOfInterestId();
+
+			ret.addBinding(name, value);
+		}
+
+		return ret;
+	}
+
+	private boolean setPatterns(List<StatementPattern> patterns) {
+		Map<String, Map<URI, Var>> subjects = new HashMap<String, Map<URI, Var>>();
+		Set<String> objects = new HashSet<String>();
+
+		for (StatementPattern pattern : patterns) {
+			Var subject = pattern.getSubjectVar();
+			Var predicate = pattern.getPredicateVar();
+			Var object = pattern.getObjectVar();
+
+			if (subject.hasValue() || !(predicate.getValue() instanceof URI)
+					|| pattern.getContextVar() != null)
+				return false;
+
+			Map<URI, Var> properties = subjects.get(subject.getName());
+
+			if (properties == null) {
+				properties = new HashMap<URI, Var>();
+				subjects.put(subject.getName(), properties);
+			}
+
+			// Each property is expected once for a node
+			if (properties.put((URI) predicate.getValue(), object) != null)
+				return false;
+
+			// The same variable in two places would join nodes or values
+			if (!object.hasValue() && !objects.add(object.getName()))
+				return false;
+		}
+
+		Set<String> roots = new HashSet<String>(subjects.keySet());
+		roots.removeAll(objects);
+
+		if (roots.size() != 1)
+			return false;
+
+		String observation = roots.iterator().next();
+		Map<URI, Var> properties = subjects.remove(observation);
+
+		Var type = properties.remove(RDF.TYPE);
+
+		if (type != null && !SSN.Observation.equals(type.getValue()))
+			return false;
+
+		Var sensor = properties.remove(SSN.observedBy);
+		Var property = properties.remove(SSN.observedProperty);
+		Var feature = properties.remove(SSN.featureOfInterest);
+
+		if (!isVarOrURI(sensor) || !isVarOrURI(property)
+				|| !isVarOrURI(feature))
+			return false;
+
+		sensorVar = getVarName(sensor);
+		sensorId = getURI(sensor);
+		propertyVar = getVarName(property);
+		propertyId = getURI(property);
+		featureVar = getVarName(feature);
+		featureId = getURI(feature);
+
+		Map<URI, Var> resultTime = getProperties(subjects,
+				properties.remove(SSN.observationResultTime));
+		Map<URI, Var> result = getProperties(subjects,
+				properties.remove(SSN.observationResult));
+
+		if (!properties.isEmpty() || resultTime == null || result == null)
+			return false;
+
+		timeVar = getVarName(resultTime.remove(Time.inXSDDateTime));
+
+		Map<URI, Var> value = getProperties(subjects,
+				result.remove(SSN.hasValue));
+
+		if (timeVar == null || !resultTime.isEmpty() || value == null
+				|| !result.isEmpty())
+			return false;
+
+		Var unit = value.remove(QUDTSchema.unit);
+
+		if (!isVarOrURI(unit) || value.size() != 1)
+			return false;
+
+		unitVar = getVarName(unit);
+		unitId = getURI(unit);
+
+		valuePredicate = value.keySet().iterator().next();
+		valueVar = getVarName(value.get(valuePredicate));
+
+		// A constant value would have to be compared as a literal, hence such
+		// queries are evaluated on statements
+		if (valueVar == null
+				|| (!valuePredicate.equals(DUL.hasRegionDataValue) && !valuePredicate
+						.equals(QUDTSchema.numericValue)))
+			return false;
+
+		// The patterns of other nodes, if any, are not reached from the
+		// observation
+		return subjects.isEmpty();
+	}
+
+	private boolean isTimeRange(List<Compare> compares) {
+		int from = 0;
+		int to = 0;
+
+		for (Compare compare : compares) {
+			ValueExpr left = compare.getLeftArg();
+			ValueExpr right = compare.getRightArg();
+
+			if (!(left instanceof Var)
+					|| !((Var) left).getName().equals(timeVar)
+					|| !(right instanceof ValueConstant))
+				return false;
+
+			Value value = ((ValueConstant) right).getValue();
+
+			if (!(value instanceof Literal)
+					|| !XMLSchema.DATETIME.equals(((Literal) value)
+							.getDatatype()))
+				return false;
+
+			// The range of SensorObservationQuery, which the data store
+			// applies to the observations
+			if (compare.getOperator().equals(CompareOp.GE))
+				from++;
+			else if (compare.getOperator().equals(CompareOp.LT))
+				to++;
+			else
+				return false;
+		}
+
+		return from == 1 && to == 1;
+	}
+
+	private boolean isOrder(List<Order> orders) {
+		// Records are returned in time order
+		if (orders.isEmpty())
+			return true;
+
+		List<OrderElem> elements = orders.get(0).getElements();
+
+		if (elements.size() != 1)
+			return false;
+
+		OrderElem element = elements.get(0);
+		ValueExpr expr = element.getExpr();
+
+		return element.isAscending() && expr instanceof Var
+				&& ((Var) expr).getName().equals(timeVar);
+	}
+
+	private static Map<URI, Var> getProperties(
+			Map<String, Map<URI, Var>> subjects, Var var) {
+		if (var == null || var.hasValue())
+			return null;
+
+		return subjects.remove(var.getName());
+	}
+
+	private static boolean isMatch(URI constant, URI id) {
+		return constant == null || constant.equals(id);
+	}
+
+	private static boolean isVarOrURI(Var var) {
+		return var == null || !var.hasValue() || var.getValue() instanceof URI;
+	}
+
+	private static URI getURI(Var var) {
+		if (var == null || !var.hasValue())
+			return null;
+
+		return (URI) var.getValue();
+	}
+
+	private static String getVarName(Var var) {
+		if (var == null || var.hasValue())
+			return null;
+
+		return var.getName();
+	}
+
+	private static class ShapeVisitor extends
+			QueryModelVisitorBase<RuntimeException> {
+
+		private Slice slice;
+		private Projection projection;
+		private List<Order> orders = new ArrayList<Order>();
+		private List<Compare> compares = new ArrayList<Compare>();
+		private boolean unsupported = false;
+
+		@Override
+		protected void meetNode(QueryModelNode node) {
+			if (!nodes.contains(node.getClass()))
+				unsupported = true;
+
+			super.meetNode(node);
+		}
+
+		@Override
+		public void meet(Slice node) {
+			QueryModelNode parent = node.getParentNode();
+
+			// Only a slice of all solutions is applied as they are returned
+			if (slice != null || (parent != null && !(parent instanceof QueryRoot)))
+				unsupported = true;
+
+			slice = node;
+
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Projection node) {
+			if (projection != null)
+				unsupported = true;
+
+			projection = node;
+
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Order node) {
+			orders.add(node);
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Compare node) {
+			compares.add(node);
+			super.meet(node);
+		}
+
+	}
+
+}
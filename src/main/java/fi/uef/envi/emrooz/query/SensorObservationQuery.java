@@ -45,10 +45,8 @@ public class SensorObservationQuery extends ObservationQuery {
 	private URI featureId;
 	private DateTime timeFrom;
 	private DateTime timeTo;
-
-	private static SPARQLParser sparqlParser = new SPARQLParser();
-	private static StatementPatternCollector collector = new StatementPatternCollector();
-	private static SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
+	private long limit = -1;
+	private long offset = 0;
 
 	private SensorObservationQuery() {
 
@@ -74,6 +72,22 @@ public class SensorObservationQuery extends ObservationQuery {
 		return timeTo;
 	}
 
+	/**
+	 * @return the LIMIT of a query ordered by time whose solutions each match
+	 *         a single observation, or -1
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public boolean hasLimit() {
+		return limit > -1;
+	}
+
 	public boolean isFullySpecified() {
 		if (sensorId == null)
 			return false;
@@ -105,6 +119,14 @@ public class SensorObservationQuery extends ObservationQuery {
 		this.timeTo = time;
 	}
 
+	private void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	private void setOffset(long offset) {
+		this.offset = offset;
+	}
+
 	public static SensorObservationQuery create(URI sensorId, URI propertyId,
 			URI featureId, DateTime timeFrom, DateTime timeTo) {
 		SensorObservationQuery ret = new SensorObservationQuery();
@@ -118,9 +140,21 @@ public class SensorObservationQuery extends ObservationQuery {
 		return ret;
 	}
 
+	public static SensorObservationQuery create(URI sensorId, URI propertyId,
+			URI featureId, DateTime timeFrom, DateTime timeTo, long limit,
+			long offset) {
+		SensorObservationQuery ret = create(sensorId, propertyId, featureId,
+				timeFrom, timeTo);
+
+		ret.setLimit(limit);
+		ret.setOffset(offset);
+
+		return ret;
+	}
+
 	public static SensorObservationQuery create(String query) {
 		try {
-			return create(sparqlParser.parseQuery(query, null));
+			return create(new SPARQLParser().parseQuery(query, null));
 		} catch (MalformedQueryException e) {
 			throw new RuntimeException(e);
 		}
@@ -134,14 +168,15 @@ public class SensorObservationQuery extends ObservationQuery {
 
 		TupleExpr expr = query.getTupleExpr();
 
-		expr.visit(collector);
-
 		URI sensorId = null;
 		URI propertyId = null;
 		URI featureId = null;
 		Var inXSDDateTimeVar = null;
 
-		List<StatementPattern> patterns = collector.getStatementPatterns();
+		// Collectors and visitors hold state, hence each query has its own
+		// and queries can be created concurrently
+		List<StatementPattern> patterns = StatementPatternCollector
+				.process(expr);
 
 		for (StatementPattern pattern : patterns) {
 			Value predicate = pattern.getPredicateVar().getValue();
@@ -190,6 +225,8 @@ public class SensorObservationQuery extends ObservationQuery {
 					"Cannot create query, failed to determine XSD date time variable [inXSDDateTimeVar = null; queryString = "
 							+ query + "]");
 
+		SparqlQueryModelVisitor visitor = new SparqlQueryModelVisitor();
+
 		visitor.setInXSDDateTimeVar(inXSDDateTimeVar);
 
 		try {
@@ -216,6 +253,14 @@ public class SensorObservationQuery extends ObservationQuery {
 		ret.setTimeFrom(timeFrom);
 		ret.setTimeTo(timeTo);
 
+		// Solutions are returned in time order an observation at a time,
+		// hence reads can stop once the slice is complete
+		if (TimeOrderedQueryAnalyzer.isOrderedByTime(query)
+				&& TimeOrderedQueryAnalyzer.isObservationLocal(query)) {
+			ret.setLimit(visitor.getLimit());
+			ret.setOffset(visitor.getOffset());
+		}
+
 		return ret;
 	}
 
@@ -5,13 +5,21 @@
 
 package fi.uef.envi.emrooz.query;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.joda.time.DateTime;
 import org.openrdf.model.URI;
 
+import fi.uef.envi.emrooz.EmroozOptions;
 import fi.uef.envi.emrooz.api.KnowledgeStore;
 import fi.uef.envi.emrooz.api.QueryRewriter;
 import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
@@ -23,7 +31,13 @@ import fi.uef.envi.emrooz.entity.ssn.Sensor;
  * Title: SensorObservationQueryRewriter
  * </p>
  * <p>
- * Description:
+ * Description: Rewrites a query into the queries of the registered sensor,
+ * property and feature combinations it matches. Combinations are indexed by
+ * sensor, property and feature, hence a query only visits the combinations of
+ * its most selective specified identifier. The index is replaced with update()
+ * as registrations change. A query that matches no combination reloads it from
+ * the knowledge store at most once per reload interval, hence queries of
+ * unknown identifiers do not each load all sensors.
  * </p>
  * <p>
  * Project: Emrooz
@@ -39,20 +53,77 @@ public class SensorObservationQueryRewriter implements
 		QueryRewriter<SensorObservationQuery> {
 
 	private KnowledgeStore ks;
+	private volatile Index index;
+	// Time the index was last loaded, in milliseconds
+	private final AtomicLong updated = new AtomicLong();
+	private volatile long reloadInterval = EmroozOptions.QUERY_REWRITER_RELOAD_INTERVAL;
 
 	public SensorObservationQueryRewriter(KnowledgeStore ks) {
 		if (ks == null)
 			throw new NullPointerException("[ks = null]");
 
 		this.ks = ks;
+
+		update(ks.getSensors());
+	}
+
+	public void update(Collection<Sensor> sensors) {
+		if (sensors == null)
+			throw new NullPointerException("[sensors = null]");
+
+		this.index = new Index(sensors);
+		this.updated.set(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param reloadInterval
+	 *            the minimum time in milliseconds between reloads of the
+	 *            sensors of queries that match no combination, 0 to reload for
+	 *            each such query
+	 */
+	public void setReloadInterval(long reloadInterval) {
+		if (reloadInterval < 0)
+			throw new IllegalArgumentException(
+					"Reload interval cannot be negative [reloadInterval = "
+							+ reloadInterval + "]");
+
+		this.reloadInterval = reloadInterval;
+	}
+
+	public long getReloadInterval() {
+		return reloadInterval;
 	}
 
 	@Override
 	public Set<SensorObservationQuery> rewrite(SensorObservationQuery query) {
 		if (query.isFullySpecified()) {
-			Collections.singleton(query);
+			return Collections.singleton(query);
 		}
 
+		Set<SensorObservationQuery> ret = rewrite(index, query);
+
+		if (ret.isEmpty() && isReload()) {
+			// Load sensors and check again, perhaps there are new sensors
+			update(ks.getSensors());
+			ret = rewrite(index, query);
+		}
+
+		return ret;
+	}
+
+	private boolean isReload() {
+		long last = updated.get();
+		long now = System.currentTimeMillis();
+
+		if (reloadInterval > 0 && now - last < reloadInterval)
+			return false;
+
+		// Of concurrent queries that match nothing only one reloads
+		return reloadInterval == 0 || updated.compareAndSet(last, now);
+	}
+
+	private static Set<SensorObservationQuery> rewrite(Index index,
+			SensorObservationQuery query) {
 		Set<SensorObservationQuery> ret = new HashSet<SensorObservationQuery>();
 
 		URI sensorId = query.getSensorId();
@@ -61,42 +132,148 @@ public class SensorObservationQueryRewriter implements
 		DateTime timeFrom = query.getTimeFrom();
 		DateTime timeTo = query.getTimeTo();
 
-		Set<Sensor> sensors = ks.getSensors();
+		for (Series series : index.getCandidates(sensorId, propertyId,
+				featureId)) {
+			if (!series.matches(sensorId, propertyId, featureId))
+				continue;
 
-		for (Sensor sensor : sensors) {
-			Set<Property> properties = sensor.getObservedProperties();
-
-			for (Property property : properties) {
-				Set<FeatureOfInterest> features = property.getPropertiesOf();
+			ret.add(SensorObservationQuery.create(series.sensorId,
+					series.propertyId, series.featureId, timeFrom, timeTo,
+					query.getLimit(), query.getOffset()));
+		}
 
-				for (FeatureOfInterest feature : features) {
-					URI thisSensorId = sensor.getId();
-					URI thisPropertyId = property.getId();
-					URI thisFeatureId = feature.getId();
+		return Collections.unmodifiableSet(ret);
+	}
 
-					URI thatSensorId = sensorId;
-					URI thatPropertyId = propertyId;
-					URI thatFeatureId = featureId;
+	private static class Index {
 
-					if (thatSensorId == null)
-						thatSensorId = thisSensorId;
-					if (thatPropertyId == null)
-						thatPropertyId = thisPropertyId;
-					if (thatFeatureId == null)
-						thatFeatureId = thisFeatureId;
+		private Collection<Series> series;
+		private Map<URI, List<Series>> bySensor;
+		private Map<URI, List<Series>> byProperty;
+		private Map<URI, List<Series>> byFeature;
 
-					if (!(thatSensorId.equals(thisSensorId)
-							&& thatPropertyId.equals(thisPropertyId) && thatFeatureId
-								.equals(thisFeatureId)))
-						continue;
+		private Index(Collection<Sensor> sensors) {
+			Set<Series> series = new LinkedHashSet<Series>();
 
-					ret.add(SensorObservationQuery.create(thisSensorId,
-							thisPropertyId, thisFeatureId, timeFrom, timeTo));
+			for (Sensor sensor : sensors) {
+				for (Property property : sensor.getObservedProperties()) {
+					for (FeatureOfInterest feature : property.getPropertiesOf()) {
+						series.add(new Series(sensor.getId(), property.getId(),
+								feature.getId()));
+					}
 				}
 			}
+
+			this.series = series;
+			this.bySensor = new HashMap<URI, List<Series>>();
+			this.byProperty = new HashMap<URI, List<Series>>();
+			this.byFeature = new HashMap<URI, List<Series>>();
+
+			for (Series s : series) {
+				index(bySensor, s.sensorId, s);
+				index(byProperty, s.propertyId, s);
+				index(byFeature, s.featureId, s);
+			}
+		}
+
+		private Collection<Series> getCandidates(URI sensorId, URI propertyId,
+				URI featureId) {
+			Collection<Series> ret = series;
+
+			// The fewest combinations of the specified identifiers, the others
+			// are matched on these
+			if (sensorId != null)
+				ret = smallest(ret, get(bySensor, sensorId));
+			if (propertyId != null)
+				ret = smallest(ret, get(byProperty, propertyId));
+			if (featureId != null)
+				ret = smallest(ret, get(byFeature, featureId));
+
+			return ret;
+		}
+
+		private static Collection<Series> smallest(Collection<Series> a,
+				Collection<Series> b) {
+			if (b.size() < a.size())
+				return b;
+
+			return a;
+		}
+
+		private static List<Series> get(Map<URI, List<Series>> index, URI id) {
+			List<Series> ret = index.get(id);
+
+			if (ret == null)
+				return Collections.emptyList();
+
+			return ret;
+		}
+
+		private static void index(Map<URI, List<Series>> index, URI id,
+				Series series) {
+			List<Series> list = index.get(id);
+
+			if (list == null) {
+				list = new ArrayList<Series>();
+				index.put(id, list);
+			}
+
+			list.add(series);
+		}
+
+	}
+
+	private static class Series {
+
+		private final URI sensorId;
+		private final URI propertyId;
+		private final URI featureId;
+
+		private Series(URI sensorId, URI propertyId, URI featureId) {
+			this.sensorId = sensorId;
+			this.propertyId = propertyId;
+			this.featureId = featureId;
+		}
+
+		private boolean matches(URI sensorId, URI propertyId, URI featureId) {
+			if (sensorId != null && !sensorId.equals(this.sensorId))
+				return false;
+			if (propertyId != null && !propertyId.equals(this.propertyId))
+				return false;
+			if (featureId != null && !featureId.equals(this.featureId))
+				return false;
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + sensorId.hashCode();
+			result = prime * result + propertyId.hashCode();
+			result = prime * result + featureId.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Series other = (Series) obj;
+			if (!sensorId.equals(other.sensorId))
+				return false;
+			if (!propertyId.equals(other.propertyId))
+				return false;
+			if (!featureId.equals(other.featureId))
+				return false;
+			return true;
 		}
 
-		return Collections.unmodifiableSet(ret);
 	}
 
 }
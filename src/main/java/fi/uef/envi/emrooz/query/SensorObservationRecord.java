@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+/**
+ * <p>
+ * Title: SensorObservationRecord
+ * </p>
+ * <p>
+ * Description: A sensor observation as decoded from a column value, i.e.
+ * sensor, property, feature, result time, value and unit, without its
+ * statements. Observations that are stored as statements, e.g. in BinaryRDF,
+ * are returned with their statements instead.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SensorObservationRecord {
+
+	private URI sensorId;
+	private URI propertyId;
+	private URI featureId;
+	private DateTime time;
+	private double value;
+	private boolean quantityValue;
+	private URI unitId;
+	private Set<Statement> statements;
+
+	public SensorObservationRecord(URI sensorId, URI propertyId,
+			URI featureId, DateTime time, double value, boolean quantityValue,
+			URI unitId) {
+		this(sensorId, propertyId, featureId, time);
+
+		this.value = value;
+		this.quantityValue = quantityValue;
+		this.unitId = unitId;
+	}
+
+	public SensorObservationRecord(URI sensorId, URI propertyId,
+			URI featureId, DateTime time, Set<Statement> statements) {
+		this(sensorId, propertyId, featureId, time);
+
+		if (statements == null)
+			throw new NullPointerException("[statements = null]");
+
+		this.statements = statements;
+	}
+
+	private SensorObservationRecord(URI sensorId, URI propertyId,
+			URI featureId, DateTime time) {
+		if (sensorId == null)
+			throw new NullPointerException("[sensorId = null]");
+		if (propertyId == null)
+			throw new NullPointerException("[propertyId = null]");
+		if (featureId == null)
+			throw new NullPointerException("[featureId = null]");
+		if (time == null)
+			throw new NullPointerException("[time = null]");
+
+		this.sensorId = sensorId;
+		this.propertyId = propertyId;
+		this.featureId = featureId;
+		this.time = time;
+	}
+
+	public URI getSensorId() {
+		return sensorId;
+	}
+
+	public URI getPropertyId() {
+		return propertyId;
+	}
+
+	public URI getFeatureOfInterestId() {
+		return featureId;
+	}
+
+	public DateTime getTime() {
+		return time;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * @return true if the value is a qudt:QuantityValue, which also has
+	 *         qudt:numericValue and possibly qudt:unit
+	 */
+	public boolean isQuantityValue() {
+		return quantityValue;
+	}
+
+	public URI getUnitId() {
+		return unitId;
+	}
+
+	public boolean hasStatements() {
+		return statements != null;
+	}
+
+	/**
+	 * @return the statements of the observation, or null if it is decoded to
+	 *         its values only
+	 */
+	public Set<Statement> getStatements() {
+		return statements;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		long temp = Double.doubleToLongBits(value);
+		result = prime * result + sensorId.hashCode();
+		result = prime * result + propertyId.hashCode();
+		result = prime * result + featureId.hashCode();
+		result = prime * result + (int) (time.getMillis() ^ (time.getMillis() >>> 32));
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + (quantityValue ? 1231 : 1237);
+		result = prime * result + ((unitId == null) ? 0 : unitId.hashCode());
+		result = prime * result
+				+ ((statements == null) ? 0 : statements.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		SensorObservationRecord other = (SensorObservationRecord) obj;
+		if (!sensorId.equals(other.sensorId))
+			return false;
+		if (!propertyId.equals(other.propertyId))
+			return false;
+		if (!featureId.equals(other.featureId))
+			return false;
+		// The literal of the result time includes its offset
+		if (!time.equals(other.time))
+			return false;
+		if (Double.doubleToLongBits(value) != Double
+				.doubleToLongBits(other.value))
+			return false;
+		if (quantityValue != other.quantityValue)
+			return false;
+		if (unitId == null) {
+			if (other.unitId != null)
+				return false;
+		} else if (!unitId.equals(other.unitId))
+			return false;
+		if (statements == null) {
+			if (other.statements != null)
+				return false;
+		} else if (!statements.equals(other.statements))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "SensorObservationRecord [sensorId = " + sensorId
+				+ "; propertyId = " + propertyId + "; featureId = "
+				+ featureId + "; time = " + time + "; value = " + value
+				+ "; quantityValue = " + quantityValue + "; unitId = "
+				+ unitId + "; statements = " + statements + "]";
+	}
+
+}
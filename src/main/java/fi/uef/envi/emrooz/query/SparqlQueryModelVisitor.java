@@ -118,6 +118,8 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 	private Var inXSDDateTimeVar = null;
 	private DateTime timeFrom = null;
 	private DateTime timeTo = null;
+	private long limit = -1;
+	private long offset = 0;
 	
 	private DateTimeFormatter dtf = ISODateTimeFormat.dateTime().withOffsetParsed();
 
@@ -136,6 +138,27 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 		return timeTo;
 	}
 
+	/**
+	 * @return the LIMIT of the query, or -1 if there is none
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the OFFSET of the query, or 0 if there is none
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public void reset() {
+		timeFrom = null;
+		timeTo = null;
+		limit = -1;
+		offset = 0;
+	}
+
 	@Override
 	public void meet(QueryRoot arg0) throws Exception {
 	}
@@ -524,6 +547,15 @@ public class SparqlQueryModelVisitor implements QueryModelVisitor<Exception> {
 
 	@Override
 	public void meet(Slice arg0) throws Exception {
+		QueryModelNode parent = arg0.getParentNode();
+
+		// Only a slice of all solutions applies to the query, not one of a
+		// subquery
+		if (parent == null || parent instanceof QueryRoot) {
+			limit = arg0.hasLimit() ? arg0.getLimit() : -1;
+			offset = arg0.hasOffset() ? arg0.getOffset() : 0;
+		}
+
 		arg0.visitChildren(this);
 	}
 
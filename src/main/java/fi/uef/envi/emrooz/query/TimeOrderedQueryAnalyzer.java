@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.query.algebra.ArbitraryLengthPath;
+import org.openrdf.query.algebra.BindingSetAssignment;
+import org.openrdf.query.algebra.DescribeOperator;
+import org.openrdf.query.algebra.Difference;
+import org.openrdf.query.algebra.Distinct;
+import org.openrdf.query.algebra.Exists;
+import org.openrdf.query.algebra.Group;
+import org.openrdf.query.algebra.Intersection;
+import org.openrdf.query.algebra.MultiProjection;
+import org.openrdf.query.algebra.Order;
+import org.openrdf.query.algebra.OrderElem;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.Reduced;
+import org.openrdf.query.algebra.Service;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.ZeroLengthPath;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.query.parser.ParsedQuery;
+
+import fi.uef.envi.emrooz.vocabulary.Time;
+
+/**
+ * <p>
+ * Title: TimeOrderedQueryAnalyzer
+ * </p>
+ * <p>
+ * Description: Recognizes queries ordered by ascending result time, i.e. by
+ * the object of time:inXSDDateTime, whose solutions each match the statements
+ * of a single observation. Such queries can be evaluated over observations
+ * returned in time order a few at a time, without sorting all solutions.
+ * Unordered queries whose solutions each match the statements of a single
+ * observation, including its result time, can be evaluated likewise.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class TimeOrderedQueryAnalyzer {
+
+	public static boolean isOrderedByTime(ParsedQuery query) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+
+		Var inXSDDateTimeVar = getInXSDDateTimeVar(query.getTupleExpr());
+
+		if (inXSDDateTimeVar == null)
+			return false;
+
+		OrderVisitor visitor = new OrderVisitor();
+
+		query.getTupleExpr().visit(visitor);
+
+		if (visitor.orders.size() != 1)
+			return false;
+
+		List<OrderElem> elements = visitor.orders.get(0).getElements();
+
+		if (elements.size() != 1)
+			return false;
+
+		OrderElem element = elements.get(0);
+		ValueExpr expr = element.getExpr();
+
+		if (!element.isAscending() || !(expr instanceof Var))
+			return false;
+
+		return ((Var) expr).getName().equals(inXSDDateTimeVar.getName());
+	}
+
+	public static boolean isObservationLocal(ParsedQuery query) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+
+		TupleExpr expr = query.getTupleExpr();
+		OrderVisitor visitor = new OrderVisitor();
+
+		expr.visit(visitor);
+
+		// Operators that combine solutions, e.g. DISTINCT or GROUP BY, apply
+		// to all solutions rather than those of an observation
+		if (visitor.unsupported || visitor.projections > 1)
+			return false;
+
+		List<StatementPattern> patterns = StatementPatternCollector
+				.process(expr);
+
+		if (patterns.isEmpty())
+			return false;
+
+		Set<String> subjects = new HashSet<String>();
+		Set<String> objects = new HashSet<String>();
+
+		for (StatementPattern pattern : patterns) {
+			Var subject = pattern.getSubjectVar();
+			Var predicate = pattern.getPredicateVar();
+			Var object = pattern.getObjectVar();
+
+			if (subject.hasValue() || !predicate.hasValue())
+				return false;
+
+			subjects.add(subject.getName());
+
+			if (object.hasValue())
+				continue;
+
+			// A node reached from two statements may join two observations
+			if (!objects.add(object.getName()))
+				return false;
+		}
+
+		// The patterns form a tree, hence a solution is rooted at a single
+		// node and matches statements reachable from it
+		subjects.removeAll(objects);
+
+		return subjects.size() == 1;
+	}
+
+	public static boolean isObservationStreamable(ParsedQuery query) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+
+		TupleExpr expr = query.getTupleExpr();
+
+		// A solution binds the result time, hence the statements of its
+		// observation, rather than statements shared by observations, e.g.
+		// of the sensor, which are returned with each observation
+		if (getInXSDDateTimeVar(expr) == null)
+			return false;
+
+		OrderVisitor visitor = new OrderVisitor();
+
+		expr.visit(visitor);
+
+		// Solutions are returned in the order observations are
+		if (!visitor.orders.isEmpty())
+			return false;
+
+		return isObservationLocal(query);
+	}
+
+	private static Var getInXSDDateTimeVar(TupleExpr expr) {
+		Var ret = null;
+
+		for (StatementPattern pattern : StatementPatternCollector.process(expr)) {
+			Var predicate = pattern.getPredicateVar();
+
+			if (!predicate.hasValue()
+					|| !predicate.getValue().equals(Time.inXSDDateTime))
+				continue;
+
+			if (ret != null)
+				return null;
+
+			ret = pattern.getObjectVar();
+		}
+
+		return ret;
+	}
+
+	private static class OrderVisitor extends
+			QueryModelVisitorBase<RuntimeException> {
+
+		private List<Order> orders = new ArrayList<Order>();
+		private int projections = 0;
+		private boolean unsupported = false;
+
+		@Override
+		public void meet(Order node) {
+			orders.add(node);
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Projection node) {
+			projections++;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(MultiProjection node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Slice node) {
+			QueryModelNode parent = node.getParentNode();
+
+			// A slice of all solutions is applied as they are returned
+			if (parent != null && !(parent instanceof QueryRoot))
+				unsupported = true;
+
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Distinct node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Reduced node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Group node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Union node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Difference node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Intersection node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Exists node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(Service node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(ArbitraryLengthPath node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(ZeroLengthPath node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(BindingSetAssignment node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+		@Override
+		public void meet(DescribeOperator node) {
+			unsupported = true;
+			super.meet(node);
+		}
+
+	}
+
+}
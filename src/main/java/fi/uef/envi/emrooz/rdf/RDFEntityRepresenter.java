@@ -74,7 +74,8 @@ import fi.uef.envi.emrooz.vocabulary.Time;
  * Title: RDFEntityRepresenter
  * </p>
  * <p>
- * Description:
+ * Description: Instances hold the state of the entity being represented and
+ * are not thread-safe; threads each use their own.
  * </p>
  * <p>
  * Project: Emrooz
@@ -166,6 +167,35 @@ public class RDFEntityRepresenter {
 		return Collections.unmodifiableSet(ret);
 	}
 
+	public Set<DatasetObservation> createDatasetObservations(
+			Set<Statement> statements) {
+		if (statements == null)
+			return Collections.emptySet();
+		if (statements.isEmpty())
+			return Collections.emptySet();
+
+		Set<DatasetObservation> ret = new HashSet<DatasetObservation>();
+
+		Set<URI> ids = _getIds(statements, QB.Observation);
+
+		for (URI id : ids) {
+			Set<Statement> match = _matchSubject(statements, id);
+			Set<Statement> observation = new HashSet<Statement>(match);
+
+			// Component properties are predicates of the observation, hence
+			// their descriptions are not reached by matching objects
+			for (Statement statement : match) {
+				if (statement.getSubject().equals(id))
+					observation.addAll(_matchSubject(statements,
+							statement.getPredicate()));
+			}
+
+			ret.add(createDatasetObservation(observation));
+		}
+
+		return Collections.unmodifiableSet(ret);
+	}
+
 	public DatasetObservation createDatasetObservation(Set<Statement> statements) {
 		if (statements == null)
 			return null;
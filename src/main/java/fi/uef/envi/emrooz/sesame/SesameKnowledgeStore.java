@@ -7,11 +7,15 @@ package fi.uef.envi.emrooz.sesame;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +35,7 @@ import org.openrdf.query.parser.ParsedQuery;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFParseException;
 
@@ -79,10 +84,12 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 
 	private Repository repository;
 	private RepositoryConnection connection;
-	private Map<URI, Sensor> sensors;
-	private Map<URI, Dataset> datasets;
-	private Map<URI, Property> properties;
-	private Map<URI, FeatureOfInterest> features;
+	// Maps are replaced once loaded, hence readers do not see maps that
+	// are being loaded, also as entities are added
+	private volatile Map<URI, Sensor> sensors;
+	private volatile Map<URI, Dataset> datasets;
+	private volatile Map<URI, Property> properties;
+	private volatile Map<URI, FeatureOfInterest> features;
 	private ValueFactory vf;
 	private RDFEntityRepresenter representer;
 
@@ -114,46 +121,126 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 
 	@Override
 	public void addSensor(Sensor sensor) {
-		URI sensorId = sensor.getId();
+		addSensors(Collections.singleton(sensor));
+	}
 
-		try {
-			if (!connection.hasStatement(sensorId, RDF.TYPE, SSN.Sensor, false,
-					new Resource[] {})) {
-				load(representer.createRepresentation(sensor));
-				return;
+	@Override
+	public synchronized void addSensors(Collection<Sensor> sensors) {
+		Set<Statement> statements = new HashSet<Statement>();
+		List<Sensor> added = new ArrayList<Sensor>();
+		// Properties that are of a new feature, which changes the sensors
+		// that observe them
+		Set<URI> changed = new HashSet<URI>();
+
+		for (Sensor sensor : sensors) {
+			if (exists(sensor.getId(), SSN.Sensor)) {
+				if (log.isLoggable(Level.INFO))
+					log.info("Sensor already exists in knowledge store [sensor = "
+							+ sensor + "]");
+				continue;
 			}
-		} catch (RepositoryException e) {
-			if (log.isLoggable(Level.SEVERE))
-				log.severe("Failed to check if sensor exists in knowledge store [sensor = "
-						+ sensor + "]");
+
+			for (Property property : sensor.getObservedProperties()) {
+				URI propertyId = property.getId();
+
+				for (FeatureOfInterest feature : property.getPropertiesOf()) {
+					if (!exists(propertyId, SSN.isPropertyOf, feature.getId()))
+						changed.add(propertyId);
+				}
+			}
+
+			statements.addAll(representer.createRepresentation(sensor));
+			added.add(sensor);
+		}
+
+		if (added.isEmpty() || !add(statements))
+			return;
+
+		Map<URI, Property> properties = new ConcurrentHashMap<URI, Property>(
+				this.properties);
+		Map<URI, FeatureOfInterest> features = new ConcurrentHashMap<URI, FeatureOfInterest>(
+				this.features);
+		Map<URI, Sensor> loaded = new HashMap<URI, Sensor>();
+		Set<URI> sensorIds = new HashSet<URI>();
+
+		for (Sensor sensor : added) {
+			sensorIds.add(sensor.getId());
+
+			for (Property property : sensor.getObservedProperties()) {
+				loadProperties(property.getId(), properties);
+
+				for (FeatureOfInterest feature : property.getPropertiesOf()) {
+					loadFeatures(feature.getId(), features);
+				}
+			}
+		}
+
+		for (URI propertyId : changed) {
+			sensorIds.addAll(getSubjects(SSN.observes, propertyId));
+		}
+
+		for (URI sensorId : sensorIds) {
+			loadSensors(sensorId, loaded);
 		}
 
-		if (log.isLoggable(Level.INFO)) {
-			log.info("Sensor already exists in knowledge store [sensor = "
-					+ sensor + "]");
+		Map<URI, Sensor> map = new ConcurrentHashMap<URI, Sensor>(this.sensors);
+
+		for (URI sensorId : sensorIds) {
+			Sensor sensor = loaded.get(sensorId);
+
+			if (sensor == null)
+				map.remove(sensorId);
+			else
+				map.put(sensorId, sensor);
 		}
+
+		this.properties = properties;
+		this.features = features;
+		this.sensors = map;
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Added sensors (" + added.size() + ") and reloaded ("
+					+ (sensorIds.size() - added.size()) + ") [sensors = "
+					+ map.size() + "]");
 	}
 
 	@Override
 	public void addDataset(Dataset dataset) {
-		URI datasetId = dataset.getId();
+		addDatasets(Collections.singleton(dataset));
+	}
 
-		try {
-			if (!connection.hasStatement(datasetId, RDF.TYPE, QB.DataSet,
-					false, new Resource[] {})) {
-				load(representer.createRepresentation(dataset));
-				return;
+	@Override
+	public synchronized void addDatasets(Collection<Dataset> datasets) {
+		Set<Statement> statements = new HashSet<Statement>();
+		List<Dataset> added = new ArrayList<Dataset>();
+
+		for (Dataset dataset : datasets) {
+			if (exists(dataset.getId(), QB.DataSet)) {
+				if (log.isLoggable(Level.INFO))
+					log.info("Dataset already exists in knowledge store [dataset = "
+							+ dataset + "]");
+				continue;
 			}
-		} catch (RepositoryException e) {
-			if (log.isLoggable(Level.SEVERE))
-				log.severe("Failed to check if dataset exists in knowledge store [dataset = "
-						+ dataset + "]");
+
+			statements.addAll(representer.createRepresentation(dataset));
+			added.add(dataset);
 		}
 
-		if (log.isLoggable(Level.INFO)) {
-			log.info("Dataset already exists in knowledge store [dataset = "
-					+ dataset + "]");
+		if (added.isEmpty() || !add(statements))
+			return;
+
+		Map<URI, Dataset> map = new ConcurrentHashMap<URI, Dataset>(
+				this.datasets);
+
+		for (Dataset dataset : added) {
+			loadDatasets(dataset.getId(), map);
 		}
+
+		this.datasets = map;
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Added datasets (" + added.size() + ") [datasets = "
+					+ map.size() + "]");
 	}
 
 	@Override
@@ -187,7 +274,7 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 	}
 
 	@Override
-	public void close() {
+	public synchronized void close() {
 		try {
 			connection.close();
 		} catch (RepositoryException e) {
@@ -201,7 +288,7 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		load(file, null);
 	}
 
-	public void load(Set<Statement> statements) {
+	public synchronized void load(Set<Statement> statements) {
 		if (statements == null)
 			return;
 
@@ -224,7 +311,7 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		load(file, baseURI, RDFFormat.RDFXML);
 	}
 
-	public void load(File file, String baseURI, RDFFormat format) {
+	public synchronized void load(File file, String baseURI, RDFFormat format) {
 		try {
 			connection.add(file, baseURI, format);
 		} catch (RDFParseException | RepositoryException | IOException e) {
@@ -239,8 +326,18 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 	}
 
 	private void loadProperties() {
-		properties = new HashMap<URI, Property>();
+		Map<URI, Property> properties = new ConcurrentHashMap<URI, Property>();
 
+		loadProperties(null, properties);
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Loaded properties (" + properties.size() + ") {"
+					+ properties + "}");
+
+		this.properties = properties;
+	}
+
+	private void loadProperties(URI id, Map<URI, Property> properties) {
 		String sparql = "prefix ssn: <" + SSN.ns + "#>" + "prefix rdf: <"
 				+ RDF.NAMESPACE + ">" + "select ?id " + "where {"
 				+ "?id rdf:type ssn:Property ." + "}";
@@ -248,15 +345,19 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		try {
 			TupleQuery query = connection.prepareTupleQuery(
 					QueryLanguage.SPARQL, sparql);
+
+			if (id != null)
+				query.setBinding("id", id);
+
 			TupleQueryResult rs = query.evaluate();
 
 			while (rs.hasNext()) {
 				BindingSet bs = rs.next();
 
-				URI id = _uri(bs.getValue("id"));
-				Property property = new Property(id);
+				URI propertyId = _uri(bs.getValue("id"));
+				Property property = new Property(propertyId);
 
-				properties.put(id, property);
+				properties.put(propertyId, property);
 			}
 
 		} catch (RepositoryException | MalformedQueryException
@@ -264,15 +365,21 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe(e.getMessage());
 		}
-
-		if (log.isLoggable(Level.INFO))
-			log.info("Loaded properties (" + properties.size() + ") {"
-					+ properties + "}");
 	}
 
 	private void loadFeatures() {
-		features = new HashMap<URI, FeatureOfInterest>();
+		Map<URI, FeatureOfInterest> features = new ConcurrentHashMap<URI, FeatureOfInterest>();
+
+		loadFeatures(null, features);
 
+		if (log.isLoggable(Level.INFO))
+			log.info("Loaded features of interest (" + features.size() + ") {"
+					+ features + "}");
+
+		this.features = features;
+	}
+
+	private void loadFeatures(URI id, Map<URI, FeatureOfInterest> features) {
 		String sparql = "prefix ssn: <" + SSN.ns + "#>" + "prefix rdf: <"
 				+ RDF.NAMESPACE + ">" + "select ?id " + "where {"
 				+ "?id rdf:type ssn:FeatureOfInterest ." + "}";
@@ -280,15 +387,19 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		try {
 			TupleQuery query = connection.prepareTupleQuery(
 					QueryLanguage.SPARQL, sparql);
+
+			if (id != null)
+				query.setBinding("id", id);
+
 			TupleQueryResult rs = query.evaluate();
 
 			while (rs.hasNext()) {
 				BindingSet bs = rs.next();
 
-				URI id = _uri(bs.getValue("id"));
-				FeatureOfInterest feature = new FeatureOfInterest(id);
+				URI featureId = _uri(bs.getValue("id"));
+				FeatureOfInterest feature = new FeatureOfInterest(featureId);
 
-				features.put(id, feature);
+				features.put(featureId, feature);
 			}
 
 		} catch (RepositoryException | MalformedQueryException
@@ -296,15 +407,21 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe(e.getMessage());
 		}
-
-		if (log.isLoggable(Level.INFO))
-			log.info("Loaded features of interest (" + features.size() + ") {"
-					+ features + "}");
 	}
 
 	private void loadSensors() {
-		sensors = new HashMap<URI, Sensor>();
+		Map<URI, Sensor> sensors = new ConcurrentHashMap<URI, Sensor>();
+
+		loadSensors(null, sensors);
+
+		if (log.isLoggable(Level.INFO))
+			log.info("Loaded sensors (" + sensors.size() + ") {" + sensors
+					+ "}");
 
+		this.sensors = sensors;
+	}
+
+	private void loadSensors(URI id, Map<URI, Sensor> sensors) {
 		String sparql = "prefix ssn: <"
 				+ SSN.ns
 				+ "#>"
@@ -337,6 +454,10 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		try {
 			TupleQuery query = connection.prepareTupleQuery(
 					QueryLanguage.SPARQL, sparql);
+
+			if (id != null)
+				query.setBinding("sensorId", id);
+
 			TupleQueryResult rs = query.evaluate();
 
 			while (rs.hasNext()) {
@@ -395,15 +516,21 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe(e.getMessage());
 		}
+	}
+
+	private void loadDatasets() {
+		Map<URI, Dataset> datasets = new ConcurrentHashMap<URI, Dataset>();
+
+		loadDatasets(null, datasets);
 
 		if (log.isLoggable(Level.INFO))
-			log.info("Loaded sensors (" + sensors.size() + ") {" + sensors
+			log.info("Loaded datasets (" + datasets.size() + ") {" + datasets
 					+ "}");
-	}
 
-	private void loadDatasets() {
-		datasets = new HashMap<URI, Dataset>();
+		this.datasets = datasets;
+	}
 
+	private void loadDatasets(URI id, Map<URI, Dataset> datasets) {
 		String sparql = "prefix qb: <"
 				+ QB.ns
 				+ "#>"
@@ -438,6 +565,10 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 		try {
 			TupleQuery query = connection.prepareTupleQuery(
 					QueryLanguage.SPARQL, sparql);
+
+			if (id != null)
+				query.setBinding("datasetId", id);
+
 			TupleQueryResult rs = query.evaluate();
 
 			while (rs.hasNext()) {
@@ -511,10 +642,68 @@ public class SesameKnowledgeStore implements KnowledgeStore {
 			if (log.isLoggable(Level.SEVERE))
 				log.severe(e.getMessage());
 		}
+	}
 
-		if (log.isLoggable(Level.INFO))
-			log.info("Loaded datasets (" + datasets.size() + ") {" + datasets
-					+ "}");
+	private boolean exists(URI id, URI type) {
+		try {
+			return connection.hasStatement(id, RDF.TYPE, type, false,
+					new Resource[] {});
+		} catch (RepositoryException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe("Failed to check if entity exists in knowledge store [id = "
+						+ id + "; type = " + type + "]");
+		}
+
+		return false;
+	}
+
+	private boolean exists(URI subject, URI predicate, URI object) {
+		try {
+			return connection.hasStatement(subject, predicate, object, false,
+					new Resource[] {});
+		} catch (RepositoryException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+		}
+
+		return false;
+	}
+
+	private boolean add(Set<Statement> statements) {
+		try {
+			connection.add(statements);
+		} catch (RepositoryException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+			return false;
+		}
+
+		return true;
+	}
+
+	private Set<URI> getSubjects(URI predicate, URI object) {
+		Set<URI> ret = new HashSet<URI>();
+
+		try {
+			RepositoryResult<Statement> statements = connection.getStatements(
+					null, predicate, object, false, new Resource[] {});
+
+			try {
+				while (statements.hasNext()) {
+					Resource subject = statements.next().getSubject();
+
+					if (subject instanceof URI)
+						ret.add((URI) subject);
+				}
+			} finally {
+				statements.close();
+			}
+		} catch (RepositoryException e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.severe(e.getMessage());
+		}
+
+		return ret;
 	}
 
 	private URI _uri(Value value) {
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sesame;
+
+import java.util.NoSuchElementException;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.joda.time.DateTime;
+import org.openrdf.model.Statement;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.parser.ParsedQuery;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+
+/**
+ * <p>
+ * Title: SesameOrderedResultSet
+ * </p>
+ * <p>
+ * Description: Evaluates a query ordered by result time over chunks of
+ * observations returned in time order. A chunk ends between observations of
+ * different result time, hence sorting the solutions of each chunk sorts all
+ * solutions, while the triple source holds one chunk at a time. A slice of all
+ * solutions, i.e. OFFSET and LIMIT, is applied as solutions are returned and
+ * no further chunks are loaded once it is complete. Unordered queries whose
+ * solutions each match a single observation are evaluated likewise, their
+ * solutions returned chunk by chunk.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+public class SesameOrderedResultSet implements ResultSet<BindingSet> {
+
+	private StatementTripleSource source;
+	private TimeOrderedResultSet<Statement> statements;
+	private TupleExpr expr;
+	private long limit = -1;
+	private long offset = 0;
+	private long returned = 0;
+	private long skipped = 0;
+	private int chunkSize;
+	private CloseableIteration<BindingSet, QueryEvaluationException> result;
+
+	public SesameOrderedResultSet(ParsedQuery query,
+			TimeOrderedResultSet<Statement> statements, int chunkSize) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+		if (statements == null)
+			throw new NullPointerException("[statements = null]");
+		if (chunkSize < 1)
+			throw new IllegalArgumentException(
+					"Chunk size must be positive [chunkSize = " + chunkSize
+							+ "]");
+
+		this.statements = statements;
+		this.source = new StatementTripleSource(query.getDataset());
+
+		TupleExpr expr = query.getTupleExpr();
+
+		if (expr instanceof QueryRoot)
+			expr = ((QueryRoot) expr).getArg();
+
+		if (expr instanceof Slice) {
+			Slice slice = (Slice) expr;
+
+			limit = slice.hasLimit() ? slice.getLimit() : -1;
+			offset = slice.hasOffset() ? slice.getOffset() : 0;
+			expr = slice.getArg();
+		}
+
+		this.expr = source.optimize(expr);
+
+		// A slice needs at least as many statements as solutions
+		if (limit > -1)
+			chunkSize = (int) Math.max(1, Math.min(chunkSize, offset + limit));
+
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (limit > -1 && returned >= limit)
+			return false;
+
+		try {
+			while (skipped < offset && getResult().hasNext()) {
+				getResult().next();
+				skipped++;
+			}
+
+			return getResult().hasNext();
+		} catch (QueryEvaluationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public BindingSet next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		returned++;
+
+		try {
+			return getResult().next();
+		} catch (QueryEvaluationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (result != null)
+				result.close();
+		} catch (QueryEvaluationException e) {
+			throw new RuntimeException(e);
+		}
+
+		statements.close();
+	}
+
+	private CloseableIteration<BindingSet, QueryEvaluationException> getResult()
+			throws QueryEvaluationException {
+		// The first chunk is evaluated even if empty
+		while (result == null || (!result.hasNext() && statements.hasNext())) {
+			if (result != null)
+				result.close();
+
+			load();
+
+			result = source.evaluate(expr);
+		}
+
+		return result;
+	}
+
+	private void load() {
+		source.clear();
+
+		DateTime time = null;
+		int size = 0;
+
+		while (statements.hasNext()) {
+			DateTime next = statements.getTime();
+
+			if (size >= chunkSize && time != null
+					&& time.getMillis() != next.getMillis())
+				break;
+
+			source.add(statements.next());
+
+			time = next;
+			size++;
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sesame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.parser.ParsedQuery;
+
+import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+import fi.uef.envi.emrooz.query.SensorObservationProjection;
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+
+/**
+ * <p>
+ * Title: SesameProjectionResultSet
+ * </p>
+ * <p>
+ * Description: Solutions of a query recognized by SensorObservationProjection,
+ * created from the records of observations returned in time order. Records
+ * that hold statements, e.g. of BinaryRDF column values, are evaluated as a
+ * triple source of one observation, which is correct as each solution of such
+ * queries matches a single observation. A slice of all solutions is applied as
+ * solutions are returned.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class SesameProjectionResultSet implements ResultSet<BindingSet> {
+
+	private ParsedQuery query;
+	private SensorObservationProjection projection;
+	private TimeOrderedResultSet<SensorObservationRecord> records;
+	private StatementTripleSource source;
+	private TupleExpr expr;
+	private Iterator<BindingSet> solutions;
+	private long returned = 0;
+	private long skipped = 0;
+
+	public SesameProjectionResultSet(ParsedQuery query,
+			SensorObservationProjection projection,
+			TimeOrderedResultSet<SensorObservationRecord> records) {
+		if (query == null)
+			throw new NullPointerException("[query = null]");
+		if (projection == null)
+			throw new NullPointerException("[projection = null]");
+		if (records == null)
+			throw new NullPointerException("[records = null]");
+
+		this.query = query;
+		this.projection = projection;
+		this.records = records;
+		this.solutions = Collections.emptyIterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (projection.hasLimit() && returned >= projection.getLimit())
+			return false;
+
+		while (skipped < projection.getOffset() && getSolutions().hasNext()) {
+			getSolutions().next();
+			skipped++;
+		}
+
+		return getSolutions().hasNext();
+	}
+
+	@Override
+	public BindingSet next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		returned++;
+
+		return getSolutions().next();
+	}
+
+	@Override
+	public void close() {
+		records.close();
+	}
+
+	private Iterator<BindingSet> getSolutions() {
+		while (!solutions.hasNext() && records.hasNext()) {
+			SensorObservationRecord record = records.next();
+
+			if (record.hasStatements()) {
+				solutions = evaluate(record);
+				continue;
+			}
+
+			BindingSet solution = projection.createBindingSet(record);
+
+			if (solution != null)
+				solutions = Collections.singletonList(solution).iterator();
+		}
+
+		return solutions;
+	}
+
+	private Iterator<BindingSet> evaluate(SensorObservationRecord record) {
+		if (source == null) {
+			source = new StatementTripleSource(query.getDataset());
+			expr = source.optimize(getSliceArg(query.getTupleExpr()));
+		}
+
+		source.clear();
+
+		for (Statement statement : record.getStatements())
+			source.add(statement);
+
+		List<BindingSet> ret = new ArrayList<BindingSet>();
+
+		try {
+			CloseableIteration<BindingSet, QueryEvaluationException> result = source
+					.evaluate(expr);
+
+			try {
+				while (result.hasNext())
+					ret.add(result.next());
+			} finally {
+				result.close();
+			}
+		} catch (QueryEvaluationException e) {
+			throw new RuntimeException(e);
+		}
+
+		return ret.iterator();
+	}
+
+	private static TupleExpr getSliceArg(TupleExpr expr) {
+		if (expr instanceof QueryRoot)
+			expr = ((QueryRoot) expr).getArg();
+
+		// The slice is of all solutions rather than those of an observation
+		if (expr instanceof Slice)
+			expr = ((Slice) expr).getArg();
+
+		return expr;
+	}
+
+}
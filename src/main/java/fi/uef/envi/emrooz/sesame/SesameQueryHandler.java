@@ -5,30 +5,35 @@
 
 package fi.uef.envi.emrooz.sesame;
 
+import java.util.ArrayList;
+
 import org.openrdf.model.Statement;
 import org.openrdf.query.BindingSet;
-import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
-import org.openrdf.query.QueryLanguage;
-import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResultHandler;
 import org.openrdf.query.TupleQueryResultHandlerException;
 import org.openrdf.query.parser.ParsedQuery;
-import org.openrdf.repository.Repository;
-import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
-import org.openrdf.repository.sail.SailRepository;
-import org.openrdf.sail.memory.MemoryStore;
 
+import fi.uef.envi.emrooz.EmroozOptions;
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.api.SensorObservationRecordQueryHandler;
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+import fi.uef.envi.emrooz.query.SensorObservationProjection;
+import fi.uef.envi.emrooz.query.TimeOrderedQueryAnalyzer;
 
 /**
  * <p>
  * Title: SesameQueryHandler
  * </p>
  * <p>
- * Description:
+ * Description: Evaluates a query over the statements returned by a data store
+ * query handler. Statements are held by a triple source rather than a
+ * MemoryStore, a chunk at a time for queries whose solutions each match a
+ * single observation, unordered or ordered by result time, and all of them
+ * only for queries that join observations or combine their solutions.
+ * Queries that select values of observations are answered from records of
+ * the data store, if it returns them, without statements.
  * </p>
  * <p>
  * Project: Emrooz
@@ -42,10 +47,17 @@ import fi.uef.envi.emrooz.api.ResultSet;
 
 public class SesameQueryHandler implements QueryHandler<BindingSet> {
 
-	private Repository repo;
-	private RepositoryConnection conn;
 	private QueryHandler<Statement> other;
 	private ParsedQuery query;
+	// Ordered by result time and each solution matches a single observation
+	private boolean timeOrdered;
+	// Unordered and each solution matches a single observation, hence the
+	// solutions of chunks of observations are returned as they come
+	private boolean observationStreamable;
+	// Selects values of observations, hence solutions are created from
+	// records if the data store returns them
+	private SensorObservationProjection projection;
+	private int chunkSize;
 
 	public SesameQueryHandler(QueryHandler<Statement> other, ParsedQuery query) {
 		if (other == null)
@@ -55,56 +67,104 @@ public class SesameQueryHandler implements QueryHandler<BindingSet> {
 
 		this.other = other;
 		this.query = query;
+		this.timeOrdered = TimeOrderedQueryAnalyzer.isOrderedByTime(query)
+				&& TimeOrderedQueryAnalyzer.isObservationLocal(query);
+		this.observationStreamable = TimeOrderedQueryAnalyzer
+				.isObservationStreamable(query);
+		this.projection = SensorObservationProjection.create(query);
+		this.chunkSize = EmroozOptions.ORDERED_EVALUATION_CHUNK_SIZE;
+	}
 
-		try {
-			this.repo = new SailRepository(new MemoryStore());
-			this.repo.initialize();
-			this.conn = repo.getConnection();
-		} catch (RepositoryException e) {
-			throw new RuntimeException(e);
-		}
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException(
+					"Chunk size must be positive [chunkSize = " + chunkSize
+							+ "]");
+
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public boolean isTimeOrdered() {
+		return timeOrdered;
+	}
+
+	public boolean isObservationStreamable() {
+		return observationStreamable;
+	}
+
+	public boolean isProjection() {
+		return projection != null;
 	}
 
 	@Override
 	public ResultSet<BindingSet> evaluate() {
+		if (projection != null
+				&& other instanceof SensorObservationRecordQueryHandler)
+			return new SesameProjectionResultSet(query, projection,
+					((SensorObservationRecordQueryHandler) other)
+							.evaluateRecords());
+
+		ResultSet<Statement> rs = other.evaluate();
+
+		if (isChunked(rs))
+			return getOrderedResultSet(rs);
+
+		StatementTripleSource source = new StatementTripleSource(
+				query.getDataset());
+
+		while (rs.hasNext()) {
+			source.add(rs.next());
+		}
+
+		rs.close();
+
 		try {
-			return new SesameResultSet(getTupleQuery().evaluate());
-		} catch (QueryEvaluationException | RepositoryException
-				| MalformedQueryException e) {
+			return new SesameResultSet(source.evaluate(source.optimize(query
+					.getTupleExpr())));
+		} catch (QueryEvaluationException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	@Override
 	public void evaluate(TupleQueryResultHandler handler) {
+		ResultSet<BindingSet> results = evaluate();
+
 		try {
-			getTupleQuery().evaluate(handler);
-		} catch (QueryEvaluationException | RepositoryException
-				| MalformedQueryException | TupleQueryResultHandlerException e) {
+			handler.startQueryResult(new ArrayList<String>(query
+					.getTupleExpr().getBindingNames()));
+
+			while (results.hasNext())
+				handler.handleSolution(results.next());
+
+			handler.endQueryResult();
+		} catch (TupleQueryResultHandlerException e) {
 			throw new RuntimeException(e);
+		} finally {
+			results.close();
 		}
 	}
 
 	@Override
 	public void close() {
-		try {
-			conn.close();
-			repo.shutDown();
-		} catch (RepositoryException e) {
-			throw new RuntimeException(e);
-		}
+		// Nothing to close
 	}
 
-	private TupleQuery getTupleQuery() throws RepositoryException,
-			MalformedQueryException {
-		ResultSet<Statement> rs = other.evaluate();
-
-		while (rs.hasNext()) {
-			conn.add(rs.next());
-		}
+	private boolean isChunked(ResultSet<Statement> rs) {
+		return (timeOrdered || observationStreamable)
+				&& rs instanceof TimeOrderedResultSet;
+	}
 
-		return conn.prepareTupleQuery(QueryLanguage.SPARQL,
-				query.getSourceString());
+	@SuppressWarnings("unchecked")
+	private SesameOrderedResultSet getOrderedResultSet(ResultSet<Statement> rs) {
+		// Observations arrive in time order, hence the solutions are sorted, if
+		// ordered, a chunk at a time rather than all at once
+		return new SesameOrderedResultSet(query,
+				(TimeOrderedResultSet<Statement>) rs, chunkSize);
 	}
 
 }
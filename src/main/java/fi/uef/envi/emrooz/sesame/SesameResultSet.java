@@ -5,9 +5,10 @@
 
 package fi.uef.envi.emrooz.sesame;
 
+import info.aduna.iteration.CloseableIteration;
+
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
-import org.openrdf.query.TupleQueryResult;
 
 import fi.uef.envi.emrooz.api.ResultSet;
 
@@ -30,9 +31,10 @@ import fi.uef.envi.emrooz.api.ResultSet;
 
 public class SesameResultSet implements ResultSet<BindingSet> {
 
-	private TupleQueryResult result;
+	private CloseableIteration<? extends BindingSet, QueryEvaluationException> result;
 
-	public SesameResultSet(TupleQueryResult result) {
+	public SesameResultSet(
+			CloseableIteration<? extends BindingSet, QueryEvaluationException> result) {
 		this.result = result;
 	}
 
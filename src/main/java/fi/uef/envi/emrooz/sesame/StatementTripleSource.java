@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sesame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+import info.aduna.iteration.FilterIteration;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.TripleSource;
+import org.openrdf.query.algebra.evaluation.impl.BindingAssigner;
+import org.openrdf.query.algebra.evaluation.impl.CompareOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.ConjunctiveConstraintSplitter;
+import org.openrdf.query.algebra.evaluation.impl.ConstantOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.DisjunctiveConstraintOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.openrdf.query.algebra.evaluation.impl.EvaluationStrategyImpl;
+import org.openrdf.query.algebra.evaluation.impl.FilterOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.IterativeEvaluationOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.OrderLimitOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.QueryJoinOptimizer;
+import org.openrdf.query.algebra.evaluation.impl.QueryModelNormalizer;
+import org.openrdf.query.algebra.evaluation.impl.SameTermFilterOptimizer;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+/**
+ * <p>
+ * Title: StatementTripleSource
+ * </p>
+ * <p>
+ * Description: Triple source over the statements returned by a data store
+ * query handler, indexed by subject and object. Queries are evaluated
+ * directly on the statements, without the value interning, locking and
+ * transactions of a MemoryStore, and solutions are returned as they are
+ * computed.
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ *
+ * @author Markus Stocker
+ */
+
+public class StatementTripleSource implements TripleSource {
+
+	private Dataset dataset;
+	private EvaluationStrategy strategy;
+	// A set, as the repository it replaces, hence duplicate statements do
+	// not duplicate solutions
+	private Set<Statement> statements;
+	private Map<Resource, List<Statement>> subjects;
+	private Map<Value, List<Statement>> objects;
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	public StatementTripleSource(Dataset dataset) {
+		this.dataset = dataset;
+		this.strategy = new EvaluationStrategyImpl(this, dataset, null);
+		this.statements = new LinkedHashSet<Statement>();
+		this.subjects = new HashMap<Resource, List<Statement>>();
+		this.objects = new HashMap<Value, List<Statement>>();
+	}
+
+	public void add(Statement statement) {
+		if (statement == null)
+			throw new NullPointerException("[statement = null]");
+
+		if (!statements.add(statement))
+			return;
+
+		index(subjects, statement.getSubject(), statement);
+		index(objects, statement.getObject(), statement);
+	}
+
+	public void clear() {
+		statements.clear();
+		subjects.clear();
+		objects.clear();
+	}
+
+	public int size() {
+		return statements.size();
+	}
+
+	public TupleExpr optimize(TupleExpr expr) {
+		if (expr == null)
+			throw new NullPointerException("[expr = null]");
+
+		TupleExpr ret = expr.clone();
+
+		if (!(ret instanceof QueryRoot))
+			ret = new QueryRoot(ret);
+
+		BindingSet bindings = EmptyBindingSet.getInstance();
+
+		// The optimizations of a MemoryStore connection; none depends on the
+		// statements, hence an expression is optimized once and evaluated
+		// over any number of chunks
+		new BindingAssigner().optimize(ret, dataset, bindings);
+		new ConstantOptimizer(strategy).optimize(ret, dataset, bindings);
+		new CompareOptimizer().optimize(ret, dataset, bindings);
+		new ConjunctiveConstraintSplitter().optimize(ret, dataset, bindings);
+		new DisjunctiveConstraintOptimizer().optimize(ret, dataset, bindings);
+		new SameTermFilterOptimizer().optimize(ret, dataset, bindings);
+		new QueryModelNormalizer().optimize(ret, dataset, bindings);
+		new QueryJoinOptimizer(new EvaluationStatistics()).optimize(ret,
+				dataset, bindings);
+		new IterativeEvaluationOptimizer().optimize(ret, dataset, bindings);
+		new FilterOptimizer().optimize(ret, dataset, bindings);
+		new OrderLimitOptimizer().optimize(ret, dataset, bindings);
+
+		return ret;
+	}
+
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
+			TupleExpr expr) throws QueryEvaluationException {
+		return strategy.evaluate(expr, EmptyBindingSet.getInstance());
+	}
+
+	@Override
+	public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(
+			final Resource subj, final URI pred, final Value obj,
+			Resource... contexts) throws QueryEvaluationException {
+		Collection<Statement> candidates;
+
+		if (subj != null)
+			candidates = get(subjects, subj);
+		else if (obj != null)
+			candidates = get(objects, obj);
+		else
+			candidates = statements;
+
+		final List<Resource> graphs = (contexts == null || contexts.length == 0) ? null
+				: Arrays.asList(contexts);
+
+		return new FilterIteration<Statement, QueryEvaluationException>(
+				new CloseableIteratorIteration<Statement, QueryEvaluationException>(
+						candidates.iterator())) {
+
+			@Override
+			protected boolean accept(Statement statement) {
+				if (subj != null && !subj.equals(statement.getSubject()))
+					return false;
+				if (pred != null && !pred.equals(statement.getPredicate()))
+					return false;
+				if (obj != null && !obj.equals(statement.getObject()))
+					return false;
+				if (graphs != null && !graphs.contains(statement.getContext()))
+					return false;
+
+				return true;
+			}
+
+		};
+	}
+
+	@Override
+	public ValueFactory getValueFactory() {
+		return vf;
+	}
+
+	private static <K> void index(Map<K, List<Statement>> index, K key,
+			Statement statement) {
+		List<Statement> list = index.get(key);
+
+		if (list == null) {
+			list = new ArrayList<Statement>(4);
+			index.put(key, list);
+		}
+
+		list.add(statement);
+	}
+
+	private static <K> List<Statement> get(Map<K, List<Statement>> index,
+			K key) {
+		List<Statement> ret = index.get(key);
+
+		if (ret == null)
+			return new ArrayList<Statement>(0);
+
+		return ret;
+	}
+
+}
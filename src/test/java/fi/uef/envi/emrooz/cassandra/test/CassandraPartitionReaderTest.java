@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import fi.uef.envi.emrooz.cassandra.CassandraPartition;
+import fi.uef.envi.emrooz.cassandra.CassandraPartitionReader;
+import fi.uef.envi.emrooz.cassandra.CassandraPartitionReader.PartitionRead;
+
+/**
+ * <p>
+ * Title: CassandraPartitionReaderTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CassandraPartitionReaderTest {
+
+	@Test
+	@FileParameters("src/test/resources/CassandraPartitionReaderTest-testPrefetch.csv")
+	public void testPrefetch(int rows, int fetchSize, boolean ordered,
+			int fetches) {
+		ThisResultSet rs = new ThisResultSet(rows, fetchSize);
+		CassandraPartitionReader reader = new CassandraPartitionReader(
+				createSession(rs.create()), Collections.singletonList(
+						new PartitionRead(new SimpleStatement("p"))).iterator(),
+				1, ordered);
+
+		CassandraPartition partition = reader.next();
+		Iterator<Row> it = partition.getRows();
+		int a = 0;
+
+		while (it.hasNext()) {
+			it.next();
+			a++;
+		}
+
+		assertEquals(rows, a);
+		// Pages are requested ahead of the rows returned, hence none is
+		// fetched while rows are returned
+		assertEquals(fetches, rs.fetches);
+		assertEquals(0, rs.blockingFetches);
+		assertEquals(false, reader.hasNext());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/CassandraPartitionReaderTest-testSharedPermits.csv")
+	public void testSharedPermits(int permits, int readers, int reads,
+			int maxConcurrentReads) {
+		ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		Session session = createSession(executor, inFlight, maxInFlight);
+		Semaphore shared = new Semaphore(permits);
+		List<CassandraPartitionReader> series = new ArrayList<CassandraPartitionReader>();
+
+		for (int i = 0; i < readers; i++) {
+			series.add(new CassandraPartitionReader(session,
+					createReads(reads), maxConcurrentReads, true, shared));
+		}
+
+		int[] returned = new int[readers];
+		int a = 0;
+
+		try {
+			// Series are consumed in turn, as they are merged
+			for (int j = 0; j < reads; j++) {
+				for (int i = 0; i < readers; i++) {
+					CassandraPartition partition = series.get(i).next();
+
+					assertEquals(returned[i]++, partition.getTimeFrom()
+							.getMillis());
+					a++;
+				}
+			}
+
+			for (CassandraPartitionReader reader : series)
+				assertEquals(false, reader.hasNext());
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(readers * reads, a);
+		// The series of a query read at most as many partitions at a time as
+		// the permits shared, however many series there are
+		assertTrue(maxInFlight.get() <= permits);
+		assertTrue(maxInFlight.get() > 0);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/CassandraPartitionReaderTest-testOrder.csv")
+	public void testOrder(String completed, boolean ordered, String expected) {
+		List<SettableFuture<ResultSet>> futures = new ArrayList<SettableFuture<ResultSet>>();
+		String[] order = completed.split(" ");
+		CassandraPartitionReader reader = new CassandraPartitionReader(
+				createSession(futures), createReads(order.length),
+				order.length, ordered);
+
+		// All reads are issued before any completes
+		assertEquals(true, reader.hasNext());
+		assertEquals(order.length, futures.size());
+
+		ResultSet result = new ThisResultSet(0, 1).create();
+
+		for (String i : order)
+			futures.get(Integer.parseInt(i)).set(result);
+
+		StringBuilder sb = new StringBuilder();
+
+		while (reader.hasNext()) {
+			if (sb.length() > 0)
+				sb.append(" ");
+
+			sb.append(reader.next().getTimeFrom().getMillis());
+		}
+
+		assertEquals(expected, sb.toString());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/CassandraPartitionReaderTest-testFailure.csv")
+	public void testFailure(int reads, int failed, boolean ordered,
+			int returned) {
+		List<SettableFuture<ResultSet>> futures = new ArrayList<SettableFuture<ResultSet>>();
+		CassandraPartitionReader reader = new CassandraPartitionReader(
+				createSession(futures), createReads(reads), reads, ordered);
+
+		assertEquals(true, reader.hasNext());
+
+		ResultSet result = new ThisResultSet(0, 1).create();
+		Exception e = new IllegalStateException("p" + failed);
+
+		for (int i = 0; i < reads; i++) {
+			if (i == failed)
+				futures.get(i).setException(e);
+			else
+				futures.get(i).set(result);
+		}
+
+		int a = 0;
+
+		try {
+			while (reader.hasNext()) {
+				reader.next();
+				a++;
+			}
+
+			fail();
+		} catch (RuntimeException t) {
+			// The failure of a read is thrown once it is next, whether the
+			// reader waits on the read or on the queue of completed reads
+			assertEquals(e, t.getCause());
+		}
+
+		assertEquals(returned, a);
+	}
+
+	private static Iterator<PartitionRead> createReads(int reads) {
+		List<PartitionRead> ret = new ArrayList<PartitionRead>();
+
+		for (int i = 0; i < reads; i++)
+			ret.add(new PartitionRead(null, null, null, new DateTime(i), null,
+					new SimpleStatement("p" + i)));
+
+		return ret.iterator();
+	}
+
+	private static Session createSession(
+			final List<SettableFuture<ResultSet>> futures) {
+		return (Session) Proxy.newProxyInstance(
+				Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (!method.getName().equals("executeAsync"))
+							throw new UnsupportedOperationException(method
+									.getName());
+
+						// Reads complete as the test sets their futures
+						SettableFuture<ResultSet> future = SettableFuture
+								.create();
+						futures.add(future);
+
+						return createFuture(future);
+					}
+
+				});
+	}
+
+	private static Session createSession(
+			final ScheduledExecutorService executor,
+			final AtomicInteger inFlight, final AtomicInteger maxInFlight) {
+		final ResultSet result = new ThisResultSet(0, 1).create();
+
+		return (Session) Proxy.newProxyInstance(
+				Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (!method.getName().equals("executeAsync"))
+							throw new UnsupportedOperationException(method
+									.getName());
+
+						final SettableFuture<ResultSet> future = SettableFuture
+								.create();
+						int n = inFlight.incrementAndGet();
+
+						while (true) {
+							int max = maxInFlight.get();
+
+							if (n <= max || maxInFlight.compareAndSet(max, n))
+								break;
+						}
+
+						// Reads complete in the background, as they do on
+						// the cluster
+						executor.schedule(new Runnable() {
+
+							@Override
+							public void run() {
+								inFlight.decrementAndGet();
+								future.set(result);
+							}
+
+						}, 1, TimeUnit.MILLISECONDS);
+
+						return createFuture(future);
+					}
+
+				});
+	}
+
+	private static ResultSetFuture createFuture(
+			final SettableFuture<ResultSet> future) {
+		return (ResultSetFuture) Proxy.newProxyInstance(
+				ResultSetFuture.class.getClassLoader(),
+				new Class<?>[] { ResultSetFuture.class },
+				new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("getUninterruptibly")) {
+							try {
+								return Uninterruptibles
+										.getUninterruptibly(future);
+							} catch (ExecutionException e) {
+								throw new RuntimeException(e.getCause());
+							}
+						}
+
+						try {
+							return future
+									.getClass()
+									.getMethod(method.getName(),
+											method.getParameterTypes())
+									.invoke(future, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+
+				});
+	}
+
+	private static Session createSession(final Object result) {
+		final ResultSetFuture future = (ResultSetFuture) Proxy
+				.newProxyInstance(ResultSetFuture.class.getClassLoader(),
+						new Class<?>[] { ResultSetFuture.class },
+						new InvocationHandler() {
+
+							@Override
+							public Object invoke(Object proxy, Method method,
+									Object[] args) throws ExecutionException {
+								String name = method.getName();
+
+								if (name.equals("addListener")) {
+									((Executor) args[1])
+											.execute((Runnable) args[0]);
+									return null;
+								}
+								if (name.equals("isDone"))
+									return true;
+								if (name.equals("isCancelled"))
+									return false;
+								if (name.equals("get")
+										&& result instanceof Throwable)
+									throw new ExecutionException(
+											(Throwable) result);
+								if (name.equals("getUninterruptibly")
+										&& result instanceof Throwable)
+									throw new RuntimeException(
+											(Throwable) result);
+								if (name.equals("get")
+										|| name.equals("getUninterruptibly"))
+									return result;
+
+								throw new UnsupportedOperationException(name);
+							}
+
+						});
+
+		return (Session) Proxy.newProxyInstance(
+				Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("executeAsync"))
+							return future;
+
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+
+				});
+	}
+
+	private static class ThisResultSet implements InvocationHandler {
+
+		private final int rows;
+		private final int fetchSize;
+		private int fetched;
+		private int returned;
+		private int fetches;
+		private int blockingFetches;
+		private final Row row = (Row) Proxy.newProxyInstance(
+				Row.class.getClassLoader(), new Class<?>[] { Row.class },
+				this);
+
+		private ThisResultSet(int rows, int fetchSize) {
+			this.rows = rows;
+			this.fetchSize = fetchSize;
+			this.fetched = Math.min(rows, fetchSize);
+		}
+
+		private ResultSet create() {
+			return (ResultSet) Proxy.newProxyInstance(
+					ResultSet.class.getClassLoader(),
+					new Class<?>[] { ResultSet.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+
+			if (name.equals("getAvailableWithoutFetching"))
+				return fetched - returned;
+			if (name.equals("isFullyFetched"))
+				return fetched == rows;
+			if (name.equals("isExhausted"))
+				return returned == rows;
+
+			if (name.equals("fetchMoreResults")) {
+				fetched = Math.min(rows, fetched + fetchSize);
+				fetches++;
+				return null;
+			}
+
+			if (name.equals("one")) {
+				if (returned == rows)
+					return null;
+
+				// The driver fetches the next page and blocks if the rows
+				// fetched are all returned
+				if (returned == fetched) {
+					fetched = Math.min(rows, fetched + fetchSize);
+					blockingFetches++;
+				}
+
+				returned++;
+
+				return row;
+			}
+
+			throw new UnsupportedOperationException(name);
+		}
+
+	}
+
+}
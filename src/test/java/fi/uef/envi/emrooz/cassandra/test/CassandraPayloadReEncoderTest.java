@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+
+import com.carmatech.cassandra.TimeUUID;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import fi.uef.envi.emrooz.Compression;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.AbstractCassandraAdder;
+import fi.uef.envi.emrooz.cassandra.CassandraPayloadReEncoder;
+import fi.uef.envi.emrooz.cassandra.utils.CompressionUtils;
+import fi.uef.envi.emrooz.cassandra.utils.MemoryUriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: CassandraPayloadReEncoderTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CassandraPayloadReEncoderTest {
+
+	@Test
+	@FileParameters("src/test/resources/CassandraPayloadReEncoderTest.csv")
+	public void testRun(
+			String fromCompression,
+			boolean fromDictionaryEncoding,
+			String toCompression,
+			boolean toDictionaryEncoding,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e,
+			boolean rewritten) throws IOException, InterruptedException {
+		String rowKey = "row";
+		UUID columnName = TimeUUID.toUUID(time);
+		UriDictionary dictionary = new MemoryUriDictionary();
+		byte[] bytes = CompressionUtils.compress(StatementUtils.toByteArray(e,
+				(fromDictionaryEncoding ? dictionary : null)), Compression
+				.valueOf(fromCompression));
+
+		ThisAdder adder = new ThisAdder();
+		adder.setCompression(Compression.valueOf(toCompression));
+		adder.setUriDictionary(toDictionaryEncoding ? dictionary : null);
+
+		CassandraPayloadReEncoder reEncoder = new CassandraPayloadReEncoder(
+				createSession(rowKey, columnName, bytes), adder, dictionary,
+				1000000);
+		// Not started, hence nothing to do
+		reEncoder.run();
+
+		assertEquals(0, reEncoder.getScannedCells());
+
+		reEncoder.start();
+
+		while (reEncoder.isRunning())
+			Thread.sleep(10);
+
+		assertEquals(1, reEncoder.getScannedCells());
+		assertTrue(adder.flushed);
+
+		if (!rewritten) {
+			assertEquals(0, reEncoder.getRewrittenCells());
+			assertEquals(Collections.emptyMap(), adder.columns);
+			return;
+		}
+
+		assertEquals(1, reEncoder.getRewrittenCells());
+		assertEquals(Collections.singleton(rowKey), adder.columns.keySet());
+
+		byte[] a = adder.columns.get(rowKey).get(columnName);
+
+		assertEquals(Compression.valueOf(toCompression) != Compression.NONE,
+				CompressionUtils.isCompressed(a));
+		assertEquals(
+				e,
+				new PayloadCodecRegistry().decode(new PayloadContext(null,
+						null, null, null, null, dictionary), columnName, a));
+	}
+
+	private static Session createSession(final String rowKey,
+			final UUID columnName, final byte[] columnValue) {
+		final Row row = (Row) Proxy.newProxyInstance(
+				Row.class.getClassLoader(), new Class<?>[] { Row.class },
+				new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("getString"))
+							return rowKey;
+						if (method.getName().equals("getUUID"))
+							return columnName;
+						if (method.getName().equals("getBytes"))
+							return ByteBuffer.wrap(columnValue);
+
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+
+				});
+
+		final ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("iterator"))
+							return Collections.singletonList(row).iterator();
+
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+
+				});
+
+		return (Session) Proxy.newProxyInstance(
+				Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("execute"))
+							return resultSet;
+
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+
+				});
+	}
+
+	private class ThisAdder extends AbstractCassandraAdder {
+
+		private Map<String, Map<UUID, byte[]>> columns = new HashMap<String, Map<UUID, byte[]>>();
+		private boolean flushed = false;
+
+		@Override
+		protected void write(String rowKey, UUID columnName,
+				byte[] columnValue) {
+			Map<UUID, byte[]> m = columns.get(rowKey);
+
+			if (m == null) {
+				m = new HashMap<UUID, byte[]>();
+				columns.put(rowKey, m);
+			}
+
+			m.put(columnName, columnValue);
+		}
+
+		@Override
+		public void flush() {
+			flushed = true;
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import fi.uef.envi.emrooz.Rollover;
+import fi.uef.envi.emrooz.cassandra.CassandraRequestHandler;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: CassandraRequestHandlerTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CassandraRequestHandlerTest {
+
+	@Test
+	@FileParameters("src/test/resources/CassandraRequestHandlerTest-testGetFetchSize.csv")
+	public void testGetFetchSize(
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double frequency,
+			String rollover,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeFrom,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeTo,
+			long rows, int e) {
+		assertEquals(e, new ThisRequestHandler().getFetchSize(frequency,
+				Rollover.valueOf(rollover), timeFrom, timeTo, rows));
+	}
+
+	private class ThisRequestHandler extends CassandraRequestHandler {
+
+		@Override
+		protected int getFetchSize(Double frequency, Rollover rollover,
+				DateTime timeFrom, DateTime timeTo, long rows) {
+			return super.getFetchSize(frequency, rollover, timeFrom, timeTo,
+					rows);
+		}
+
+	}
+
+}
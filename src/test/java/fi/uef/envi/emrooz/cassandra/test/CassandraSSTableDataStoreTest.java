@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Cell;
+import org.apache.cassandra.db.OnDiskAtom;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.db.marshal.TimeUUIDType;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.cassandra.CassandraSSTableDataStore;
+import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: CassandraSSTableDataStoreTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CassandraSSTableDataStoreTest {
+
+	private static Integer fileCacheSizeInMB;
+
+	private List<File> directories = new ArrayList<File>();
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		// Reading SSTables outside of a Cassandra node requires a file cache
+		// size, which client mode leaves unset and DatabaseDescriptor has no
+		// setter for
+		Config.setClientMode(true);
+		Config conf = getConf();
+		fileCacheSizeInMB = conf.file_cache_size_in_mb;
+		conf.file_cache_size_in_mb = 16;
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		getConf().file_cache_size_in_mb = fileCacheSizeInMB;
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File directory : directories)
+			delete(directory.toPath());
+
+		directories.clear();
+	}
+
+	@Test
+	@FileParameters("src/test/resources/CassandraSSTableDataStoreTest.csv")
+	public void testAddSensorObservation(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI measPropId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI valueId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements)
+			throws IOException, RDFParseException, RDFHandlerException {
+		Frequency frequency = new Frequency(measPropId, new QuantityValue(
+				valueId, value, new Unit(unitId)));
+
+		File directory = Files.createTempDirectory("emrooz").toFile();
+		directories.add(directory);
+
+		CassandraSSTableDataStore ds = new CassandraSSTableDataStore(
+				directory, 1);
+		ds.addSensorObservation(sensorId, propertyId, featureId, frequency,
+				time, statements);
+		ds.close();
+
+		Map<String, Map<UUID, byte[]>> a = read(ds.getDirectory());
+
+		String rowKey = new RowKeyUtils().getRowKey(sensorId, propertyId,
+				featureId, frequency, time);
+
+		assertEquals(1, a.size());
+		assertTrue(a.containsKey(rowKey));
+
+		Map<UUID, byte[]> columns = a.get(rowKey);
+
+		assertEquals(1, columns.size());
+		assertEquals(statements, StatementUtils.toStatements(columns
+				.get(TimeUUID.toUUID(time))));
+	}
+
+	private static Config getConf() throws Exception {
+		Field field = DatabaseDescriptor.class.getDeclaredField("conf");
+		field.setAccessible(true);
+
+		return (Config) field.get(null);
+	}
+
+	private static void delete(Path path) throws IOException {
+		if (!Files.exists(path))
+			return;
+
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e)
+					throws IOException {
+				if (e != null)
+					throw e;
+
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+	}
+
+	private static Map<String, Map<UUID, byte[]>> read(File directory)
+			throws IOException, RDFParseException, RDFHandlerException {
+		Map<String, Map<UUID, byte[]>> ret = new HashMap<String, Map<UUID, byte[]>>();
+
+		for (File file : directory.listFiles()) {
+			if (!file.getName().endsWith("-Data.db"))
+				continue;
+
+			SSTableReader reader = SSTableReader.open(Descriptor
+					.fromFilename(file.getPath()));
+			ISSTableScanner scanner = reader.getScanner();
+
+			while (scanner.hasNext()) {
+				OnDiskAtomIterator partition = scanner.next();
+				String rowKey = ByteBufferUtil.string(partition.getKey()
+						.getKey());
+
+				Map<UUID, byte[]> columns = ret.get(rowKey);
+
+				if (columns == null) {
+					columns = new HashMap<UUID, byte[]>();
+					ret.put(rowKey, columns);
+				}
+
+				while (partition.hasNext()) {
+					OnDiskAtom atom = partition.next();
+
+					if (!(atom instanceof Cell))
+						continue;
+
+					Cell cell = (Cell) atom;
+
+					columns.put(
+							TimeUUIDType.instance.compose(cell.name().toByteBuffer()),
+							ByteBufferUtil.getArray(cell.value()));
+				}
+			}
+
+			scanner.close();
+			reader.selfRef().release();
+		}
+
+		return ret;
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils.test;
+
+import java.io.IOException;
+import java.util.Set;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+
+import fi.uef.envi.emrooz.Compression;
+import fi.uef.envi.emrooz.cassandra.utils.CompressionUtils;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: CompressionUtilsTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class CompressionUtilsTest {
+
+	@Test
+	@FileParameters("src/test/resources/CompressionUtilsTest.csv")
+	public void testCompress(
+			String compression,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e,
+			boolean compressed) throws RDFParseException,
+			RDFHandlerException, IOException {
+		byte[] bytes = StatementUtils.toByteArray(e);
+		byte[] a = CompressionUtils.compress(bytes,
+				Compression.valueOf(compression));
+
+		assertEquals(compressed, CompressionUtils.isCompressed(a));
+		assertArrayEquals(bytes, CompressionUtils.decompress(a));
+		assertEquals(e, StatementUtils.toStatements(CompressionUtils
+				.decompress(a)));
+	}
+
+}
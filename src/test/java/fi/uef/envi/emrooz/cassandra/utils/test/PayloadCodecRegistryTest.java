@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils.test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.assertEquals;
+
+import org.openrdf.model.Statement;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.Compression;
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.CompressionUtils;
+import fi.uef.envi.emrooz.cassandra.utils.MemoryUriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadCodecRegistry;
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: PayloadCodecRegistryTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class PayloadCodecRegistryTest {
+
+	private PayloadCodecRegistry registry = new PayloadCodecRegistry();
+
+	@Test
+	@FileParameters("src/test/resources/PayloadCodecRegistryTest.csv")
+	public void testDecode(
+			String compression,
+			boolean dictionaryEncoding,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeFrom,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeTo,
+			boolean inRange) throws IOException {
+		UriDictionary dictionary = new MemoryUriDictionary();
+		UUID columnName = TimeUUID.toUUID(time);
+		byte[] bytes = CompressionUtils.compress(StatementUtils.toByteArray(e,
+				(dictionaryEncoding ? dictionary : null)), Compression
+				.valueOf(compression));
+		PayloadContext context = new PayloadContext(null, null, null,
+				timeFrom, timeTo, dictionary);
+
+		Set<Statement> a = registry.decode(context, columnName, bytes);
+
+		if (inRange)
+			assertEquals(e, a);
+		else
+			assertEquals(Collections.emptySet(), a);
+	}
+
+	@Test(expected = IOException.class)
+	public void testDecodeUnknownFormat() throws IOException {
+		registry.decode(new PayloadContext(null, null, null, null, null, null),
+				TimeUUID.toUUID(new DateTime()), new byte[] { 0x7f });
+	}
+
+}
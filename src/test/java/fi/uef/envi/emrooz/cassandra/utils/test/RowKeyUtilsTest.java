@@ -18,6 +18,7 @@ import org.openrdf.model.URI;
 
 import fi.uef.envi.emrooz.Rollover;
 import fi.uef.envi.emrooz.cassandra.utils.RowKeyUtils;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationRoute;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.qudt.Unit;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
@@ -67,6 +68,58 @@ public class RowKeyUtilsTest {
 		assertNotEquals(e, a);
 	}
 
+	@Test
+	@FileParameters("src/test/resources/RowKeyUtilsTest-testGetRowKey.csv")
+	public void testGetRowKeyOfRoute(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI measPropId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI valueId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			String e, String assertType) {
+		RowKeyUtils utils = new RowKeyUtils();
+		SensorObservationRoute route = utils.getRoute(sensorId, propertyId,
+				featureId, new Frequency(measPropId, new QuantityValue(valueId,
+						value, new Unit(unitId))));
+
+		String a = utils.getRowKey(route, time);
+
+		if (assertType.equals("assertEquals")) {
+			assertEquals(e, a);
+			return;
+		}
+
+		assertNotEquals(e, a);
+	}
+
+	@Test
+	@FileParameters("src/test/resources/RowKeyUtilsTest-testGetLegacyRowKey.csv")
+	public void testGetLegacyRowKey(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI measPropId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI valueId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			String e, String assertType) {
+		RowKeyUtils utils = new RowKeyUtils();
+		String a = utils.getLegacyRowKey(utils.getRoute(sensorId, propertyId,
+				featureId, new Frequency(measPropId, new QuantityValue(
+						valueId, value, new Unit(unitId)))), time);
+
+		if (assertType.equals("assertEquals")) {
+			assertEquals(e, a);
+			return;
+		}
+
+		assertNotEquals(e, a);
+	}
+
 	@Test
 	@FileParameters("src/test/resources/RowKeyUtilsTest-testGetRollover.csv")
 	public void testGetRollover(
@@ -92,4 +145,28 @@ public class RowKeyUtilsTest {
 		assertNotEquals(e, a);
 	}
 
+	@Test
+	@FileParameters("src/test/resources/RowKeyUtilsTest-testGetPartitionTime.csv")
+	public void testGetPartitionTime(
+			String rollover,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime e) {
+		DateTime a = new RowKeyUtils().getPartitionTime(
+				Rollover.valueOf(rollover), time);
+
+		assertEquals(e.getMillis(), a.getMillis());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/RowKeyUtilsTest-testGetLegacyPartitionTime.csv")
+	public void testGetLegacyPartitionTime(
+			String rollover,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime e) {
+		DateTime a = new RowKeyUtils().getLegacyPartitionTime(
+				Rollover.valueOf(rollover), time);
+
+		assertEquals(e.getMillis(), a.getMillis());
+	}
+
 }
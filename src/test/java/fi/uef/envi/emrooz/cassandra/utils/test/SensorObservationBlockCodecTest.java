@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils.test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationBlockCodec;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
+import fi.uef.envi.emrooz.entity.ssn.Property;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
+import fi.uef.envi.emrooz.entity.time.Instant;
+import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+import fi.uef.envi.emrooz.vocabulary.SSN;
+
+/**
+ * <p>
+ * Title: SensorObservationBlockCodecTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class SensorObservationBlockCodecTest {
+
+	private static final String ns = "http://envi.uef.fi/emrooz#";
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationBlockCodecTest.csv")
+	public void testEncodeDecode(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			String intervals,
+			String values,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeFrom,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeTo,
+			int e) throws IOException {
+		RDFEntityRepresenter representer = new RDFEntityRepresenter();
+		SortedMap<DateTime, Set<Statement>> observations = new TreeMap<DateTime, Set<Statement>>();
+		Set<Statement> statements = new HashSet<Statement>();
+		String[] interval = intervals.split(" ");
+		String[] value = values.split(" ");
+
+		for (int i = 0; i < value.length; i++) {
+			if (i > 0)
+				time = time.plus(Long.valueOf(interval[i - 1]));
+
+			Set<Statement> observation = representer
+					.createRepresentation(new SensorObservation(_id(),
+							new Sensor(sensorId), new Property(propertyId),
+							new FeatureOfInterest(featureId), new SensorOutput(
+									_id(), new QuantityValue(_id(), Double
+											.valueOf(value[i]), new Unit(
+											unitId))), new Instant(_id(), time)));
+
+			observations.put(time, observation);
+			statements.addAll(observation);
+		}
+
+		UUID columnName = TimeUUID.toUUID(observations.firstKey());
+		SensorObservationBlockCodec codec = new SensorObservationBlockCodec();
+		byte[] bytes = codec.encode(sensorId, propertyId, featureId,
+				columnName, observations);
+
+		assertTrue(SensorObservationBlockCodec.isBlock(bytes));
+		assertTrue(bytes.length < StatementUtils.toByteArray(statements).length);
+		assertEquals(statements,
+				codec.decode(sensorId, propertyId, featureId, columnName, bytes));
+
+		int a = 0;
+
+		for (Statement statement : codec.decode(sensorId, propertyId,
+				featureId, columnName, bytes, timeFrom, timeTo)) {
+			if (statement.getPredicate().equals(RDF.TYPE)
+					&& statement.getObject().equals(SSN.Observation))
+				a++;
+		}
+
+		assertEquals(e, a);
+	}
+
+	private static URI _id() {
+		return new URIImpl(ns + UUID.randomUUID());
+	}
+
+}
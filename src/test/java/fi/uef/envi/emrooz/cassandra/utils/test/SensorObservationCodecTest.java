@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.cassandra.utils.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.cassandra.utils.ObservationIdUtils;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec;
+import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
+import fi.uef.envi.emrooz.entity.ssn.Property;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
+import fi.uef.envi.emrooz.entity.time.Instant;
+import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: SensorObservationCodecTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class SensorObservationCodecTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationCodecTest.csv")
+	public void testEncodeDecode(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI observationId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI outputId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI valueId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI instantId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time)
+			throws IOException {
+		Set<Statement> e = new RDFEntityRepresenter()
+				.createRepresentation(new SensorObservation(observationId,
+						new Sensor(sensorId), new Property(propertyId),
+						new FeatureOfInterest(featureId), new SensorOutput(
+								outputId, new QuantityValue(valueId, value,
+										new Unit(unitId))), new Instant(
+								instantId, time)));
+
+		UUID columnName = TimeUUID.toUUID(time);
+		SensorObservationCodec codec = new SensorObservationCodec();
+		byte[] bytes = codec.encode(sensorId, propertyId, featureId,
+				columnName, e);
+
+		assertTrue(SensorObservationCodec.isCompact(bytes));
+		assertTrue(bytes.length < StatementUtils.toByteArray(e).length);
+		assertEquals(e, codec.decode(sensorId, propertyId, featureId,
+				columnName, bytes));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationCodecTest.csv")
+	public void testEncodeDecodeDerivedIds(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI observationId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI outputId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI valueId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI instantId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time)
+			throws IOException {
+		URI ns = vf.createURI(observationId.getNamespace());
+		Set<Statement> e = new RDFEntityRepresenter()
+				.createRepresentation(new SensorObservation(ObservationIdUtils
+						.createId(ns, sensorId, propertyId, featureId, time,
+								ObservationIdUtils.OBSERVATION), new Sensor(
+						sensorId), new Property(propertyId),
+						new FeatureOfInterest(featureId), new SensorOutput(
+								ObservationIdUtils.createId(ns, sensorId,
+										propertyId, featureId, time,
+										ObservationIdUtils.RESULT),
+								new QuantityValue(ObservationIdUtils.createId(
+										ns, sensorId, propertyId, featureId,
+										time, ObservationIdUtils.VALUE), value,
+										new Unit(unitId))), new Instant(
+								ObservationIdUtils.createId(ns, sensorId,
+										propertyId, featureId, time,
+										ObservationIdUtils.RESULT_TIME), time)));
+		Set<Statement> random = new RDFEntityRepresenter()
+				.createRepresentation(new SensorObservation(observationId,
+						new Sensor(sensorId), new Property(propertyId),
+						new FeatureOfInterest(featureId), new SensorOutput(
+								outputId, new QuantityValue(valueId, value,
+										new Unit(unitId))), new Instant(
+								instantId, time)));
+
+		UUID columnName = TimeUUID.toUUID(time);
+		SensorObservationCodec codec = new SensorObservationCodec();
+		byte[] bytes = codec.encode(sensorId, propertyId, featureId,
+				columnName, e);
+
+		assertTrue(SensorObservationCodec.isCompact(bytes));
+		assertTrue(bytes.length < codec.encode(sensorId, propertyId,
+				featureId, columnName, random).length);
+		assertEquals(e, codec.decode(sensorId, propertyId, featureId,
+				columnName, bytes));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationCodecTest.csv")
+	public void testEncodeDecodeConcurrently(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI observationId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI outputId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI valueId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) final Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) final URI instantId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) final DateTime time)
+			throws InterruptedException {
+		// Adders share one codec across producer threads
+		final SensorObservationCodec codec = new SensorObservationCodec();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < 8; i++) {
+			final int thread = i;
+
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+
+						for (int j = 0; j < 200; j++) {
+							// Values differ by thread, hence statements of
+							// other threads would not decode to these
+							DateTime t = time.plusSeconds(j);
+							Set<Statement> e = new RDFEntityRepresenter()
+									.createRepresentation(new SensorObservation(
+											observationId,
+											new Sensor(sensorId),
+											new Property(propertyId),
+											new FeatureOfInterest(featureId),
+											new SensorOutput(outputId,
+													new QuantityValue(valueId,
+															value + thread,
+															new Unit(unitId))),
+											new Instant(instantId, t)));
+							UUID columnName = TimeUUID.toUUID(t);
+							byte[] bytes = codec.encode(sensorId, propertyId,
+									featureId, columnName, e);
+
+							assertTrue(SensorObservationCodec.isCompact(bytes));
+							assertEquals(e, codec.decode(sensorId, propertyId,
+									featureId, columnName, bytes));
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+
+			}));
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+
+		start.countDown();
+
+		for (Thread thread : threads)
+			thread.join();
+
+		assertNull(failure.get());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/StatementUtilsTest-testToByteArray.csv")
+	public void testEncodeNotSensorObservation(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e) {
+		URI id = e.iterator().next().getPredicate();
+
+		assertNull(new SensorObservationCodec().encode(id, id, id,
+				TimeUUID.toUUID(new DateTime()), e));
+	}
+
+}
@@ -15,11 +15,17 @@ import junitparams.converters.ConvertParam;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
 
+import fi.uef.envi.emrooz.api.UriDictionary;
+import fi.uef.envi.emrooz.cassandra.utils.MemoryUriDictionary;
 import fi.uef.envi.emrooz.cassandra.utils.StatementUtils;
 import fi.uef.envi.emrooz.test.ParamsConverterTest;
 
@@ -52,4 +58,55 @@ public class StatementUtilsTest {
 				StatementUtils.toStatements(StatementUtils.toByteArray(e)));
 	}
 
+	@Test
+	@FileParameters("src/test/resources/StatementUtilsTest-testToByteArrayDictionary.csv")
+	public void testToByteArrayDictionary(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e)
+			throws RDFParseException, RDFHandlerException, IOException {
+		UriDictionary dictionary = new MemoryUriDictionary();
+		byte[] bytes = StatementUtils.toByteArray(e, dictionary);
+
+		assertTrue(StatementUtils.isDictionaryEncoded(bytes));
+		assertTrue(bytes.length < StatementUtils.toByteArray(e).length);
+		assertEquals(e, StatementUtils.toStatements(bytes, dictionary));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/StatementUtilsTest-testToByteArrayDictionary.csv")
+	public void testToByteArrayDictionaryInlineSubjects(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e) {
+		UriDictionary dictionary = new MemoryUriDictionary();
+
+		StatementUtils.toByteArray(e, dictionary);
+
+		// Subjects are local to an observation and not added to the dictionary
+		for (long id = 1; dictionary.getUri(id) != null; id++) {
+			URI uri = dictionary.getUri(id);
+
+			for (Statement statement : e)
+				assertFalse(uri.equals(statement.getSubject()));
+		}
+	}
+
+	@Test
+	@FileParameters("src/test/resources/StatementUtilsTest-testToByteArrayDictionary.csv")
+	public void testToByteArrayDictionaryFailure(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> e) {
+		// Predicates are always dictionary encoded; no partial buffer is
+		// returned when a dictionary fails to assign them an id
+		assertNull(StatementUtils.toByteArray(e, new UriDictionary() {
+
+			@Override
+			public long getId(URI uri) {
+				return 0;
+			}
+
+			@Override
+			public URI getUri(long id) {
+				return null;
+			}
+
+		}));
+	}
+
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.parser.ParsedQuery;
+
+import com.carmatech.cassandra.TimeUUID;
+
+import fi.uef.envi.emrooz.cassandra.utils.PayloadContext;
+import fi.uef.envi.emrooz.cassandra.utils.SensorObservationCodec;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
+import fi.uef.envi.emrooz.entity.ssn.Property;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
+import fi.uef.envi.emrooz.entity.time.Instant;
+import fi.uef.envi.emrooz.query.QueryFactory;
+import fi.uef.envi.emrooz.query.SensorObservationProjection;
+import fi.uef.envi.emrooz.query.SensorObservationRecord;
+import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
+import fi.uef.envi.emrooz.sesame.StatementTripleSource;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: SensorObservationProjectionTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class SensorObservationProjectionTest {
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private static final String ns = "http://example.org#";
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationProjectionTest.csv")
+	public void testSensorObservationProjection(String query,
+			boolean projection, long limit, long offset) {
+		SensorObservationProjection p = SensorObservationProjection
+				.create(QueryFactory.createParsedQuery(query));
+
+		assertEquals(projection, p != null);
+
+		if (p == null)
+			return;
+
+		assertEquals(limit, p.getLimit());
+		assertEquals(offset, p.getOffset());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationProjectionTest-testCreateBindingSet.csv")
+	public void testCreateBindingSet(
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI propertyId,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI featureId,
+			@ConvertParam(value = ParamsConverterTest.StringToDoubleConverter.class) Double value,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI unitId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time,
+			int solutions) throws IOException, QueryEvaluationException {
+		ParsedQuery q = QueryFactory.createParsedQuery(query);
+		SensorObservationProjection p = SensorObservationProjection.create(q);
+
+		assertEquals(true, p != null);
+
+		Set<Statement> statements = new RDFEntityRepresenter()
+				.createRepresentation(new SensorObservation(vf
+						.createURI(ns + "o1"), new Sensor(sensorId),
+						new Property(propertyId), new FeatureOfInterest(
+								featureId), new SensorOutput(vf.createURI(ns
+								+ "so1"), new QuantityValue(vf.createURI(ns
+								+ "ov1"), value, new Unit(unitId))),
+						new Instant(vf.createURI(ns + "i1"), time)));
+
+		UUID columnName = TimeUUID.toUUID(time);
+		SensorObservationCodec codec = new SensorObservationCodec();
+		SensorObservationRecord record = codec
+				.decodeRecords(
+						new PayloadContext(sensorId, propertyId, featureId,
+								null, null, null),
+						columnName,
+						codec.encode(sensorId, propertyId, featureId,
+								columnName, statements)).get(time);
+
+		// Solutions of the records are those of the query evaluated on the
+		// statements of the observations
+		Set<Map<String, String>> e = new HashSet<Map<String, String>>();
+		StatementTripleSource source = new StatementTripleSource(null);
+
+		for (Statement statement : statements)
+			source.add(statement);
+
+		CloseableIteration<BindingSet, QueryEvaluationException> it = source
+				.evaluate(source.optimize(q.getTupleExpr()));
+
+		while (it.hasNext())
+			e.add(toMap(it.next()));
+
+		it.close();
+
+		Set<Map<String, String>> a = new HashSet<Map<String, String>>();
+		BindingSet bs = p.createBindingSet(record);
+
+		if (bs != null)
+			a.add(toMap(bs));
+
+		assertEquals(solutions, e.size());
+		assertEquals(e, a);
+	}
+
+	private Map<String, String> toMap(BindingSet bs) {
+		Map<String, String> ret = new HashMap<String, String>();
+
+		for (Binding b : bs)
+			ret.put(b.getName(), b.getValue().stringValue());
+
+		return ret;
+	}
+
+}
@@ -84,4 +84,31 @@ public class SensorObservationQueryRewriterTest {
 
 		rc.close();
 	}
+
+	@Test
+	@FileParameters("src/test/resources/SensorObservationQueryRewriterTest-testReloadInterval.csv")
+	public void testReloadInterval(
+			String kb1,
+			String kb2,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI sensorId,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeFrom,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime timeTo,
+			long reloadInterval, int e) {
+		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore()));
+		ks.load(new File(kb1));
+
+		SensorObservationQueryRewriter rw = new SensorObservationQueryRewriter(
+				ks);
+		rw.setReloadInterval(reloadInterval);
+
+		// Sensors of the knowledge store that are not registered with update()
+		ks.load(new File(kb2));
+
+		assertEquals(e, rw.rewrite(SensorObservationQuery.create(sensorId,
+				null, null, timeFrom, timeTo)).size());
+
+		ks.close();
+	}
+
 }
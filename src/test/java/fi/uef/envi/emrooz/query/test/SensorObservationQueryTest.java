@@ -82,4 +82,14 @@ public class SensorObservationQueryTest {
 		assertNotEquals(e, a);
 	}
 
+	@Test
+	@FileParameters("src/test/resources/SensorObservationQueryTest-3.csv")
+	public void testSensorObservationQuery3(String query, long limit,
+			long offset) {
+		SensorObservationQuery q = SensorObservationQuery.create(query);
+
+		assertEquals(limit, q.getLimit());
+		assertEquals(offset, q.getOffset());
+	}
+
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.query.test;
+
+import static org.junit.Assert.assertEquals;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.query.parser.ParsedQuery;
+
+import fi.uef.envi.emrooz.query.QueryFactory;
+import fi.uef.envi.emrooz.query.TimeOrderedQueryAnalyzer;
+
+/**
+ * <p>
+ * Title: TimeOrderedQueryAnalyzerTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class TimeOrderedQueryAnalyzerTest {
+
+	@Test
+	@FileParameters("src/test/resources/TimeOrderedQueryAnalyzerTest.csv")
+	public void testTimeOrderedQueryAnalyzer(String query,
+			boolean orderedByTime, boolean observationLocal,
+			boolean observationStreamable) {
+		ParsedQuery q = QueryFactory.createParsedQuery(query);
+
+		assertEquals(orderedByTime, TimeOrderedQueryAnalyzer.isOrderedByTime(q));
+		assertEquals(observationLocal,
+				TimeOrderedQueryAnalyzer.isObservationLocal(q));
+		assertEquals(observationStreamable,
+				TimeOrderedQueryAnalyzer.isObservationStreamable(q));
+	}
+
+}
@@ -5,11 +5,14 @@
 
 package fi.uef.envi.emrooz.sesame.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
 import junitparams.FileParameters;
@@ -26,12 +29,16 @@ import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.RDFParseException;
 import org.openrdf.sail.memory.MemoryStore;
 
+import fi.uef.envi.emrooz.entity.qb.Dataset;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
 import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
 import fi.uef.envi.emrooz.entity.ssn.Property;
 import fi.uef.envi.emrooz.entity.ssn.Sensor;
 import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
 import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
 import fi.uef.envi.emrooz.test.ParamsConverterTest;
+import fi.uef.envi.emrooz.vocabulary.QUDTUnit;
 
 /**
  * <p>
@@ -88,7 +95,7 @@ public class SesameKnowledgeStoreTest {
 			String assertType) throws RepositoryException, RDFParseException,
 			IOException {
 		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(new MemoryStore()));
-		ks.addSensor(new Sensor(sensorId, new Property(propertyId, new FeatureOfInterest(featureId))));
+		ks.addSensor(new Sensor(sensorId, new Property[] { new Property(propertyId, new FeatureOfInterest(featureId)) }));
 		
 		RDFEntityRepresenter er = new RDFEntityRepresenter();
 		
@@ -105,4 +112,53 @@ public class SesameKnowledgeStoreTest {
 		ks.close();
 	}
 
+	@Test
+	@FileParameters("src/test/resources/SesameKnowledgeStoreTest-testAddSensors.csv")
+	public void testAddSensors(
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> first,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> second,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements) {
+		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(new MemoryStore()));
+		RDFEntityRepresenter er = new RDFEntityRepresenter();
+
+		ks.addSensors(er.createSensors(first));
+
+		Set<Sensor> before = ks.getSensors();
+
+		ks.addSensors(er.createSensors(second));
+
+		assertTrue(CollectionUtils.isEqualCollection(er.createSensors(first), before));
+		assertTrue(CollectionUtils.isEqualCollection(er.createSensors(statements), ks.getSensors()));
+
+		ks.close();
+	}
+
+	@Test
+	@FileParameters("src/test/resources/SesameKnowledgeStoreTest-testAddDatasets.csv")
+	public void testAddDatasets(
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI datasetId1,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI frequencyId1,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI datasetId2,
+			@ConvertParam(value = ParamsConverterTest.StringToURIConverter.class) URI frequencyId2) {
+		SesameKnowledgeStore ks = new SesameKnowledgeStore(new SailRepository(new MemoryStore()));
+		Dataset d1 = new Dataset(datasetId1, new QuantityValue(frequencyId1, 1.0, new Unit(QUDTUnit.Hertz)));
+		Dataset d2 = new Dataset(datasetId2, new QuantityValue(frequencyId2, 2.0, new Unit(QUDTUnit.Hertz)));
+
+		ks.addDataset(d1);
+
+		assertEquals(1, ks.getDatasets().size());
+
+		// The dataset that exists is not added again
+		ks.addDatasets(Arrays.asList(d1, d2));
+
+		Set<URI> a = new HashSet<URI>();
+
+		for (Dataset dataset : ks.getDatasets())
+			a.add(dataset.getId());
+
+		assertEquals(new HashSet<URI>(Arrays.asList(datasetId1, datasetId2)), a);
+
+		ks.close();
+	}
+
 }
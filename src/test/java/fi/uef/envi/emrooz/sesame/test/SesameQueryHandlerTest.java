@@ -5,12 +5,15 @@
 
 package fi.uef.envi.emrooz.sesame.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,18 +22,38 @@ import junitparams.JUnitParamsRunner;
 import junitparams.converters.ConvertParam;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.TupleQueryResultHandler;
 import org.openrdf.query.parser.ParsedQuery;
 import org.openrdf.query.parser.sparql.SPARQLParser;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
 
 import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
+import fi.uef.envi.emrooz.api.TimeOrderedResultSet;
+import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
+import fi.uef.envi.emrooz.entity.qudt.Unit;
+import fi.uef.envi.emrooz.entity.ssn.FeatureOfInterest;
+import fi.uef.envi.emrooz.entity.ssn.Property;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
+import fi.uef.envi.emrooz.entity.ssn.SensorObservation;
+import fi.uef.envi.emrooz.entity.ssn.SensorOutput;
+import fi.uef.envi.emrooz.entity.time.Instant;
+import fi.uef.envi.emrooz.rdf.RDFEntityRepresenter;
 import fi.uef.envi.emrooz.sesame.SesameQueryHandler;
 import fi.uef.envi.emrooz.test.ParamsConverterTest;
 
@@ -91,6 +114,156 @@ public class SesameQueryHandlerTest {
 		assertFalse(CollectionUtils.isEqualCollection(e, a));
 	}
 
+	@Test
+	@FileParameters("src/test/resources/SesameQueryHandlerTest-testObservationStreamable.csv")
+	public void testObservationStreamable(
+			String query,
+			int observations,
+			int chunkSize,
+			boolean streamable,
+			@ConvertParam(value = ParamsConverterTest.StringToDateTimeConverter.class) DateTime time)
+			throws Exception {
+		ValueFactory vf = ValueFactoryImpl.getInstance();
+		String ns = "http://example.org#";
+		RDFEntityRepresenter er = new RDFEntityRepresenter();
+		List<DateTime> times = new ArrayList<DateTime>();
+		List<Statement> statements = new ArrayList<Statement>();
+
+		for (int i = 0; i < observations; i++) {
+			DateTime t = time.plusSeconds(i);
+
+			for (Statement statement : er
+					.createRepresentation(new SensorObservation(vf
+							.createURI(ns + "o" + i), new Sensor(vf
+							.createURI(ns + "s1")), new Property(vf
+							.createURI(ns + "p1")), new FeatureOfInterest(vf
+							.createURI(ns + "f1")), new SensorOutput(vf
+							.createURI(ns + "so" + i), new QuantityValue(vf
+							.createURI(ns + "ov" + i), (double) (i % 3),
+							new Unit(vf.createURI(ns + "u1")))), new Instant(
+							vf.createURI(ns + "i" + i), t)))) {
+				times.add(t);
+				statements.add(statement);
+			}
+		}
+
+		SPARQLParser p = new SPARQLParser();
+		SesameQueryHandler h = new SesameQueryHandler(
+				new ThisTimeOrderedQueryHandler(times, statements),
+				p.parseQuery(query, null));
+		h.setChunkSize(chunkSize);
+
+		assertEquals(streamable, h.isObservationStreamable());
+
+		List<Map<String, String>> a = new ArrayList<Map<String, String>>();
+		ResultSet<BindingSet> r = h.evaluate();
+
+		while (r.hasNext())
+			a.add(toMap(r.next()));
+
+		r.close();
+
+		// Solutions are those of the query evaluated on all statements at
+		// once, whether or not observations are streamed
+		List<Map<String, String>> e = new ArrayList<Map<String, String>>();
+		Repository repository = new SailRepository(new MemoryStore());
+		repository.initialize();
+		RepositoryConnection c = repository.getConnection();
+		c.add(statements);
+
+		TupleQueryResult rs = c.prepareTupleQuery(QueryLanguage.SPARQL, query)
+				.evaluate();
+
+		while (rs.hasNext())
+			e.add(toMap(rs.next()));
+
+		rs.close();
+		c.close();
+		repository.shutDown();
+
+		assertTrue(CollectionUtils.isEqualCollection(e, a));
+	}
+
+	private static Map<String, String> toMap(BindingSet bs) {
+		Map<String, String> ret = new HashMap<String, String>();
+		Iterator<Binding> it = bs.iterator();
+
+		while (it.hasNext()) {
+			Binding b = it.next();
+
+			ret.put(b.getName(), b.getValue().stringValue());
+		}
+
+		return ret;
+	}
+
+	private class ThisTimeOrderedQueryHandler implements
+			QueryHandler<Statement> {
+
+		List<DateTime> times;
+		List<Statement> statements;
+
+		public ThisTimeOrderedQueryHandler(List<DateTime> times,
+				List<Statement> statements) {
+			this.times = times;
+			this.statements = statements;
+		}
+
+		@Override
+		public ResultSet<Statement> evaluate() {
+			return new ThisTimeOrderedResultSet(times, statements);
+		}
+
+		@Override
+		public void evaluate(TupleQueryResultHandler handler) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+
+	}
+
+	private class ThisTimeOrderedResultSet implements
+			TimeOrderedResultSet<Statement> {
+
+		List<DateTime> times;
+		List<Statement> statements;
+		int next = 0;
+
+		public ThisTimeOrderedResultSet(List<DateTime> times,
+				List<Statement> statements) {
+			this.times = times;
+			this.statements = statements;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < statements.size();
+		}
+
+		@Override
+		public Statement next() {
+			return statements.get(next++);
+		}
+
+		@Override
+		public DateTime getTime() {
+			if (!hasNext())
+				return null;
+
+			return times.get(next);
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+
+	}
+
 	private class ThisQueryHandler implements QueryHandler<Statement> {
 
 		Set<Statement> statements;
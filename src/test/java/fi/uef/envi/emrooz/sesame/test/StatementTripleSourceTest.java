@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 see CREDITS.txt
+ * All rights reserved.
+ */
+
+package fi.uef.envi.emrooz.sesame.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junitparams.FileParameters;
+import junitparams.JUnitParamsRunner;
+import junitparams.converters.ConvertParam;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import fi.uef.envi.emrooz.sesame.StatementTripleSource;
+import fi.uef.envi.emrooz.test.ParamsConverterTest;
+
+/**
+ * <p>
+ * Title: StatementTripleSourceTest
+ * </p>
+ * <p>
+ * Description:
+ * </p>
+ * <p>
+ * Project: Emrooz
+ * </p>
+ * <p>
+ * Copyright: Copyright (C) 2015
+ * </p>
+ * 
+ * @author Markus Stocker
+ */
+
+@RunWith(JUnitParamsRunner.class)
+public class StatementTripleSourceTest {
+
+	@Test
+	@FileParameters("src/test/resources/StatementTripleSourceTest.csv")
+	public void testStatementTripleSource(
+			String query,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			boolean ordered) throws Exception {
+		SPARQLParser p = new SPARQLParser();
+		ParsedQuery q = p.parseQuery(query, null);
+
+		StatementTripleSource source = new StatementTripleSource(
+				q.getDataset());
+
+		for (Statement statement : statements)
+			source.add(statement);
+
+		List<Map<String, String>> a = new ArrayList<Map<String, String>>();
+		CloseableIteration<BindingSet, ?> it = source.evaluate(source
+				.optimize(q.getTupleExpr()));
+
+		while (it.hasNext())
+			a.add(toMap(it.next()));
+
+		it.close();
+
+		// Solutions are expected as evaluated on a MemoryStore, which the
+		// triple source replaces
+		List<Map<String, String>> e = new ArrayList<Map<String, String>>();
+		Repository r = new SailRepository(new MemoryStore());
+		r.initialize();
+		RepositoryConnection c = r.getConnection();
+		c.add(statements);
+
+		TupleQueryResult rs = c.prepareTupleQuery(QueryLanguage.SPARQL, query)
+				.evaluate();
+
+		while (rs.hasNext())
+			e.add(toMap(rs.next()));
+
+		rs.close();
+		c.close();
+		r.shutDown();
+
+		if (ordered) {
+			assertEquals(e, a);
+			return;
+		}
+
+		assertTrue(CollectionUtils.isEqualCollection(e, a));
+	}
+
+	private static Map<String, String> toMap(BindingSet bs) {
+		Map<String, String> ret = new HashMap<String, String>();
+		Iterator<Binding> it = bs.iterator();
+
+		while (it.hasNext()) {
+			Binding b = it.next();
+
+			ret.put(b.getName(), b.getValue().stringValue());
+		}
+
+		return ret;
+	}
+
+}
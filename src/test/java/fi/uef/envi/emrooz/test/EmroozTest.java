@@ -6,13 +6,18 @@
 package fi.uef.envi.emrooz.test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junitparams.FileParameters;
 import junitparams.JUnitParamsRunner;
@@ -23,6 +28,7 @@ import org.joda.time.DateTime;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -41,6 +47,7 @@ import fi.uef.envi.emrooz.api.QueryHandler;
 import fi.uef.envi.emrooz.api.ResultSet;
 import fi.uef.envi.emrooz.entity.qudt.QuantityValue;
 import fi.uef.envi.emrooz.entity.ssn.Frequency;
+import fi.uef.envi.emrooz.entity.ssn.Sensor;
 import fi.uef.envi.emrooz.query.DatasetObservationQuery;
 import fi.uef.envi.emrooz.query.SensorObservationQuery;
 import fi.uef.envi.emrooz.sesame.SesameKnowledgeStore;
@@ -107,6 +114,143 @@ public class EmroozTest {
 		em.close();
 	}
 
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testAddSensorObservationsPerSeries.csv")
+	public void testAddSensorObservationsPerSeries(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			@ConvertParam(value = ParamsConverterTest.StringToBindingMapSet.class) Set<Map<String, String>> e) {
+		ThisRecordingDataStore ds = new ThisRecordingDataStore();
+		Emrooz em = new Emrooz(new SesameKnowledgeStore(new SailRepository(
+				new MemoryStore())), ds);
+		em.loadKnowledgeBase(new File(kb));
+		em.addSensorObservations(statements);
+
+		Set<Map<String, String>> a = new HashSet<Map<String, String>>();
+
+		for (Map.Entry<List<URI>, List<Integer>> entry : ds.calls.entrySet()) {
+			List<URI> series = entry.getKey();
+			List<Integer> calls = entry.getValue();
+
+			int observations = 0;
+
+			for (Integer call : calls)
+				observations += call;
+
+			Map<String, String> m = new HashMap<String, String>();
+			m.put("sensor", series.get(0).stringValue());
+			m.put("property", series.get(1).stringValue());
+			m.put("feature", series.get(2).stringValue());
+			m.put("calls", String.valueOf(calls.size()));
+			m.put("observations", String.valueOf(observations));
+			a.add(m);
+		}
+
+		em.close();
+
+		assertTrue(CollectionUtils.isEqualCollection(e, a));
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testUnknownIdCache.csv")
+	public void testUnknownIdCache(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) Set<Statement> statements,
+			long unknownIdCacheTtl, int adds, long sleep, boolean register,
+			int loads, int stored) throws InterruptedException {
+		ThisKnowledgeStore ks = new ThisKnowledgeStore();
+		ThisRecordingDataStore ds = new ThisRecordingDataStore();
+		Emrooz em = new Emrooz(ks, ds);
+		em.loadKnowledgeBase(new File(kb));
+		em.setUnknownIdCacheTtl(unknownIdCacheTtl);
+
+		int a = 0;
+
+		for (int i = 0; i < adds; i++) {
+			if (i > 0) {
+				Thread.sleep(sleep);
+
+				// Registration reloads sensors, hence unknown identifiers
+				// are forgotten
+				if (register)
+					em.loadKnowledgeBase(new File(kb));
+			}
+
+			int before = ks.sensorLoads.get();
+			em.addSensorObservations(statements);
+			a += ks.sensorLoads.get() - before;
+		}
+
+		em.close();
+
+		assertEquals(loads, a);
+		assertEquals(stored, ds.getObservations());
+	}
+
+	@Test
+	@FileParameters("src/test/resources/EmroozTest-testUnknownIdCacheConcurrently.csv")
+	public void testUnknownIdCacheConcurrently(
+			String kb,
+			@ConvertParam(value = ParamsConverterTest.StringToStatementsConverter.class) final Set<Statement> statements,
+			int threads, int loads) throws InterruptedException {
+		ThisKnowledgeStore ks = new ThisKnowledgeStore();
+		final Emrooz em = new Emrooz(ks, new ThisRecordingDataStore());
+		em.loadKnowledgeBase(new File(kb));
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> l = new ArrayList<Thread>();
+
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					em.addSensorObservations(statements);
+				}
+
+			});
+
+			thread.start();
+			l.add(thread);
+		}
+
+		int before = ks.sensorLoads.get();
+
+		start.countDown();
+
+		for (Thread thread : l)
+			thread.join();
+
+		em.close();
+
+		// Threads that miss the sensor together reload once, the others find
+		// it unknown once they hold the lock
+		assertEquals(loads, ks.sensorLoads.get() - before);
+	}
+
+	private class ThisKnowledgeStore extends SesameKnowledgeStore {
+
+		AtomicInteger sensorLoads = new AtomicInteger();
+
+		public ThisKnowledgeStore() {
+			super(new SailRepository(new MemoryStore()));
+		}
+
+		@Override
+		public Set<Sensor> getSensors() {
+			sensorLoads.incrementAndGet();
+
+			return super.getSensors();
+		}
+
+	}
+
 	private class ThisDataStore implements DataStore {
 
 		Map<URI, Map<URI, Map<URI, Map<DateTime, Set<Statement>>>>> sensorObservationStore;
@@ -146,6 +290,17 @@ public class EmroozTest {
 			m3.put(resultTime, statements);
 		}
 
+		@Override
+		public void addSensorObservations(URI sensorId, URI propertyId,
+				URI featureId, Frequency frequency,
+				Map<DateTime, Set<Statement>> observations) {
+			for (Map.Entry<DateTime, Set<Statement>> observation : observations
+					.entrySet()) {
+				addSensorObservation(sensorId, propertyId, featureId,
+						frequency, observation.getKey(), observation.getValue());
+			}
+		}
+
 		@Override
 		public void addDatasetObservation(URI datasetId,
 				QuantityValue frequency, DateTime timePeriod,
@@ -153,6 +308,13 @@ public class EmroozTest {
 			throw new UnsupportedOperationException();
 		}
 
+		@Override
+		public void addDatasetObservations(URI datasetId,
+				QuantityValue frequency,
+				Map<DateTime, Set<Statement>> observations) {
+			throw new UnsupportedOperationException();
+		}
+
 		@Override
 		public QueryHandler<Statement> createSensorObservationQueryHandler(
 				Map<SensorObservationQuery, Frequency> queries) {
@@ -176,6 +338,41 @@ public class EmroozTest {
 
 	}
 
+	private class ThisRecordingDataStore extends ThisDataStore {
+
+		// The number of observations received by each call per series
+		Map<List<URI>, List<Integer>> calls = new HashMap<List<URI>, List<Integer>>();
+
+		@Override
+		public void addSensorObservations(URI sensorId, URI propertyId,
+				URI featureId, Frequency frequency,
+				Map<DateTime, Set<Statement>> observations) {
+			List<URI> series = Arrays.asList(sensorId, propertyId, featureId);
+			List<Integer> l = calls.get(series);
+
+			if (l == null) {
+				l = new ArrayList<Integer>();
+				calls.put(series, l);
+			}
+
+			l.add(observations.size());
+
+			super.addSensorObservations(sensorId, propertyId, featureId,
+					frequency, observations);
+		}
+
+		int getObservations() {
+			int ret = 0;
+
+			for (List<Integer> l : calls.values())
+				for (Integer observations : l)
+					ret += observations;
+
+			return ret;
+		}
+
+	}
+
 	private class ThisDatasetObservationQueryHandler implements
 			QueryHandler<Statement> {
 